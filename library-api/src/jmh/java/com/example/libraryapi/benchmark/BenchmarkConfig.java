@@ -0,0 +1,13 @@
+package com.example.libraryapi.benchmark;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class BenchmarkConfig {
+	
+	@Bean
+	public InMemoryMailSender javaMailSender() {
+		return new InMemoryMailSender();
+	}
+}
@@ -0,0 +1,47 @@
+package com.example.libraryapi.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.springframework.http.MediaType;
+
+import com.example.libraryapi.dto.BookImportResultDTO;
+import com.example.libraryapi.service.BookImportService;
+
+/***
+ * POST /api/books/bulk: importa {@link #ROWS} livros inéditos em CSV por operação, sobre o
+ * acervo já populado.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BookImportBenchmark extends LibraryBenchmark {
+	
+	private static final int ROWS = 10_000;
+	
+	private BookImportService importService;
+	private long nextFile;
+	
+	@Override
+	protected void setUp() {
+		importService = bean(BookImportService.class);
+	}
+	
+	@Benchmark
+	public BookImportResultDTO importCsv() throws IOException {
+		long file = nextFile++;
+		StringBuilder csv = new StringBuilder("tittle,author,isbn\n");
+		for (int i = 0; i < ROWS; i++) {
+			csv.append("Importado ").append(i).append(",Autor ").append(i % 1000)
+				.append(",import-").append(file).append('-').append(i).append('\n');
+		}
+		
+		return importService.importBooks(
+				new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), MediaType.valueOf("text/csv"));
+	}
+}
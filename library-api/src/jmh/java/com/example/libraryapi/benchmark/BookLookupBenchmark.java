@@ -0,0 +1,106 @@
+package com.example.libraryapi.benchmark;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.service.BookService;
+
+/***
+ * Manada de leitores sobre o mesmo título, como no GET /api/books/{id} de um livro em alta, com o
+ * cache de segundo nível desligado para que toda leitura que não é agrupada vá ao banco.
+ *
+ * As consultas ao banco por segundo saem como o contador secundário {@code dbQueries}: com
+ * -p singleFlight=true há uma consulta por vez por chave e o ritmo não sobe com o número de
+ * threads (-t 2 / -t 64); com false cresce junto com as threads até o tamanho do pool de conexões.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(32)
+public class BookLookupBenchmark extends LibraryBenchmark {
+
+	private static final long HOT_BOOK = 1L;
+
+	@Param({ "true", "false" })
+	public boolean singleFlight;
+
+	private BookService bookService;
+
+	@Override
+	protected void setUp() {
+		bookService = bean(BookService.class);
+	}
+
+	@Override
+	protected String[] properties() {
+		return new String[] {
+				"application.books.single-flight.enabled=" + singleFlight,
+				"spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+				"spring.jpa.properties.hibernate.cache.use_query_cache=false",
+				"spring.jpa.properties.hibernate.session_factory.statement_inspector=" + QueryCounter.class.getName() };
+	}
+
+	@Benchmark
+	public Optional<Book> hotBookById(Queries queries) {
+		return bookService.getById(HOT_BOOK);
+	}
+
+	@Benchmark
+	public Optional<Book> hotBookByIsbn(Queries queries) {
+		return bookService.getBookByIsbn("isbn-" + HOT_BOOK);
+	}
+
+	/***
+	 * Consultas feitas pela thread do benchmark na iteração; o JMH soma as threads e divide pelo
+	 * tempo. No single-flight a consulta roda na thread que carrega a chave, então as que só
+	 * esperaram o resultado não contam.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Queries {
+
+		public long dbQueries;
+
+		@Setup(Level.Iteration)
+		public void bind() {
+			dbQueries = 0;
+			QueryCounter.CURRENT.set(this);
+		}
+
+		@TearDown(Level.Iteration)
+		public void unbind() {
+			QueryCounter.CURRENT.remove();
+		}
+	}
+
+	/***
+	 * Conta cada SQL preparado pelo Hibernate no {@link Queries} da thread corrente.
+	 */
+	public static class QueryCounter implements StatementInspector {
+
+		static final ThreadLocal<Queries> CURRENT = new ThreadLocal<>();
+
+		@Override
+		public String inspect(String sql) {
+			Queries queries = CURRENT.get();
+			if (queries != null) {
+				queries.dbQueries++;
+			}
+			return sql;
+		}
+	}
+}
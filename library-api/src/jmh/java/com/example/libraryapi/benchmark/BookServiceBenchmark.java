@@ -0,0 +1,46 @@
+package com.example.libraryapi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.service.BookService;
+
+/***
+ * BookServiceImpl.find com Example (CONTAINING + ignoreCase), como no GET /api/books,
+ * e a busca ranqueada pelo índice invertido (GET /api/books?q=).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BookServiceBenchmark extends LibraryBenchmark {
+	
+	private BookService bookService;
+	private PageRequest pageRequest;
+	
+	@Override
+	protected void setUp() {
+		bookService = bean(BookService.class);
+		pageRequest = PageRequest.of(0, 100);
+	}
+	
+	@Benchmark
+	public Page<Book> findByAuthor() {
+		return bookService.find(Book.builder().author("autor 42").build(), pageRequest);
+	}
+	
+	@Benchmark
+	public Page<Book> findByTittleAndAuthor() {
+		return bookService.find(Book.builder().tittle("titulo 99").author("autor 99").build(), pageRequest);
+	}
+	
+	@Benchmark
+	public Page<Book> searchByTittleAndAuthor() {
+		return bookService.search("titulo 99 autor", pageRequest);
+	}
+}
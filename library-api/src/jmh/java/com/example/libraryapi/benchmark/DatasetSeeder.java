@@ -0,0 +1,81 @@
+package com.example.libraryapi.benchmark;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.libraryapi.model.Loan;
+
+/***
+ * Popula o H2 embarcado via JDBC batch, sem passar pelos serviços.
+ * 
+ * Para cada livro é criado um empréstimo já devolvido (histórico). Os livros com
+ * id múltiplo de {@link #LATE_EVERY} recebem também um empréstimo atrasado em aberto.
+ * 
+ * Os livros recebem os ids 1..N explicitamente e a book_seq é reposicionada depois deles.
+ */
+public final class DatasetSeeder {
+	
+	public static final int LATE_EVERY = 10;
+	
+	private static final int BATCH_SIZE = 10_000;
+	
+	private DatasetSeeder() {
+	}
+	
+	public static void seed(JdbcTemplate jdbcTemplate, int books) {
+		List<Object[]> bookRows = new ArrayList<>(BATCH_SIZE);
+		List<Object[]> loanRows = new ArrayList<>(BATCH_SIZE);
+		Date returnedDate = Date.valueOf(LocalDate.now().minusDays(30));
+		Timestamp returnedDueDate = Timestamp.valueOf(LocalDateTime.now().minusDays(26));
+		Date lateDate = Date.valueOf(LocalDate.now().minusDays(10));
+		Timestamp lateDueDate = Timestamp.valueOf(LocalDateTime.now().minusDays(6));
+		
+		for (long id = 1; id <= books; id++) {
+			boolean late = id % LATE_EVERY == 0;
+			bookRows.add(new Object[] { id, "Titulo " + id, "Autor " + (id % 1000), "isbn-" + id,
+					late ? 2 : 1, late ? lateDate : returnedDate });
+			if (bookRows.size() == BATCH_SIZE) {
+				insertBooks(jdbcTemplate, bookRows);
+			}
+		}
+		insertBooks(jdbcTemplate, bookRows);
+		
+		// o otimizador pooled usa o valor da sequence como fim do bloco: o próximo bloco começa em N+1
+		Long increment = jdbcTemplate.queryForObject(
+				"select increment from information_schema.sequences where sequence_name = 'BOOK_SEQ'", Long.class);
+		jdbcTemplate.execute("alter sequence book_seq restart with " + (books + increment));
+		
+		for (long id = 1; id <= books; id++) {
+			String email = "cliente" + id + "@email.com";
+			Integer hash = Loan.customerHash(email);
+			loanRows.add(new Object[] { "Cliente " + id, email, hash, id, returnedDate, returnedDueDate, true, null });
+			if (id % LATE_EVERY == 0) {
+				loanRows.add(new Object[] { "Cliente " + id, email, hash, id, lateDate, lateDueDate, false, id });
+			}
+			if (loanRows.size() >= BATCH_SIZE) {
+				insertLoans(jdbcTemplate, loanRows);
+			}
+		}
+		insertLoans(jdbcTemplate, loanRows);
+		
+		// contadores do livro: o id do empréstimo aberto só existe depois do insert
+		jdbcTemplate.update("update book b set active_loan_id = (select l.id from loan l where l.open_book_id = b.id) "
+				+ "where exists (select 1 from loan l where l.open_book_id = b.id)");
+	}
+	
+	private static void insertBooks(JdbcTemplate jdbcTemplate, List<Object[]> rows) {
+		jdbcTemplate.batchUpdate("insert into book (id, tittle, author, isbn, total_loans, last_loan_date, version) values (?, ?, ?, ?, ?, ?, 0)", rows);
+		rows.clear();
+	}
+	
+	private static void insertLoans(JdbcTemplate jdbcTemplate, List<Object[]> rows) {
+		jdbcTemplate.batchUpdate("insert into loan (customer, customer_email, customer_hash, id_book, loan_date, due_date, returned, open_book_id, version) values (?, ?, ?, ?, ?, ?, ?, ?, 0)", rows);
+		rows.clear();
+	}
+}
@@ -0,0 +1,58 @@
+package com.example.libraryapi.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import com.example.libraryapi.exporter.RowWriter;
+import com.example.libraryapi.service.ExportService;
+
+/***
+ * GET /api/books/export e /api/loans/export completos, escrevendo em um fluxo que só conta
+ * os bytes. Com -prof gc a alocação por operação mostra que nada além da linha corrente é retido.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportBenchmark extends LibraryBenchmark {
+	
+	private ExportService exportService;
+	
+	@Override
+	protected void setUp() {
+		exportService = bean(ExportService.class);
+	}
+	
+	@Benchmark
+	public long exportBooks() throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		exportService.exportBooks(RowWriter.NDJSON, out);
+		return out.count;
+	}
+	
+	@Benchmark
+	public long exportLoansCsv() throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		exportService.exportLoans(RowWriter.CSV, out);
+		return out.count;
+	}
+	
+	private static class CountingOutputStream extends OutputStream {
+		
+		private long count;
+		
+		@Override
+		public void write(int b) {
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.example.libraryapi.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+/***
+ * JavaMailSender que apenas conta as mensagens, sem abrir conexão SMTP. Com {@code latencyMillis}
+ * cada envio espera esse tempo, simulando um servidor SMTP lento.
+ */
+public class InMemoryMailSender extends JavaMailSenderImpl {
+	
+	private final AtomicLong messages = new AtomicLong();
+	private final AtomicLong recipients = new AtomicLong();
+	private volatile long latencyMillis;
+	
+	/***
+	 * Lote numa única "conexão": a latência é paga uma vez por chamada, como no SMTP real.
+	 */
+	@Override
+	public void send(MimeMessage... mimeMessages) {
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (MimeMessage message : mimeMessages) {
+			messages.incrementAndGet();
+			try {
+				Address[] to = message.getAllRecipients();
+				recipients.addAndGet(to == null ? 0 : to.length);
+			} catch (MessagingException e) {
+				throw new MailPreparationException(e);
+			}
+		}
+	}
+	
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+	
+	public long getMessages() {
+		return messages.get();
+	}
+	
+	public long getRecipients() {
+		return recipients.get();
+	}
+}
@@ -0,0 +1,86 @@
+package com.example.libraryapi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.libraryapi.LibraryApiApplication;
+import com.example.libraryapi.service.impl.BookServiceImpl;
+import com.example.libraryapi.service.impl.LoanServiceImpl;
+
+/***
+ * Base dos benchmarks que precisam da aplicação: sobe o contexto Spring (porta aleatória),
+ * com um H2 embarcado exclusivo do fork e populado com {@code books} livros.
+ * 
+ * Tamanho do acervo: -p books=10000 ou -p books=1000000.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public abstract class LibraryBenchmark {
+	
+	@Param({ "10000", "1000000" })
+	public int books;
+	
+	protected ConfigurableApplicationContext context;
+	
+	@Setup(Level.Trial)
+	public void startApplication() {
+		context = new SpringApplicationBuilder(LibraryApiApplication.class, BenchmarkConfig.class)
+				.properties(
+						"server.port=0",
+						"spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+						"spring.main.banner-mode=off",
+						"spring.autoconfigure.exclude=org.springframework.boot.devtools.autoconfigure.DevToolsDataSourceAutoConfiguration",
+						"logging.level.root=WARN",
+						"logging.file.name=")
+				.run(arguments());
+		
+		DatasetSeeder.seed(context.getBean(JdbcTemplate.class), books);
+		// o acervo é populado depois da subida: recarrega os índices em memória
+		context.getBean(BookServiceImpl.class).loadIndexes();
+		context.getBean(LoanServiceImpl.class).loadAvailability();
+		context.getBean(LoanServiceImpl.class).loadDueWheel();
+		setUp();
+	}
+	
+	@TearDown(Level.Trial)
+	public void stopApplication() {
+		context.close();
+	}
+	
+	protected void setUp() {
+	}
+	
+	/***
+	 * Propriedades do benchmark, passadas como argumentos para prevalecer sobre o application.properties.
+	 */
+	protected String[] properties() {
+		return new String[0];
+	}
+	
+	private String[] arguments() {
+		String[] properties = properties();
+		String[] arguments = new String[properties.length];
+		for (int i = 0; i < properties.length; i++) {
+			arguments[i] = "--" + properties[i];
+		}
+		return arguments;
+	}
+	
+	protected <T> T bean(Class<T> type) {
+		return context.getBean(type);
+	}
+}
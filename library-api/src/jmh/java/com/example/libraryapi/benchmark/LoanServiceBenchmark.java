@@ -0,0 +1,93 @@
+package com.example.libraryapi.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import com.example.libraryapi.dto.LoanBatchItemDTO;
+import com.example.libraryapi.dto.LoanDTO;
+import com.example.libraryapi.dto.ReturnedLoanItemDTO;
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.model.Loan;
+import com.example.libraryapi.service.LoanService;
+
+/***
+ * LoanServiceImpl.save (inclui existsByBookAndNotReturned) seguido da devolução,
+ * para que o mesmo livro possa ser emprestado de novo nas próximas iterações.
+ * 
+ * {@link #checkoutByIsbn()} reproduz o POST /api/loans: LoanService.checkout resolve o livro
+ * pelo isbn no próprio INSERT. {@link #checkoutStack()} empresta e devolve uma pilha de
+ * {@link #STACK} livros pelos endpoints de lote.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoanServiceBenchmark extends LibraryBenchmark {
+	
+	private static final int STACK = 30;
+	
+	private LoanService loanService;
+	private long nextBook;
+	
+	@Override
+	protected void setUp() {
+		loanService = bean(LoanService.class);
+		nextBook = 1;
+	}
+	
+	@Benchmark
+	public Loan saveAndReturn() {
+		return loanAndReturn(Book.builder().id(nextFreeBook()).build());
+	}
+	
+	@Benchmark
+	public Loan checkoutByIsbn() {
+		// livros de 1 a 100 repetidos, como títulos populares no balcão
+		nextBook = nextBook % 100;
+		Loan loan = loanService.checkout("isbn-" + nextFreeBook(), "Benchmark", "benchmark@email.com");
+		return giveBack(loan);
+	}
+	
+	@Benchmark
+	public List<LoanBatchItemDTO> checkoutStack() {
+		List<LoanDTO> stack = new ArrayList<>(STACK);
+		for (int i = 0; i < STACK; i++) {
+			stack.add(LoanDTO.builder()
+					.isbn("isbn-" + nextFreeBook())
+					.customer("Benchmark")
+					.email("benchmark@email.com")
+					.build());
+		}
+		
+		List<LoanBatchItemDTO> loans = loanService.checkoutAll(stack);
+		return loanService.returnAll(loans.stream()
+				.map(loan -> ReturnedLoanItemDTO.builder().id(loan.getId()).returned(true).build())
+				.collect(Collectors.toList()));
+	}
+	
+	private Loan loanAndReturn(Book book) {
+		return giveBack(loanService.save(Loan.builder()
+				.book(book)
+				.customer("Benchmark")
+				.customerEmail("benchmark@email.com")
+				.loanDate(LocalDate.now())
+				.build()));
+	}
+	
+	private Loan giveBack(Loan loan) {
+		return loanService.returnLoan(loan.getId(), null);
+	}
+	
+	private long nextFreeBook() {
+		do {
+			nextBook = nextBook % books + 1;
+		} while (nextBook % DatasetSeeder.LATE_EVERY == 0);
+		return nextBook;
+	}
+}
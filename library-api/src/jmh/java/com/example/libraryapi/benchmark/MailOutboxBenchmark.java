@@ -0,0 +1,88 @@
+package com.example.libraryapi.benchmark;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.libraryapi.mail.MailOutboxDispatcher;
+import com.example.libraryapi.model.OutboxMail.Status;
+import com.example.libraryapi.repository.OutboxMailRepository;
+import com.example.libraryapi.service.EmailService;
+
+/***
+ * Drenagem de {@code mails} emails da outbox com SMTP simulado de {@code latency} ms por conexão:
+ * o tempo deve cair na proporção do número de workers e do tamanho do lote ({@code batch}) por conexão.
+ * 
+ * mvn -Pbenchmark -DskipTests test-compile exec:exec -Djmh.args="MailOutbox -p books=10000"
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class MailOutboxBenchmark extends LibraryBenchmark {
+	
+	@Param({ "1", "4", "16" })
+	public int workers;
+	
+	@Param({ "20" })
+	public long latency;
+	
+	@Param({ "200" })
+	public int mails;
+	
+	@Param({ "1", "20" })
+	public int batch;
+	
+	private MailOutboxDispatcher dispatcher;
+	private OutboxMailRepository repository;
+	private int round;
+	
+	@Override
+	protected String[] properties() {
+		return new String[] {
+				"application.mail.outbox.workers=" + workers,
+				"application.mail.outbox.max-in-flight=" + workers * batch * 2,
+				"application.mail.outbox.batch-size=" + batch,
+				"application.mail.outbox.poll-interval-ms=3600000" };
+	}
+	
+	@Override
+	protected void setUp() {
+		dispatcher = bean(MailOutboxDispatcher.class);
+		repository = bean(OutboxMailRepository.class);
+		bean(InMemoryMailSender.class).setLatencyMillis(latency);
+	}
+	
+	@Setup(Level.Invocation)
+	public void enqueue() {
+		repository.deleteAllInBatch();
+		// mensagem diferente a cada rodada para não cair na deduplicação
+		String message = "Devolva o livro #" + round++;
+		Map<String, String> messages = new LinkedHashMap<>();
+		for (int i = 0; i < mails; i++) {
+			messages.put("cliente" + i + "@email.com", message);
+		}
+		bean(EmailService.class).sendMails(messages);
+	}
+	
+	@Benchmark
+	public long drain() throws InterruptedException {
+		while (repository.countByStatusIn(Arrays.asList(Status.PENDING, Status.SENDING)) > 0) {
+			if (dispatcher.dispatch() == 0) {
+				Thread.sleep(1);
+			}
+		}
+		return repository.count();
+	}
+}
@@ -0,0 +1,100 @@
+package com.example.libraryapi.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mapstruct.factory.Mappers;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.libraryapi.dto.BookDTO;
+import com.example.libraryapi.dto.LoanDTO;
+import com.example.libraryapi.mapper.BookMapper;
+import com.example.libraryapi.mapper.LoanMapper;
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.model.Loan;
+
+/***
+ * Mapeamento de uma página de 100 livros/empréstimos: ModelMapper x MapStruct.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+	
+	private static final int PAGE_SIZE = 100;
+	
+	private ModelMapper modelMapper;
+	private BookMapper bookMapper;
+	private LoanMapper loanMapper;
+	
+	private List<Book> books;
+	private List<Loan> loans;
+	
+	@Setup
+	public void setUp() {
+		modelMapper = new ModelMapper();
+		bookMapper = Mappers.getMapper(BookMapper.class);
+		loanMapper = Mappers.getMapper(LoanMapper.class);
+		
+		books = new ArrayList<>(PAGE_SIZE);
+		loans = new ArrayList<>(PAGE_SIZE);
+		for (long i = 1; i <= PAGE_SIZE; i++) {
+			Book book = Book.builder().id(i).tittle("Titulo " + i).author("Autor " + i).isbn("isbn-" + i).build();
+			books.add(book);
+			loans.add(Loan.builder()
+					.id(i)
+					.customer("Cliente " + i)
+					.customerEmail("cliente" + i + "@email.com")
+					.book(book)
+					.loanDate(LocalDate.now())
+					.build());
+		}
+	}
+	
+	@Benchmark
+	public void booksModelMapper(Blackhole bh) {
+		for (Book book : books) {
+			bh.consume(modelMapper.map(book, BookDTO.class));
+		}
+	}
+	
+	@Benchmark
+	public void booksMapStruct(Blackhole bh) {
+		for (Book book : books) {
+			bh.consume(bookMapper.toDto(book));
+		}
+	}
+	
+	@Benchmark
+	public void loansModelMapper(Blackhole bh) {
+		for (Loan loan : loans) {
+			LoanDTO loanDTO = modelMapper.map(loan, LoanDTO.class);
+			loanDTO.setBook(modelMapper.map(loan.getBook(), BookDTO.class));
+			loanDTO.setIsbn(loan.getBook().getIsbn());
+			bh.consume(loanDTO);
+		}
+	}
+	
+	@Benchmark
+	public void loansMapStruct(Blackhole bh) {
+		for (Loan loan : loans) {
+			bh.consume(loanMapper.toDtoWithIsbn(loan));
+		}
+	}
+}
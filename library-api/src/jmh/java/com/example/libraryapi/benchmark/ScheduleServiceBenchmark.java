@@ -0,0 +1,55 @@
+package com.example.libraryapi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.libraryapi.repository.OutboxMailRepository;
+import com.example.libraryapi.service.impl.ScheduleServiceImpl;
+
+/***
+ * Rotina noturna de empréstimos atrasados (1 a cada 10 livros): varredura em lotes, gravação na outbox
+ * e marcação dos avisados. Antes de cada execução os avisos são desfeitos para medir a varredura completa.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class ScheduleServiceBenchmark extends LibraryBenchmark {
+	
+	private ScheduleServiceImpl scheduleService;
+	
+	@Override
+	protected String[] properties() {
+		// só a varredura é medida: a outbox não é drenada e a roda de vencimentos não dispara
+		return new String[] { "application.mail.outbox.poll-interval-ms=3600000",
+				"application.mail.lateloans.reminder-interval-ms=3600000" };
+	}
+	
+	@Override
+	protected void setUp() {
+		scheduleService = bean(ScheduleServiceImpl.class);
+	}
+	
+	@Setup(Level.Invocation)
+	public void resetNotifications() {
+		JdbcTemplate jdbcTemplate = bean(JdbcTemplate.class);
+		jdbcTemplate.update("update loan set notified_at = null where notified_at is not null");
+		jdbcTemplate.update("delete from outbox_mail");
+		jdbcTemplate.update("update job_checkpoint set run_date = null");
+	}
+	
+	@Benchmark
+	public long sendMailLateLoans() {
+		scheduleService.sendMailLateLoans();
+		return bean(OutboxMailRepository.class).count();
+	}
+}
@@ -0,0 +1,54 @@
+package com.example.libraryapi.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.example.libraryapi.dto.BookDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/***
+ * Serialização JSON de uma página de BookDTO, como devolvida pelo GET /api/books.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+	
+	private ObjectMapper objectMapper;
+	private PageImpl<BookDTO> page;
+	
+	@Setup
+	public void setUp() {
+		objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		
+		List<BookDTO> content = new ArrayList<>(100);
+		for (long i = 1; i <= 100; i++) {
+			content.add(BookDTO.builder().id(i).tittle("Titulo " + i).author("Autor " + i).isbn("isbn-" + i).build());
+		}
+		page = new PageImpl<BookDTO>(content, PageRequest.of(0, 100), 1_000_000);
+	}
+	
+	@Benchmark
+	public byte[] bookPage() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(page);
+	}
+}
@@ -1,11 +1,13 @@
 package com.example.libraryapi;
 
-import org.modelmapper.ModelMapper;
+import org.mapstruct.factory.Mappers;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
+import com.example.libraryapi.mapper.BookMapper;
+
 @SpringBootApplication
 @EnableScheduling
 public class LibraryApiApplication {
@@ -16,7 +18,7 @@ public class LibraryApiApplication {
 	}
 	
 	@Bean
-	public ModelMapper modelMapper(){
-		return new ModelMapper();
+	public BookMapper bookMapper(){
+		return Mappers.getMapper(BookMapper.class);
 	}
 }
@@ -0,0 +1,24 @@
+package com.example.libraryapi.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/***
+ * Mensagem trocada entre as réplicas quando uma região do cache de segundo nível muda.
+ * Sem chave, vale para a região inteira; com valor, a entrada é substituída em vez de removida
+ * (usado pelos timestamps das tabelas, que invalidam o cache de consultas).
+ * 
+ * Entre processos a chave só pode ser Long, String ou long[] e o valor só Long
+ * ({@link JdbcCacheInvalidationChannel}); outros tipos viram a invalidação da região inteira.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class CacheInvalidation {
+	
+	private final String origin;
+	private final String region;
+	private final Object key;
+	private final Object value;
+}
@@ -0,0 +1,16 @@
+package com.example.libraryapi.cache;
+
+import java.util.function.Consumer;
+
+/***
+ * Canal por onde as réplicas avisam umas às outras das escritas no cache de segundo nível.
+ * A entrega pode incluir o próprio remetente; quem recebe ignora as mensagens de mesma origem.
+ */
+public interface CacheInvalidationChannel {
+	
+	void publish(CacheInvalidation invalidation);
+	
+	void subscribe(Consumer<CacheInvalidation> listener);
+	
+	void unsubscribe(Consumer<CacheInvalidation> listener);
+}
@@ -0,0 +1,132 @@
+package com.example.libraryapi.cache;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.internal.SimpleCacheKeysFactory;
+import org.hibernate.cache.spi.CacheKeysFactory;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/***
+ * Cache de segundo nível do Hibernate sobre o Caffeine, com um cache limitado por região.
+ * 
+ * As escritas locais são publicadas no {@link CacheInvalidationChannel}: as outras réplicas
+ * removem a entrada da entidade (e recarregam do banco na próxima leitura) e recebem o novo
+ * timestamp das tabelas alteradas, o que invalida o cache de consultas delas.
+ * 
+ * Instanciado pelo próprio Hibernate (pelo nome da classe) fica restrito à JVM, sem canal nem
+ * métricas; a aplicação registra uma instância configurada em {@link com.example.libraryapi.config.SecondLevelCacheConfig}.
+ */
+public class CaffeineRegionFactory extends RegionFactoryTemplate {
+	
+	public static final String HIT_RATIO_METRIC = "library.cache.hit.ratio";
+	
+	private final String origin = UUID.randomUUID().toString();
+	private final long maximumSize;
+	private final Duration expireAfterWrite;
+	private final CacheInvalidationChannel channel;
+	private final MeterRegistry meterRegistry;
+	private final Map<String, CaffeineStorageAccess> regions = new ConcurrentHashMap<>();
+	private final Consumer<CacheInvalidation> listener = this::receive;
+	
+	public CaffeineRegionFactory() {
+		this(10_000, Duration.ofMinutes(10), null, null);
+	}
+	
+	public CaffeineRegionFactory(long maximumSize, Duration expireAfterWrite, CacheInvalidationChannel channel, MeterRegistry meterRegistry) {
+		this.maximumSize = maximumSize;
+		this.expireAfterWrite = expireAfterWrite;
+		this.channel = channel;
+		this.meterRegistry = meterRegistry;
+	}
+	
+	@Override
+	protected void prepareForUse(SessionFactoryOptions settings, @SuppressWarnings("rawtypes") Map configValues) {
+		if (channel != null) {
+			channel.subscribe(listener);
+		}
+	}
+	
+	@Override
+	protected void releaseFromUse() {
+		if (channel != null) {
+			channel.unsubscribe(listener);
+		}
+		regions.values().forEach(CaffeineStorageAccess::release);
+		regions.clear();
+	}
+	
+	/***
+	 * Chave da entidade é o próprio id: cada região guarda uma única entidade e a chave precisa
+	 * ser a mesma em todas as réplicas para ser invalidada pelo canal.
+	 */
+	@Override
+	protected CacheKeysFactory getImplicitCacheKeysFactory() {
+		return SimpleCacheKeysFactory.INSTANCE;
+	}
+	
+	@Override
+	protected DomainDataStorageAccess createDomainDataStorageAccess(DomainDataRegionConfig regionConfig, DomainDataRegionBuildingContext buildingContext) {
+		return region(regionConfig.getRegionName(), CaffeineStorageAccess.Kind.DOMAIN);
+	}
+	
+	@Override
+	protected StorageAccess createQueryResultsRegionStorageAccess(String regionName, SessionFactoryImplementor sessionFactory) {
+		return region(regionName, CaffeineStorageAccess.Kind.QUERY_RESULTS);
+	}
+	
+	@Override
+	protected StorageAccess createTimestampsRegionStorageAccess(String regionName, SessionFactoryImplementor sessionFactory) {
+		return region(regionName, CaffeineStorageAccess.Kind.TIMESTAMPS);
+	}
+	
+	private CaffeineStorageAccess region(String name, CaffeineStorageAccess.Kind kind) {
+		Cache<Object, Object> cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterWrite)
+				.recordStats()
+				.build();
+		if (meterRegistry != null) {
+			CaffeineCacheMetrics.monitor(meterRegistry, cache, name, "cacheManager", "hibernate");
+			Gauge.builder(HIT_RATIO_METRIC, cache, regionCache -> regionCache.stats().hitRate())
+				.tag("region", name)
+				.description("Fração das leituras da região atendidas pelo cache")
+				.register(meterRegistry);
+		}
+		CaffeineStorageAccess storage = new CaffeineStorageAccess(name, kind, cache, this::publish);
+		regions.put(name, storage);
+		return storage;
+	}
+	
+	private void publish(String region, Object key, Object value) {
+		if (channel != null) {
+			channel.publish(new CacheInvalidation(origin, region, key, value));
+		}
+	}
+	
+	private void receive(CacheInvalidation invalidation) {
+		if (origin.equals(invalidation.getOrigin())) {
+			return;
+		}
+		CaffeineStorageAccess storage = regions.get(invalidation.getRegion());
+		if (storage != null) {
+			storage.apply(invalidation);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.example.libraryapi.cache;
+
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+/***
+ * Uma região do cache de segundo nível. Carregar do banco ({@code putFromLoad}) não é avisado
+ * às outras réplicas; já as escritas de entidade, as remoções e os novos timestamps de tabela são.
+ */
+class CaffeineStorageAccess implements DomainDataStorageAccess {
+	
+	enum Kind {
+		/*** entidades: a escrita remove a entrada nas outras réplicas */
+		DOMAIN,
+		/*** resultados de consultas: dependem só dos timestamps, a escrita não é avisada */
+		QUERY_RESULTS,
+		/*** última alteração de cada tabela: o valor é replicado */
+		TIMESTAMPS
+	}
+	
+	@FunctionalInterface
+	interface Publisher {
+		void publish(String region, Object key, Object value);
+	}
+	
+	private final String region;
+	private final Kind kind;
+	private final Cache<Object, Object> cache;
+	private final Publisher publisher;
+	
+	CaffeineStorageAccess(String region, Kind kind, Cache<Object, Object> cache, Publisher publisher) {
+		this.region = region;
+		this.kind = kind;
+		this.cache = cache;
+		this.publisher = publisher;
+	}
+	
+	@Override
+	public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+		return cache.getIfPresent(key);
+	}
+	
+	@Override
+	public void putFromLoad(Object key, Object value, SharedSessionContractImplementor session) {
+		cache.put(key, value);
+	}
+	
+	@Override
+	public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+		cache.put(key, value);
+		if (kind == Kind.DOMAIN) {
+			publisher.publish(region, key, null);
+		} else if (kind == Kind.TIMESTAMPS) {
+			publisher.publish(region, key, value);
+		}
+	}
+	
+	@Override
+	public boolean contains(Object key) {
+		return cache.asMap().containsKey(key);
+	}
+	
+	@Override
+	public void evictData() {
+		cache.invalidateAll();
+		publisher.publish(region, null, null);
+	}
+	
+	@Override
+	public void evictData(Object key) {
+		cache.invalidate(key);
+		publisher.publish(region, key, null);
+	}
+	
+	@Override
+	public void release() {
+		cache.invalidateAll();
+	}
+	
+	/***
+	 * Aplica a escrita de outra réplica, sem publicar de novo.
+	 */
+	void apply(CacheInvalidation invalidation) {
+		if (invalidation.getKey() == null) {
+			cache.invalidateAll();
+		} else if (invalidation.getValue() != null) {
+			cache.put(invalidation.getKey(), invalidation.getValue());
+		} else {
+			cache.invalidate(invalidation.getKey());
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.example.libraryapi.cache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/***
+ * Canal entre os contextos da mesma JVM que usam o mesmo grupo, com entrega síncrona. Serve
+ * para uma única instância e para os testes com vários nós na mesma JVM; entre processos, o canal
+ * é o {@link JdbcCacheInvalidationChannel}.
+ */
+public class InProcessCacheInvalidationChannel implements CacheInvalidationChannel {
+	
+	private static final Map<String, List<Consumer<CacheInvalidation>>> GROUPS = new ConcurrentHashMap<>();
+	
+	private final List<Consumer<CacheInvalidation>> listeners;
+	
+	public InProcessCacheInvalidationChannel(String group) {
+		this.listeners = GROUPS.computeIfAbsent(group, name -> new CopyOnWriteArrayList<>());
+	}
+	
+	@Override
+	public void publish(CacheInvalidation invalidation) {
+		listeners.forEach(listener -> listener.accept(invalidation));
+	}
+	
+	@Override
+	public void subscribe(Consumer<CacheInvalidation> listener) {
+		listeners.add(listener);
+	}
+	
+	@Override
+	public void unsubscribe(Consumer<CacheInvalidation> listener) {
+		listeners.remove(listener);
+	}
+}
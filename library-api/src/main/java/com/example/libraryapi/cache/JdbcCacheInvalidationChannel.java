@@ -0,0 +1,232 @@
+package com.example.libraryapi.cache;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import com.example.libraryapi.model.CacheInvalidationEvent;
+
+import lombok.extern.slf4j.Slf4j;
+
+/***
+ * Canal entre processos sobre a tabela cache_invalidation do banco compartilhado
+ * ({@link CacheInvalidationEvent}). Os assinantes do próprio nó recebem na hora; os dos outros
+ * nós, na próxima rodada de {@link #relay()}, ou seja, com até um intervalo de poll de atraso.
+ *
+ * A gravação fica fora da transação de quem publicou (a publicação só enfileira): uma falha do
+ * canal não desfaz a escrita do livro e as mensagens não gravadas voltam na próxima rodada. A
+ * fila tem limite; o que não cabe nela vira a invalidação da região inteira.
+ *
+ * A leitura volta um pouco no tempo a cada rodada ({@code OVERLAP}), para pegar as linhas de
+ * transações que terminaram fora de ordem, e ignora os ids já entregues.
+ *
+ * A mensagem vai em colunas simples (região, tipo e texto da chave, valor numérico), nunca como
+ * objeto serializado: uma linha gravada por terceiros nessa tabela não instancia classes em
+ * nenhum nó. Chaves fora dos tipos conhecidos viram a invalidação da região inteira.
+ */
+@Slf4j
+public class JdbcCacheInvalidationChannel implements CacheInvalidationChannel {
+	
+	private static final Duration OVERLAP = Duration.ofSeconds(5);
+	
+	static final int MAX_KEY_LENGTH = 4000;
+	static final String LONG_KEY = "long";
+	static final String STRING_KEY = "string";
+	static final String LONG_ARRAY_KEY = "long[]";
+	
+	private final String node = UUID.randomUUID().toString();
+	private final List<Consumer<CacheInvalidation>> listeners = new CopyOnWriteArrayList<>();
+	private final BlockingQueue<CacheInvalidation> pending;
+	private final Set<String> overflowed = ConcurrentHashMap.newKeySet();
+	private final Map<Long, Timestamp> delivered = new HashMap<>();
+	private final JdbcTemplate jdbcTemplate;
+	private final Duration retention;
+	
+	private Timestamp lastPoll;
+	
+	/***
+	 * @param maxPending mensagens à espera da gravação; acima disso a região é invalidada por inteiro
+	 */
+	public JdbcCacheInvalidationChannel(JdbcTemplate jdbcTemplate, Duration retention, int maxPending) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.retention = retention;
+		this.pending = new LinkedBlockingQueue<>(maxPending);
+	}
+	
+	@Override
+	public void publish(CacheInvalidation invalidation) {
+		listeners.forEach(listener -> listener.accept(invalidation));
+		enqueue(invalidation);
+	}
+	
+	@Override
+	public void subscribe(Consumer<CacheInvalidation> listener) {
+		listeners.add(listener);
+	}
+	
+	@Override
+	public void unsubscribe(Consumer<CacheInvalidation> listener) {
+		listeners.remove(listener);
+	}
+	
+	/***
+	 * Grava o que foi publicado aqui, entrega o que os outros nós gravaram e apaga as mensagens
+	 * mais velhas que a retenção.
+	 */
+	@Scheduled(initialDelayString = "${application.cache.invalidation.poll-interval-ms:500}",
+			fixedDelayString = "${application.cache.invalidation.poll-interval-ms:500}")
+	public synchronized void relay() {
+		try {
+			Timestamp now = jdbcTemplate.queryForObject("select current_timestamp", Timestamp.class);
+			flush();
+			if (lastPoll != null) {
+				deliver(new Timestamp(lastPoll.getTime() - OVERLAP.toMillis()));
+			}
+			lastPoll = now;
+			jdbcTemplate.update("delete from cache_invalidation where created_at < ?",
+					new Timestamp(now.getTime() - retention.toMillis()));
+		} catch (DataAccessException e) {
+			log.warn("Cache invalidation relay failed, retrying on next poll", e);
+		}
+	}
+	
+	private void enqueue(CacheInvalidation invalidation) {
+		if (!overflowed.contains(invalidation.getRegion()) && !pending.offer(invalidation)
+				&& overflowed.add(invalidation.getRegion())) {
+			log.warn("Cache invalidation queue full, region {} will be invalidated as a whole", invalidation.getRegion());
+		}
+	}
+	
+	private void flush() {
+		List<CacheInvalidation> batch = new ArrayList<>();
+		pending.drainTo(batch);
+		for (String region : overflowed) {
+			overflowed.remove(region);
+			batch.removeIf(invalidation -> invalidation.getRegion().equals(region));
+			batch.add(new CacheInvalidation(node, region, null, null));
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			jdbcTemplate.batchUpdate("insert into cache_invalidation (node, origin, region, key_type, cache_key, cache_value, created_at) "
+					+ "values (?, ?, ?, ?, ?, ?, current_timestamp)",
+					batch, batch.size(), (ps, invalidation) -> {
+						CacheInvalidation message = encodable(invalidation);
+						ps.setString(1, node);
+						ps.setString(2, message.getOrigin());
+						ps.setString(3, message.getRegion());
+						ps.setString(4, keyType(message.getKey()));
+						ps.setString(5, keyText(message.getKey()));
+						ps.setObject(6, message.getValue(), Types.BIGINT);
+					});
+		} catch (DataAccessException e) {
+			batch.forEach(this::enqueue);
+			throw e;
+		}
+	}
+	
+	private void deliver(Timestamp since) {
+		jdbcTemplate.query("select id, node, origin, region, key_type, cache_key, cache_value, created_at "
+				+ "from cache_invalidation where created_at >= ? order by id",
+				rs -> {
+					long id = rs.getLong("id");
+					if (node.equals(rs.getString("node")) || delivered.containsKey(id)) {
+						return;
+					}
+					delivered.put(id, rs.getTimestamp("created_at"));
+					CacheInvalidation invalidation = decode(rs);
+					listeners.forEach(listener -> listener.accept(invalidation));
+				}, since);
+		delivered.values().removeIf(createdAt -> createdAt.before(since));
+	}
+	
+	/***
+	 * A própria mensagem, se cabe nas colunas; senão, a invalidação da região inteira: perde-se o
+	 * cache da região nos outros nós, mas nenhum fica com a entrada velha.
+	 */
+	private static CacheInvalidation encodable(CacheInvalidation invalidation) {
+		Object key = invalidation.getKey();
+		Object value = invalidation.getValue();
+		String text = keyText(key);
+		if ((key == null || keyType(key) != null) && (text == null || text.length() <= MAX_KEY_LENGTH)
+				&& (value == null || value instanceof Long)) {
+			return invalidation;
+		}
+		log.warn("Cache invalidation for region {} does not fit the table ({}), invalidating the whole region",
+				invalidation.getRegion(), key == null ? null : key.getClass().getName());
+		return new CacheInvalidation(invalidation.getOrigin(), invalidation.getRegion(), null, null);
+	}
+	
+	private static String keyType(Object key) {
+		if (key instanceof Long) {
+			return LONG_KEY;
+		}
+		if (key instanceof String) {
+			return STRING_KEY;
+		}
+		if (key instanceof long[]) {
+			return LONG_ARRAY_KEY;
+		}
+		return null;
+	}
+	
+	private static String keyText(Object key) {
+		if (key instanceof long[]) {
+			StringBuilder text = new StringBuilder();
+			for (long id : (long[]) key) {
+				if (text.length() > 0) {
+					text.append(',');
+				}
+				text.append(id);
+			}
+			return text.toString();
+		}
+		return key == null || keyType(key) == null ? null : key.toString();
+	}
+	
+	/***
+	 * Lê a mensagem das colunas; um tipo de chave desconhecido (de uma versão mais nova, por
+	 * exemplo) vale como a invalidação da região inteira.
+	 */
+	private static CacheInvalidation decode(ResultSet rs) throws SQLException {
+		String keyType = rs.getString("key_type");
+		String text = rs.getString("cache_key");
+		long value = rs.getLong("cache_value");
+		Long cacheValue = rs.wasNull() ? null : value;
+		Object key = null;
+		try {
+			if (LONG_KEY.equals(keyType)) {
+				key = Long.valueOf(text);
+			} else if (STRING_KEY.equals(keyType)) {
+				key = text;
+			} else if (LONG_ARRAY_KEY.equals(keyType)) {
+				key = text.isEmpty() ? new long[0] : Arrays.stream(text.split(",")).mapToLong(Long::parseLong).toArray();
+			}
+		} catch (NumberFormatException e) {
+			key = null;
+		}
+		if (key == null) {
+			cacheValue = null;
+		}
+		return new CacheInvalidation(rs.getString("origin"), rs.getString("region"), key, cacheValue);
+	}
+}
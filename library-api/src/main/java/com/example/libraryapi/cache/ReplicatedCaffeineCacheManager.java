@@ -0,0 +1,84 @@
+package com.example.libraryapi.cache;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+/***
+ * Caches do Spring sobre o Caffeine cujas remoções ({@code @CacheEvict}) são avisadas às outras
+ * réplicas pelo {@link CacheInvalidationChannel}, para que uma não continue respondendo com o que
+ * a outra acabou de alterar. Carregar do banco não é avisado, como no cache de segundo nível.
+ *
+ * Os caches continuam sendo {@link CaffeineCache}, e por isso seguem nas métricas cache.gets.
+ */
+public class ReplicatedCaffeineCacheManager extends CaffeineCacheManager {
+	
+	private final String origin = UUID.randomUUID().toString();
+	private final CacheInvalidationChannel channel;
+	private final Consumer<CacheInvalidation> listener = this::receive;
+	
+	public ReplicatedCaffeineCacheManager(CacheInvalidationChannel channel) {
+		this.channel = channel;
+		channel.subscribe(listener);
+	}
+	
+	/***
+	 * Para de receber as remoções das outras réplicas.
+	 */
+	public void close() {
+		channel.unsubscribe(listener);
+	}
+	
+	@Override
+	protected Cache adaptCaffeineCache(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> cache) {
+		return new ReplicatedCache(name, cache, isAllowNullValues());
+	}
+	
+	private void receive(CacheInvalidation invalidation) {
+		if (origin.equals(invalidation.getOrigin()) || !getCacheNames().contains(invalidation.getRegion())) {
+			return;
+		}
+		CaffeineCache cache = (CaffeineCache) getCache(invalidation.getRegion());
+		if (invalidation.getKey() == null) {
+			cache.getNativeCache().invalidateAll();
+		} else {
+			cache.getNativeCache().invalidate(invalidation.getKey());
+		}
+	}
+	
+	private class ReplicatedCache extends CaffeineCache {
+		
+		ReplicatedCache(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> cache, boolean allowNullValues) {
+			super(name, cache, allowNullValues);
+		}
+		
+		@Override
+		public void evict(Object key) {
+			super.evict(key);
+			channel.publish(new CacheInvalidation(origin, getName(), key, null));
+		}
+		
+		@Override
+		public boolean evictIfPresent(Object key) {
+			boolean present = super.evictIfPresent(key);
+			channel.publish(new CacheInvalidation(origin, getName(), key, null));
+			return present;
+		}
+		
+		@Override
+		public void clear() {
+			super.clear();
+			channel.publish(new CacheInvalidation(origin, getName(), null, null));
+		}
+		
+		@Override
+		public boolean invalidate() {
+			boolean notEmpty = super.invalidate();
+			channel.publish(new CacheInvalidation(origin, getName(), null, null));
+			return notEmpty;
+		}
+	}
+}
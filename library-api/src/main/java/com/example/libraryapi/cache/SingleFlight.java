@@ -0,0 +1,93 @@
+package com.example.libraryapi.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/***
+ * Junta as chamadas concorrentes pela mesma chave em uma única carga: a primeira executa o
+ * loader e as que chegam enquanto ela está em andamento esperam e recebem o mesmo resultado
+ * (ou a mesma exceção). Não guarda nada depois que a carga termina; isso é papel do cache.
+ *
+ * Cada chamador recebe a sua cópia do valor, para que quem altera o objeto recebido (por exemplo,
+ * a edição do livro) não mexa no que foi entregue aos outros.
+ *
+ * As cargas e as chamadas agrupadas ficam em library.singleflight.loads e
+ * library.singleflight.coalesced, com a tag name.
+ */
+public class SingleFlight<K, V> {
+
+	public static final String LOADS_METRIC = "library.singleflight.loads";
+	public static final String COALESCED_METRIC = "library.singleflight.coalesced";
+
+	/***
+	 * O ConcurrentHashMap trava por posição da tabela, não por mapa: chaves diferentes não
+	 * disputam o mesmo lock e a tabela de cargas em andamento escala com os núcleos.
+	 */
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight =
+			new ConcurrentHashMap<>(64, 0.75f, Runtime.getRuntime().availableProcessors());
+	private final UnaryOperator<V> copy;
+	private final Counter loads;
+	private final Counter coalesced;
+
+	public SingleFlight(String name, UnaryOperator<V> copy, MeterRegistry meterRegistry) {
+		this.copy = copy;
+		this.loads = meterRegistry.counter(LOADS_METRIC, "name", name);
+		this.coalesced = meterRegistry.counter(COALESCED_METRIC, "name", name);
+	}
+
+	/***
+	 * Chave nula não é agrupada (o ConcurrentHashMap não aceita): a carga é feita direto.
+	 */
+	public V load(K key, Supplier<V> loader) {
+		if (key == null) {
+			loads.increment();
+			return copy.apply(loader.get());
+		}
+		CompletableFuture<V> mine = new CompletableFuture<>();
+		CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+		if (running != null) {
+			coalesced.increment();
+			return copy.apply(await(running));
+		}
+
+		loads.increment();
+		V value;
+		try {
+			value = loader.get();
+		} catch (RuntimeException | Error e) {
+			inFlight.remove(key, mine);
+			mine.completeExceptionally(e);
+			throw e;
+		}
+		// sai da tabela antes de completar: quem chegar depois faz uma carga nova, em vez de
+		// receber um resultado já pronto (e cada vez mais velho)
+		inFlight.remove(key, mine);
+		mine.complete(value);
+		return copy.apply(value);
+	}
+
+	public int inFlight() {
+		return inFlight.size();
+	}
+
+	private static <V> V await(CompletableFuture<V> running) {
+		try {
+			return running.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+}
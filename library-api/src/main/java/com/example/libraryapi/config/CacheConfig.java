@@ -0,0 +1,40 @@
+package com.example.libraryapi.config;
+
+import java.util.List;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.libraryapi.cache.CacheInvalidationChannel;
+import com.example.libraryapi.cache.ReplicatedCaffeineCacheManager;
+
+/***
+ * Caches da aplicação. Tamanho e expiração ficam em spring.cache.caffeine.spec; o livro por isbn
+ * fica no cache de segundo nível do Hibernate ({@link SecondLevelCacheConfig}).
+ * 
+ * Com o canal de invalidação presente, as remoções valem para todas as réplicas do grupo.
+ */
+@EnableCaching
+@Configuration
+public class CacheConfig {
+	
+	public static final String ISBN_EXISTS = "isbnExists";
+	
+	@Bean
+	public CacheManager cacheManager(ObjectProvider<CacheInvalidationChannel> channel,
+			@Value("${spring.cache.cache-names:" + ISBN_EXISTS + "}") List<String> cacheNames,
+			@Value("${spring.cache.caffeine.spec:}") String spec) {
+		CacheInvalidationChannel available = channel.getIfAvailable();
+		CaffeineCacheManager cacheManager = available != null ? new ReplicatedCaffeineCacheManager(available) : new CaffeineCacheManager();
+		if (!spec.isEmpty()) {
+			cacheManager.setCacheSpecification(spec);
+		}
+		cacheManager.setCacheNames(cacheNames);
+		return cacheManager;
+	}
+}
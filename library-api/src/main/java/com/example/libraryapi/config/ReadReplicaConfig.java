@@ -0,0 +1,79 @@
+package com.example.libraryapi.config;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.example.libraryapi.datasource.ReplicaReleaseFilter;
+import com.example.libraryapi.datasource.ReplicaRoutingDataSource;
+import com.example.libraryapi.service.impl.BookServiceImpl;
+import com.example.libraryapi.service.impl.LoanServiceImpl;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/***
+ * Réplicas de leitura: ligadas quando application.datasource.replica-urls é informado. O primário
+ * continua vindo de spring.datasource.*; as réplicas usam as mesmas credenciais. Conexões por
+ * destino em /actuator/metrics/library.datasource.connections.
+ */
+@Configuration
+@ConditionalOnProperty("application.datasource.replica-urls")
+public class ReadReplicaConfig {
+
+	/***
+	 * Primário e réplicas são montados aqui dentro, e não como beans: um DataSource a mais no
+	 * contexto dispararia a inicialização do schema antes do proxy ficar pronto.
+	 */
+	@Bean
+	@Primary
+	public DataSource dataSource(DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry,
+			@Value("${application.datasource.replica-urls}") String[] replicaUrls,
+			@Value("${application.datasource.replica-connection-timeout-ms:2000}") long connectionTimeoutMillis,
+			@Value("${application.datasource.replica-lag-window-ms:5000}") long lagWindowMillis) {
+		HikariDataSource primary = hikari(properties, environment, properties.determineUrl());
+		List<DataSource> replicas = new ArrayList<>();
+		for (String url : replicaUrls) {
+			HikariDataSource replica = hikari(properties, environment, url.trim());
+			replica.setPoolName("replica-" + replicas.size());
+			replica.setConnectionTimeout(connectionTimeoutMillis);
+			replicas.add(replica);
+		}
+		return new LazyConnectionDataSourceProxy(new ReplicaRoutingDataSource(primary, replicas,
+				Arrays.asList(BookServiceImpl.class, LoanServiceImpl.class), Duration.ofMillis(lagWindowMillis), meterRegistry));
+	}
+
+	/***
+	 * O roteador só entra no contexto depois do proxy pronto, para a verificação agendada das réplicas.
+	 */
+	@Bean
+	public ReplicaRoutingDataSource replicaRoutingDataSource(DataSource dataSource) throws SQLException {
+		return dataSource.unwrap(ReplicaRoutingDataSource.class);
+	}
+
+	private static HikariDataSource hikari(DataSourceProperties properties, Environment environment, String url) {
+		HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).url(url).build();
+		Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+		return dataSource;
+	}
+
+	@Bean
+	public ReplicaReleaseFilter replicaReleaseFilter(@Value("${application.datasource.replica-lag-window-ms:5000}") long lagWindowMillis) {
+		return new ReplicaReleaseFilter(Duration.ofMillis(lagWindowMillis));
+	}
+}
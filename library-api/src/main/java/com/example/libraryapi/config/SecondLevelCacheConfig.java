@@ -0,0 +1,56 @@
+package com.example.libraryapi.config;
+
+import java.time.Duration;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.libraryapi.cache.CacheInvalidationChannel;
+import com.example.libraryapi.cache.CaffeineRegionFactory;
+import com.example.libraryapi.cache.InProcessCacheInvalidationChannel;
+import com.example.libraryapi.cache.JdbcCacheInvalidationChannel;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/***
+ * Cache de segundo nível do Hibernate (entidade Book e consulta por isbn). A taxa de acerto de
+ * cada região fica em /actuator/metrics/library.cache.hit.ratio e os acessos em cache.gets.
+ * 
+ * As réplicas se avisam das escritas pela tabela cache_invalidation do banco compartilhado
+ * (application.cache.invalidation.transport=jdbc, o padrão). Com in-process o aviso não sai da
+ * JVM: serve só para uma instância única da aplicação.
+ */
+@Configuration
+public class SecondLevelCacheConfig {
+	
+	@Bean
+	@ConditionalOnMissingBean
+	@ConditionalOnProperty(value = "application.cache.invalidation.transport", havingValue = "jdbc", matchIfMissing = true)
+	public CacheInvalidationChannel cacheInvalidationChannel(JdbcTemplate jdbcTemplate,
+			@Value("${application.cache.invalidation.retention-ms:60000}") long retentionMillis,
+			@Value("${application.cache.invalidation.max-pending:10000}") int maxPending) {
+		return new JdbcCacheInvalidationChannel(jdbcTemplate, Duration.ofMillis(retentionMillis), maxPending);
+	}
+	
+	@Bean
+	@ConditionalOnMissingBean
+	@ConditionalOnProperty(value = "application.cache.invalidation.transport", havingValue = "in-process")
+	public CacheInvalidationChannel inProcessCacheInvalidationChannel(@Value("${application.cache.invalidation.group:library}") String group) {
+		return new InProcessCacheInvalidationChannel(group);
+	}
+	
+	@Bean
+	public HibernatePropertiesCustomizer secondLevelCacheCustomizer(CacheInvalidationChannel channel, MeterRegistry meterRegistry,
+			@Value("${application.cache.second-level.maximum-size:10000}") long maximumSize,
+			@Value("${application.cache.second-level.expire-after-write-ms:600000}") long expireAfterWriteMillis) {
+		CaffeineRegionFactory regionFactory = new CaffeineRegionFactory(maximumSize, Duration.ofMillis(expireAfterWriteMillis),
+				channel, meterRegistry);
+		return properties -> properties.put(AvailableSettings.CACHE_REGION_FACTORY, regionFactory);
+	}
+}
@@ -1,31 +1,51 @@
 package com.example.libraryapi.controller;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import javax.validation.Valid;
 
-import org.modelmapper.ModelMapper;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.example.libraryapi.dto.BookAvailabilityDTO;
+import com.example.libraryapi.dto.BookStatsDTO;
 import com.example.libraryapi.dto.BookDTO;
+import com.example.libraryapi.dto.BookImportResultDTO;
+import com.example.libraryapi.dto.BookLookupItemDTO;
+import com.example.libraryapi.dto.CursorPageDTO;
 import com.example.libraryapi.dto.LoanDTO;
+import com.example.libraryapi.importer.BookRowReader;
+import com.example.libraryapi.mapper.BookMapper;
 import com.example.libraryapi.model.Book;
-import com.example.libraryapi.model.Loan;
+import com.example.libraryapi.service.BookImportService;
 import com.example.libraryapi.service.BookService;
+import com.example.libraryapi.service.ExportService;
 import com.example.libraryapi.service.LoanService;
 
 import io.swagger.annotations.Api;
@@ -42,9 +62,13 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class BookController {
 	
+	static final int MAX_LOOKUP_SIZE = 100;
+	
 	private final BookService service;
 	private final LoanService loanService;
-	private final ModelMapper modelMapper;
+	private final BookImportService importService;
+	private final ExportService exportService;
+	private final BookMapper bookMapper;
 	
 	
 	@PostMapping
@@ -53,24 +77,62 @@ public class BookController {
 	public BookDTO create(@RequestBody @Valid BookDTO dto) {
 		log.info("Creating a Book for isbn: {} " , dto.getIsbn());
 		
-		Book entity = modelMapper.map(dto, Book.class);
+		Book entity = bookMapper.toEntity(dto);
 	
 		entity = service.save(entity);
 		
-		return modelMapper.map(entity , BookDTO.class);
+		return bookMapper.toDto(entity);
 	}
 	
-	@GetMapping("{id}")
+	@PostMapping(value = "bulk", consumes = { BookRowReader.NDJSON_VALUE, BookRowReader.CSV_VALUE })
 	@ResponseStatus(HttpStatus.OK)
+	@ApiOperation("Imports books from a NDJSON or CSV stream")
+	public BookImportResultDTO importBooks(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType, InputStream body) throws IOException {
+		log.info("Importing books from {}", contentType);
+		return importService.importBooks(body, MediaType.parseMediaType(contentType));
+	}
+	
+	@GetMapping(value = "export", produces = { BookRowReader.NDJSON_VALUE, BookRowReader.CSV_VALUE })
+	@ApiOperation("Streams the whole catalog as NDJSON or CSV")
+	public ResponseEntity<StreamingResponseBody> export(@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+		MediaType format = Exports.format(accept);
+		log.info("Exporting books as {}", format);
+		return Exports.stream(format, out -> exportService.exportBooks(format, out));
+	}
+	
+	@GetMapping("{id}")
 	@ApiOperation("Obtains a book details by id")
-	public BookDTO get(@PathVariable Long id) {
+	public ResponseEntity<BookDTO> get(@PathVariable Long id,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
 		
 		log.info("Obtaining details for book id : {} ", id);
 		
-	    return service
-                .getById(id)
-                .map( book -> modelMapper.map(book, BookDTO.class)  )
-                .orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+		Book book = service.getById(id).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+		if (ETags.matches(ifNoneMatch, book.getVersion())) {
+			return ETags.notModified(book.getVersion()).build();
+		}
+		return ETags.ok(book.getVersion()).body(bookMapper.toDto(book));
+	}
+	
+	
+	/***
+	 * Vários livros por id em um único IN, na ordem pedida; os que não existem voltam com 404.
+	 */
+	@GetMapping(params = "ids")
+	@ApiOperation("Obtains several books by id in one query, in the requested order")
+	public List<BookLookupItemDTO> getByIds(@RequestParam List<Long> ids) {
+		Map<Long, Book> books = new HashMap<>();
+		service.getByIds(distinct(checkLookupSize(ids))).forEach(book -> books.put(book.getId(), book));
+		return ids.stream().map(id -> lookupItem(id, null, books.get(id))).collect(Collectors.toList());
+	}
+	
+	@PostMapping("lookup")
+	@ResponseStatus(HttpStatus.OK)
+	@ApiOperation("Obtains several books by isbn in one query, in the requested order")
+	public List<BookLookupItemDTO> getByIsbns(@RequestBody List<String> isbns) {
+		Map<String, Book> books = new HashMap<>();
+		service.getByIsbns(distinct(checkLookupSize(isbns))).forEach(book -> books.put(book.getIsbn(), book));
+		return isbns.stream().map(isbn -> lookupItem(null, isbn, books.get(isbn))).collect(Collectors.toList());
 	}
 	
 	
@@ -89,17 +151,19 @@ public class BookController {
 	}
 	
 	@PutMapping("{id}")
-	@ResponseStatus(HttpStatus.OK)
-	@ApiOperation("Updates a book")
-	public BookDTO update(@PathVariable Long id ,@RequestBody @Valid BookDTO dto) {
+	@ApiOperation("Updates a book; with If-Match, only if it is still at that version")
+	public ResponseEntity<BookDTO> update(@PathVariable Long id,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+			@RequestBody @Valid BookDTO dto) {
 		
 		log.info("Updating book of id : {} ", id);
 		
 		return service.getById(id).map( book -> {
+	            ETags.checkIfMatch(ifMatch, book.getVersion());
 	            book.setAuthor(dto.getAuthor());
 	            book.setTittle(dto.getTittle());
 	            book = service.update(book);
-	            return modelMapper.map(book, BookDTO.class);
+	            return ETags.ok(book.getVersion()).body(bookMapper.toDto(book));
 
 	     }).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
 	}
@@ -108,28 +172,72 @@ public class BookController {
 	@GetMapping
 	@ApiOperation("Find books by params")
 	public Page<BookDTO> find(BookDTO bookDTO , Pageable pageRequest){
-		Book filter = modelMapper.map(bookDTO , Book.class);
+		Book filter = bookMapper.toEntity(bookDTO);
 		Page<Book> result = service.find(filter, pageRequest);
 		List<BookDTO> list = result.getContent()
 			.stream()
-			.map(entity -> modelMapper.map(entity , BookDTO.class)) 
+			.map(bookMapper::toDto)
+			.collect(Collectors.toList());
+		return new PageImpl<BookDTO>(list , pageRequest , result.getTotalElements() );
+	}
+	
+	@GetMapping(params = "q")
+	@ApiOperation("Searches books by title and author terms, ranked by relevance")
+	public Page<BookDTO> search(@RequestParam String q , Pageable pageRequest){
+		Page<Book> result = service.search(q, pageRequest);
+		List<BookDTO> list = result.getContent()
+			.stream()
+			.map(bookMapper::toDto)
 			.collect(Collectors.toList());
 		return new PageImpl<BookDTO>(list , pageRequest , result.getTotalElements() );
 	}
 	
+	@GetMapping(params = { "limit", "!q" })
+	@ApiOperation("Lists the catalog ordered by id using a cursor (after/limit)")
+	public CursorPageDTO<BookDTO> findByCursor(@RequestParam(required = false) String after, @RequestParam int limit) {
+		int pageSize = Cursors.limit(limit);
+		List<Book> result = service.findAfter(Cursors.after(after), pageSize + 1);
+		return CursorPageDTO.of(result, pageSize, Book::getId, bookMapper::toDto);
+	}
+	
+	@GetMapping("{id}/availability")
+	@ApiOperation("Tells whether a book can be loaned, without querying the database")
+	public BookAvailabilityDTO availability(@PathVariable Long id) {
+		return new BookAvailabilityDTO(id, loanService.isBookAvailable(id));
+	}
+	
+	@GetMapping("{id}/stats")
+	@ApiOperation("Obtains the loan statistics of a book from its maintained counters")
+	public BookStatsDTO stats(@PathVariable Long id) {
+		return service.getStats(id).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+	}
+	
 	@GetMapping("/{id}/loans")
 	public Page<LoanDTO> loansByBook(@PathVariable Long id , Pageable pageRequest) {
 		Book book = service.getById(id).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND));
-		Page<Loan> result = loanService.findLoansByBook(book , pageRequest);
-		List<LoanDTO> list = result.getContent()
-				.stream()
-				.map(loan -> {
-					BookDTO bookDTO = modelMapper.map(loan.getBook(), BookDTO.class);
-					LoanDTO loanDTO = modelMapper.map(loan , LoanDTO.class);
-					loanDTO.setBook(bookDTO);
-					return loanDTO;
-				}).collect(Collectors.toList());
-		
-		return new PageImpl<LoanDTO>(list , pageRequest , result.getTotalElements() );
+		return loanService.findLoansByBook(book.getId(), pageRequest);
+	}
+	
+	private BookLookupItemDTO lookupItem(Long id, String isbn, Book book) {
+		if (book == null) {
+			return BookLookupItemDTO.builder().id(id).isbn(isbn).status(HttpStatus.NOT_FOUND.value()).build();
+		}
+		return BookLookupItemDTO.builder()
+				.id(book.getId())
+				.isbn(book.getIsbn())
+				.status(HttpStatus.OK.value())
+				.book(bookMapper.toDto(book))
+				.build();
+	}
+	
+	private static <T> List<T> checkLookupSize(List<T> keys) {
+		if (keys.isEmpty() || keys.size() > MAX_LOOKUP_SIZE) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Lote deve ter entre 1 e " + MAX_LOOKUP_SIZE + " itens");
+		}
+		return keys;
+	}
+	
+	private static <T> Set<T> distinct(List<T> keys) {
+		return keys.stream().filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
 	}
 }
@@ -0,0 +1,32 @@
+package com.example.libraryapi.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.example.libraryapi.dto.CursorPageDTO;
+
+/***
+ * Validação dos parâmetros {@code after} e {@code limit} das consultas por cursor.
+ */
+final class Cursors {
+	
+	static final int MAX_LIMIT = 1000;
+	
+	private Cursors() {
+	}
+	
+	static Long after(String cursor) {
+		try {
+			return CursorPageDTO.decode(cursor);
+		} catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor inválido");
+		}
+	}
+	
+	static int limit(int limit) {
+		if (limit < 1 || limit > MAX_LIMIT) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit deve estar entre 1 e " + MAX_LIMIT);
+		}
+		return limit;
+	}
+}
@@ -0,0 +1,97 @@
+package com.example.libraryapi.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+
+/***
+ * ETag a partir da coluna de versão da entidade e avaliação de If-None-Match / If-Match.
+ */
+final class ETags {
+	
+	private ETags() {
+	}
+	
+	static String of(Long version) {
+		return version == null ? null : "\"" + version + "\"";
+	}
+	
+	/***
+	 * Resposta 200 com o ETag da versão (sem o cabeçalho quando a versão não é conhecida).
+	 */
+	static ResponseEntity.BodyBuilder ok(Long version) {
+		return withETag(ResponseEntity.ok(), version);
+	}
+	
+	static ResponseEntity.BodyBuilder notModified(Long version) {
+		return withETag(ResponseEntity.status(HttpStatus.NOT_MODIFIED), version);
+	}
+	
+	static ResponseEntity.BodyBuilder withETag(ResponseEntity.BodyBuilder builder, Long version) {
+		String etag = of(version);
+		return etag == null ? builder : builder.eTag(etag);
+	}
+	
+	/***
+	 * If-None-Match: se algum ETag da lista (ou "*") corresponde à versão pela comparação fraca,
+	 * em que W/"3" equivale a "3" (RFC 7232, seção 3.2).
+	 */
+	static boolean matches(String header, Long version) {
+		return matches(header, version, true);
+	}
+	
+	/***
+	 * If-Match: comparação forte (RFC 7232, seção 3.1); um ETag fraco (W/) nunca corresponde.
+	 */
+	static boolean matchesStrong(String header, Long version) {
+		return matches(header, version, false);
+	}
+	
+	private static boolean matches(String header, Long version, boolean weak) {
+		if (header == null || version == null) {
+			return false;
+		}
+		String etag = of(version);
+		for (String candidate : header.split(",")) {
+			String value = candidate.trim();
+			if (value.startsWith("W/")) {
+				if (!weak) {
+					continue;
+				}
+				value = value.substring(2);
+			}
+			if ("*".equals(value) || etag.equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/***
+	 * Versão pedida no If-Match, para condicionar o próprio UPDATE; {@code null} sem o cabeçalho
+	 * ou com "*". Um If-Match que não é um único ETag forte de versão não corresponde a nenhuma (412).
+	 */
+	static Long version(String ifMatch) {
+		if (ifMatch == null || "*".equals(ifMatch.trim())) {
+			return null;
+		}
+		String value = ifMatch.trim();
+		try {
+			if (value.length() > 2 && value.startsWith("\"") && value.endsWith("\"")) {
+				return Long.valueOf(value.substring(1, value.length() - 1));
+			}
+		} catch (NumberFormatException e) {
+			// cai no 412 abaixo
+		}
+		throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "If-Match deve ter um único ETag de versão");
+	}
+	
+	/***
+	 * Sem If-Match a escrita é incondicional; com If-Match de outra versão responde 412.
+	 */
+	static void checkIfMatch(String ifMatch, Long version) {
+		if (ifMatch != null && !matchesStrong(ifMatch, version)) {
+			throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "O recurso foi alterado; obtenha a versão atual");
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package com.example.libraryapi.controller;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.libraryapi.exporter.RowWriter;
+
+/***
+ * Escolha do formato e montagem da resposta dos endpoints de exportação.
+ */
+final class Exports {
+	
+	private Exports() {
+	}
+	
+	/***
+	 * CSV quando o Accept pede text/csv explicitamente; NDJSON nos demais casos.
+	 */
+	static MediaType format(String accept) {
+		if (accept != null) {
+			for (MediaType type : MediaType.parseMediaTypes(accept)) {
+				if (type.equalsTypeAndSubtype(RowWriter.CSV)) {
+					return RowWriter.CSV;
+				}
+			}
+		}
+		return RowWriter.NDJSON;
+	}
+	
+	static ResponseEntity<StreamingResponseBody> stream(MediaType format, StreamingResponseBody body) {
+		return ResponseEntity.ok().contentType(format).body(body);
+	}
+}
@@ -1,31 +1,37 @@
 package com.example.libraryapi.controller;
 
-import java.time.LocalDate;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
-import org.modelmapper.ModelMapper;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import com.example.libraryapi.dto.BookDTO;
+import com.example.libraryapi.dto.CursorPageDTO;
+import com.example.libraryapi.dto.LoanBatchItemDTO;
 import com.example.libraryapi.dto.LoanDTO;
 import com.example.libraryapi.dto.LoanFilterDTO;
 import com.example.libraryapi.dto.ReturnedLoanDTO;
+import com.example.libraryapi.dto.ReturnedLoanItemDTO;
 import com.example.libraryapi.exceptions.EntityNotFoundException;
-import com.example.libraryapi.model.Book;
+import com.example.libraryapi.importer.BookRowReader;
 import com.example.libraryapi.model.Loan;
-import com.example.libraryapi.service.BookService;
+import com.example.libraryapi.service.ExportService;
 import com.example.libraryapi.service.LoanService;
 
 import lombok.RequiredArgsConstructor;
@@ -35,52 +41,71 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class LoanController {
 
+	static final int MAX_BATCH_SIZE = 100;
+	
 	private final LoanService loanService;
-	private final BookService bookService;
-	private final ModelMapper modelMapper;
+	private final ExportService exportService;
 	
 	@PostMapping
-	@ResponseStatus(HttpStatus.CREATED)
-	public Long create(@RequestBody LoanDTO  dto) {
-		Book book = bookService
-				.getBookByIsbn(dto.getIsbn())
-				.orElseThrow(() ->
-                	new EntityNotFoundException("Livro não encontrado para o isbn informado."));
-
-		Loan entity = Loan.builder()
-                .book(book)
-                .customer(dto.getCustomer())
-                .customerEmail(dto.getEmail())
-                .loanDate(LocalDate.now())
-                .build();
-		
-		entity = loanService.save(entity);
-		return entity.getId();
+	public ResponseEntity<Long> create(@RequestBody LoanDTO  dto) {
+		Loan entity = loanService.checkout(dto.getIsbn(), dto.getCustomer(), dto.getEmail());
+		return ETags.withETag(ResponseEntity.status(HttpStatus.CREATED), entity.getVersion()).body(entity.getId());
 	}
 	
-	@PatchMapping("{id}")
+	@PostMapping("batch")
+	@ResponseStatus(HttpStatus.OK)
+	public List<LoanBatchItemDTO> createBatch(@RequestBody List<LoanDTO> dtos) {
+		return loanService.checkoutAll(checkBatchSize(dtos));
+	}
+	
+	@PatchMapping("batch")
 	@ResponseStatus(HttpStatus.OK)
-	public void returnBook(@PathVariable Long id , @RequestBody ReturnedLoanDTO dto) {
+	public List<LoanBatchItemDTO> returnBooks(@RequestBody List<ReturnedLoanItemDTO> dtos) {
+		return loanService.returnAll(checkBatchSize(dtos));
+	}
+	
+	/***
+	 * A devolução é um único UPDATE condicionado ao empréstimo estar em aberto (e, com If-Match,
+	 * na versão informada: 412 caso contrário). Reabrir o empréstimo segue lendo e gravando.
+	 */
+	@PatchMapping("{id}")
+	public ResponseEntity<Void> returnBook(@PathVariable Long id ,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+			@RequestBody ReturnedLoanDTO dto) {
+		if (dto.isReturned()) {
+			Loan returned = loanService.returnLoan(id, ETags.version(ifMatch));
+			return ETags.ok(returned.getVersion()).build();
+		}
 	    Loan loan = loanService.getById(id).orElseThrow(() -> new EntityNotFoundException("Empréstimo não encontrado."));
-		loan.setReturned(dto.isReturned());
-		loanService.update(loan);
+	    ETags.checkIfMatch(ifMatch, loan.getVersion());
+		loan.setReturned(false);
+		Loan updated = loanService.update(loan);
+		return ETags.ok(updated.getVersion()).build();
 	}
 	
 	
 	@GetMapping
 	public Page<LoanDTO> find(LoanFilterDTO dto , Pageable pageRequest){
-		Page<Loan> result = loanService.find(dto, pageRequest);
-		List<LoanDTO> list = result.getContent()
-			.stream()
-			.map(entity ->  {
-				Book book = entity.getBook();
-				BookDTO bookDTO = modelMapper.map(book , BookDTO.class);
-				LoanDTO loanDTO = modelMapper.map(entity , LoanDTO.class);
-				loanDTO.setBook(bookDTO);
-				loanDTO.setIsbn(bookDTO.getIsbn());
-				return loanDTO;
-			})   
-			.collect(Collectors.toList());
-		return new PageImpl<LoanDTO>(list , pageRequest , result.getTotalElements());
+		return loanService.find(dto, pageRequest);
+	}
+	
+	@GetMapping(value = "export", produces = { BookRowReader.NDJSON_VALUE, BookRowReader.CSV_VALUE })
+	public ResponseEntity<StreamingResponseBody> export(@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+		MediaType format = Exports.format(accept);
+		return Exports.stream(format, out -> exportService.exportLoans(format, out));
+	}
+	
+	@GetMapping(params = "limit")
+	public CursorPageDTO<LoanDTO> findByCursor(LoanFilterDTO dto , @RequestParam(required = false) String after, @RequestParam int limit){
+		int pageSize = Cursors.limit(limit);
+		List<LoanDTO> result = loanService.findAfter(dto, Cursors.after(after), pageSize + 1);
+		return CursorPageDTO.of(result, pageSize, LoanDTO::getId, Function.identity());
+	}
+	
+	private static <T> List<T> checkBatchSize(List<T> items) {
+		if (items.isEmpty() || items.size() > MAX_BATCH_SIZE) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Lote deve ter entre 1 e " + MAX_BATCH_SIZE + " itens");
+		}
+		return items;
 	}
 }
@@ -0,0 +1,131 @@
+package com.example.libraryapi.datasource;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Duration;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.WebUtils;
+
+/***
+ * Cada requisição começa lendo das réplicas, mesmo que a thread do servidor tenha escrito numa
+ * requisição anterior de outro cliente. O cliente que escreveu recebe um cookie com o prazo de
+ * leitura no primário (fim da escrita mais a janela de atraso das réplicas) e, enquanto ele vale,
+ * as suas próximas requisições leem do primário: o GET logo depois do PUT não traz o corpo e o
+ * ETag antigos de uma réplica atrasada.
+ *
+ * Um prazo além da janela de atraso a partir de agora não foi dado por nenhum nó e é ignorado; o
+ * cookie só muda para onde vão as leituras do próprio cliente.
+ */
+public class ReplicaReleaseFilter extends OncePerRequestFilter {
+
+	public static final String COOKIE = "library-primary-until";
+
+	private final long lagWindowMillis;
+
+	public ReplicaReleaseFilter(Duration lagWindow) {
+		this.lagWindowMillis = lagWindow.toMillis();
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		ReplicaRoutingDataSource.release();
+		long pinnedUntil = pinnedUntil(request);
+		if (pinnedUntil > 0) {
+			ReplicaRoutingDataSource.pinUntil(pinnedUntil);
+		}
+		MarkerResponse markerResponse = new MarkerResponse(response, ReplicaRoutingDataSource.pinnedUntil());
+		try {
+			filterChain.doFilter(request, markerResponse);
+		} finally {
+			markerResponse.addMarker();
+			ReplicaRoutingDataSource.release();
+		}
+	}
+
+	private long pinnedUntil(HttpServletRequest request) {
+		Cookie cookie = WebUtils.getCookie(request, COOKIE);
+		if (cookie == null) {
+			return 0;
+		}
+		try {
+			long until = Long.parseLong(cookie.getValue());
+			return until > System.currentTimeMillis() + lagWindowMillis ? 0 : until;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/***
+	 * Põe o cookie antes do primeiro byte do corpo, quando os cabeçalhos ainda podem mudar; a escrita
+	 * no banco sempre vem antes da resposta ser montada.
+	 */
+	private static final class MarkerResponse extends HttpServletResponseWrapper {
+
+		private final long pinnedAtStart;
+		private boolean marked;
+
+		private MarkerResponse(HttpServletResponse response, long pinnedAtStart) {
+			super(response);
+			this.pinnedAtStart = pinnedAtStart;
+		}
+
+		private void addMarker() {
+			long pinnedUntil = ReplicaRoutingDataSource.pinnedUntil();
+			if (marked || pinnedUntil <= pinnedAtStart || isCommitted()) {
+				return;
+			}
+			marked = true;
+			Cookie cookie = new Cookie(COOKIE, Long.toString(pinnedUntil));
+			cookie.setPath("/");
+			cookie.setHttpOnly(true);
+			cookie.setMaxAge((int) Math.max(1, Duration.ofMillis(pinnedUntil - System.currentTimeMillis()).getSeconds() + 1));
+			addCookie(cookie);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			addMarker();
+			return super.getOutputStream();
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			addMarker();
+			return super.getWriter();
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			addMarker();
+			super.flushBuffer();
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			addMarker();
+			super.sendError(sc);
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			addMarker();
+			super.sendError(sc, msg);
+		}
+
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			addMarker();
+			super.sendRedirect(location);
+		}
+	}
+}
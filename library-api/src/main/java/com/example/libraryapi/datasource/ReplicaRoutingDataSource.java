@@ -0,0 +1,241 @@
+package com.example.libraryapi.datasource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/***
+ * Envia as transações somente leitura abertas pelos serviços informados para as réplicas, em
+ * rodízio entre as que estão de pé. Escritas, jobs e leituras avulsas de repositório (que o
+ * Spring Data já abre como somente leitura) ficam no primário.
+ *
+ * Uma thread que escreveu fica presa ao primário pela janela de atraso das réplicas, para que a
+ * leitura logo depois da escrita enxergue o que acabou de ser gravado; depois disso volta sozinha
+ * para as réplicas, inclusive nas threads de jobs, que não passam pelo fim de requisição. Entre
+ * requisições, quem leva o prazo adiante é o {@link ReplicaReleaseFilter}.
+ *
+ * A rota depende da transação já marcada como somente leitura, o que o Spring só faz depois de
+ * pedir a conexão: por isso este DataSource fica atrás de um {@link LazyConnectionDataSourceProxy}.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource implements Closeable {
+
+	public static final String CONNECTIONS_METRIC = "library.datasource.connections";
+	public static final String REPLICA_UP_METRIC = "library.datasource.replica.up";
+	public static final String PRIMARY = "primary";
+
+	/***
+	 * Até quando (epoch em ms) a thread lê do primário.
+	 */
+	private static final ThreadLocal<Long> PINNED = new ThreadLocal<>();
+
+	private final DataSource primary;
+	private final List<Replica> replicas = new ArrayList<>();
+	private final List<String> readTransactionPrefixes;
+	private final AtomicInteger next = new AtomicInteger();
+	private final Counter primaryConnections;
+	private final long lagWindowMillis;
+
+	/***
+	 * @param lagWindow quanto as réplicas podem ficar atrás do primário; é o tempo que uma thread
+	 * que escreveu continua lendo do primário
+	 */
+	public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, Collection<Class<?>> readServices,
+			Duration lagWindow, MeterRegistry meterRegistry) {
+		this.primary = primary;
+		this.lagWindowMillis = lagWindow.toMillis();
+		this.readTransactionPrefixes = readServices.stream().map(service -> service.getName() + ".").collect(Collectors.toList());
+		this.primaryConnections = meterRegistry.counter(CONNECTIONS_METRIC, "target", PRIMARY);
+		for (int i = 0; i < replicas.size(); i++) {
+			Replica replica = new Replica("replica-" + i, replicas.get(i), meterRegistry.counter(CONNECTIONS_METRIC, "target", "replica-" + i));
+			Gauge.builder(REPLICA_UP_METRIC, replica, r -> r.up ? 1 : 0).tag("replica", replica.name).register(meterRegistry);
+			this.replicas.add(replica);
+		}
+	}
+
+	/***
+	 * Solta a thread do primário; as próximas leituras voltam para as réplicas.
+	 */
+	public static void release() {
+		PINNED.remove();
+	}
+
+	/***
+	 * Prende a thread ao primário até {@code untilMillis}, sem encurtar um prazo maior já em curso.
+	 */
+	public static void pinUntil(long untilMillis) {
+		if (untilMillis > pinnedUntil()) {
+			PINNED.set(untilMillis);
+		}
+	}
+
+	/***
+	 * Até quando a thread lê do primário; 0 se ela já pode ler das réplicas.
+	 */
+	public static long pinnedUntil() {
+		Long until = PINNED.get();
+		if (until == null) {
+			return 0;
+		}
+		if (until <= System.currentTimeMillis()) {
+			PINNED.remove();
+			return 0;
+		}
+		return until;
+	}
+
+	/***
+	 * Se a thread escreveu há menos que a janela de atraso das réplicas e, por isso, lê do primário.
+	 */
+	public static boolean isPinned() {
+		return pinnedUntil() > 0;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return getConnection(null, null);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		if (isReplicaRead()) {
+			for (int attempt = 0; attempt < replicas.size(); attempt++) {
+				Replica replica = nextReplica();
+				if (replica == null) {
+					break;
+				}
+				try {
+					Connection connection = connect(replica.dataSource, username, password);
+					replica.connections.increment();
+					return connection;
+				} catch (SQLException | RuntimeException e) {
+					replica.markDown(e);
+				}
+			}
+		} else if (TransactionSynchronizationManager.isActualTransactionActive()
+				&& !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			pinForLagWindow();
+			if (TransactionSynchronizationManager.isSynchronizationActive()) {
+				TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+					@Override
+					public void afterCompletion(int status) {
+						pinForLagWindow();
+					}
+				});
+			}
+		}
+		primaryConnections.increment();
+		return connect(primary, username, password);
+	}
+
+	/***
+	 * Testa cada réplica: as que não respondem saem do rodízio e as que voltaram entram de novo.
+	 */
+	@Scheduled(fixedDelayString = "${application.datasource.replica-check-interval-ms:5000}")
+	public void checkReplicas() {
+		for (Replica replica : replicas) {
+			try (Connection connection = replica.dataSource.getConnection()) {
+				if (connection.isValid(1)) {
+					replica.markUp();
+				} else {
+					replica.markDown(null);
+				}
+			} catch (SQLException | RuntimeException e) {
+				replica.markDown(e);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Replica replica : replicas) {
+			close(replica.dataSource);
+		}
+		close(primary);
+	}
+
+	/***
+	 * A janela conta do fim da transação, quando a escrita fica visível e começa a ser replicada.
+	 */
+	private void pinForLagWindow() {
+		pinUntil(System.currentTimeMillis() + lagWindowMillis);
+	}
+
+	private boolean isReplicaRead() {
+		if (replicas.isEmpty() || isPinned()
+				|| !TransactionSynchronizationManager.isActualTransactionActive()
+				|| !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			return false;
+		}
+		String name = TransactionSynchronizationManager.getCurrentTransactionName();
+		return name != null && readTransactionPrefixes.stream().anyMatch(name::startsWith);
+	}
+
+	private Replica nextReplica() {
+		for (int i = 0; i < replicas.size(); i++) {
+			Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+			if (replica.up) {
+				return replica;
+			}
+		}
+		return null;
+	}
+
+	private static Connection connect(DataSource dataSource, String username, String password) throws SQLException {
+		return username == null ? dataSource.getConnection() : dataSource.getConnection(username, password);
+	}
+
+	private static void close(DataSource dataSource) throws IOException {
+		if (dataSource instanceof Closeable) {
+			((Closeable) dataSource).close();
+		}
+	}
+
+	private static final class Replica {
+
+		private final String name;
+		private final DataSource dataSource;
+		private final Counter connections;
+		private volatile boolean up = true;
+
+		private Replica(String name, DataSource dataSource, Counter connections) {
+			this.name = name;
+			this.dataSource = dataSource;
+			this.connections = connections;
+		}
+
+		private void markUp() {
+			if (!up) {
+				up = true;
+				log.info("Read replica {} is back", name);
+			}
+		}
+
+		private void markDown(Exception cause) {
+			if (up) {
+				up = false;
+				log.warn("Read replica {} is down, reads go to the other replicas or the primary", name, cause);
+			}
+		}
+	}
+}
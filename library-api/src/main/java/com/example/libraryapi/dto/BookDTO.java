@@ -1,5 +1,7 @@
 package com.example.libraryapi.dto;
 
+import javax.validation.constraints.Size;
+
 import org.hibernate.validator.constraints.NotEmpty;
 
 import lombok.AllArgsConstructor;
@@ -18,11 +20,14 @@ public class BookDTO {
 	private Long id;
 	
 	@NotEmpty(message="Preenchimento obrigatório")
+	@Size(max = 255, message="Máximo de 255 caracteres")
 	private String tittle;
 	
 	@NotEmpty(message="Preenchimento obrigatório")
+	@Size(max = 255, message="Máximo de 255 caracteres")
 	private String author;
 	
 	@NotEmpty(message="Preenchimento obrigatório")
+	@Size(max = 255, message="Máximo de 255 caracteres")
 	private String isbn;
 }
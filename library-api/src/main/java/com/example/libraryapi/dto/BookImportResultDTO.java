@@ -0,0 +1,30 @@
+package com.example.libraryapi.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookImportResultDTO {
+	
+	private long received;
+	private long imported;
+	private long rejected;
+	
+	/***
+	 * Erros por linha, limitados a application.import.max-errors; errorsTruncated indica que
+	 * houve mais rejeições do que as listadas.
+	 */
+	@Builder.Default
+	private List<BookImportErrorDTO> errors = new ArrayList<>();
+	private boolean errorsTruncated;
+}
@@ -0,0 +1,23 @@
+package com.example.libraryapi.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/***
+ * Um item da busca de vários livros, na ordem do pedido: status 200 com o livro, ou 404 sem ele.
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookLookupItemDTO {
+	
+	private Long id;
+	private String isbn;
+	private int status;
+	private BookDTO book;
+}
@@ -0,0 +1,22 @@
+package com.example.libraryapi.dto;
+
+import java.time.LocalDate;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookStatsDTO {
+	private Long bookId;
+	private String isbn;
+	private Long activeLoanId;
+	private long totalLoans;
+	private LocalDate lastLoanDate;
+}
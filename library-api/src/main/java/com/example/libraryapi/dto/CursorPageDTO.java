@@ -0,0 +1,57 @@
+package com.example.libraryapi.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/***
+ * Página de resultados navegada por cursor (keyset por id), sem OFFSET nem COUNT.
+ * 
+ * {@code next} é nulo na última página; nas demais deve ser enviado como {@code after}.
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageDTO<T> {
+	
+	private List<T> content;
+	private String next;
+	
+	/***
+	 * Monta a página a partir de uma consulta feita com {@code limit + 1} linhas:
+	 * a linha excedente apenas indica que existe próxima página.
+	 */
+	public static <E, T> CursorPageDTO<T> of(List<E> rows, int limit, Function<E, Long> id, Function<E, T> mapper) {
+		boolean hasNext = rows.size() > limit;
+		List<E> page = hasNext ? rows.subList(0, limit) : rows;
+		
+		return new CursorPageDTO<T>(
+				page.stream().map(mapper).collect(Collectors.toList()),
+				hasNext ? encode(id.apply(page.get(limit - 1))) : null);
+	}
+	
+	public static String encode(Long id) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(id.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/***
+	 * @return o último id visto, ou 0 para a primeira página
+	 * @throws IllegalArgumentException se o cursor não foi gerado por {@link #encode(Long)}
+	 */
+	public static Long decode(String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return 0L;
+		}
+		return Long.valueOf(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+	}
+}
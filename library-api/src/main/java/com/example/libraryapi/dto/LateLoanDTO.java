@@ -0,0 +1,26 @@
+package com.example.libraryapi.dto;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/***
+ * Apenas as colunas que o resumo de atrasados enviado ao cliente usa.
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LateLoanDTO {
+	
+	private Long id;
+	private String customer;
+	private String email;
+	private String tittle;
+	private LocalDateTime dueDate;
+}
@@ -0,0 +1,23 @@
+package com.example.libraryapi.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/***
+ * Resultado de um item dos lotes de empréstimo e devolução, na ordem do pedido.
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanBatchItemDTO {
+	
+	private Long id;
+	private String isbn;
+	private int status;
+	private String message;
+}
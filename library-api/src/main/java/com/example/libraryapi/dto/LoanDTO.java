@@ -23,4 +23,18 @@ public class LoanDTO {
 	@NotEmpty
 	private String email;
 	private BookDTO book;
+	
+	/***
+	 * Projeção das listagens (constructor expression): empréstimo e livro na mesma linha da consulta.
+	 * O isbn do empréstimo vem à parte do isbn do livro: os empréstimos de um livro passam null nele,
+	 * como em {@code LoanMapper.toDto}, e as demais listagens o isbn do livro, como em
+	 * {@code LoanMapper.toDtoWithIsbn}.
+	 */
+	public LoanDTO(Long id, String isbn, String customer, String email, Long bookId, String tittle, String author, String bookIsbn) {
+		this.id = id;
+		this.isbn = isbn;
+		this.customer = customer;
+		this.email = email;
+		this.book = new BookDTO(bookId, tittle, author, bookIsbn);
+	}
 }
@@ -0,0 +1,20 @@
+package com.example.libraryapi.dto;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanDueDTO {
+	
+	private Long id;
+	private LocalDateTime dueDate;
+}
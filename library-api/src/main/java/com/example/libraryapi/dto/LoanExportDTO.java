@@ -0,0 +1,27 @@
+package com.example.libraryapi.dto;
+
+import java.time.LocalDate;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/***
+ * Linha da exportação de empréstimos, montada direto na consulta (constructor expression).
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanExportDTO {
+	
+	private Long id;
+	private String isbn;
+	private String customer;
+	private String email;
+	private LocalDate loanDate;
+	private boolean returned;
+}
@@ -0,0 +1,17 @@
+package com.example.libraryapi.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReturnedLoanItemDTO {
+	private Long id;
+	private boolean returned;
+}
@@ -0,0 +1,14 @@
+package com.example.libraryapi.exceptions;
+
+public class InvalidFileException extends RuntimeException {
+	
+	private static final long serialVersionUID = 1L;
+
+	public InvalidFileException() {
+		
+	}
+	
+	public InvalidFileException(String msg) {
+		super(msg);
+	}
+}
@@ -4,6 +4,7 @@ import java.time.Instant;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -38,6 +39,18 @@ public class ResourceExceptionHandler {
 	}
 	
 
+	@ExceptionHandler(InvalidFileException.class)
+	public ResponseEntity<StandardError> invalidFile(InvalidFileException e , HttpServletRequest  request){
+		StandardError err = new StandardError();
+		err.setTimestamp(Instant.now());
+		err.setStatus(HttpStatus.BAD_REQUEST.value());
+		err.setError("Invalid file");
+		err.setMessage(e.getMessage());
+		err.setPath(request.getRequestURI());
+		return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(err);
+	}
+	
+
 	@ExceptionHandler(EntityNotFoundException.class)
 	public ResponseEntity<StandardError> entityNotFound(EntityNotFoundException e , HttpServletRequest  request){
 		StandardError err = new StandardError();
@@ -49,4 +62,19 @@ public class ResourceExceptionHandler {
 		return ResponseEntity.status(HttpStatus.NOT_FOUND).body(err);
 	}
 	
+
+	/***
+	 * A versão mudou entre a leitura e a gravação (outra requisição gravou antes).
+	 */
+	@ExceptionHandler(OptimisticLockingFailureException.class)
+	public ResponseEntity<StandardError> concurrentUpdate(OptimisticLockingFailureException e , HttpServletRequest  request){
+		StandardError err = new StandardError();
+		err.setTimestamp(Instant.now());
+		err.setStatus(HttpStatus.PRECONDITION_FAILED.value());
+		err.setError("Concurrent update");
+		err.setMessage("O recurso foi alterado por outra requisição; obtenha a versão atual");
+		err.setPath(request.getRequestURI());
+		return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(err);
+	}
+	
 }
@@ -0,0 +1,150 @@
+package com.example.libraryapi.exporter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import org.springframework.http.MediaType;
+
+import com.example.libraryapi.importer.BookRowReader;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/***
+ * Escreve linhas de exportação uma a uma na resposta, em NDJSON ou CSV, com um buffer fixo:
+ * nada além da linha corrente fica em memória.
+ */
+public abstract class RowWriter<T> implements Closeable {
+	
+	public static final MediaType NDJSON = MediaType.valueOf(BookRowReader.NDJSON_VALUE);
+	public static final MediaType CSV = MediaType.valueOf(BookRowReader.CSV_VALUE);
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	protected final Writer writer;
+	
+	protected RowWriter(OutputStream out) {
+		this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+	
+	/***
+	 * @param header nomes das colunas do CSV
+	 * @param columns valores de uma linha, na ordem do cabeçalho
+	 */
+	public static <T> RowWriter<T> of(MediaType format, OutputStream out, ObjectMapper objectMapper,
+			String[] header, Function<T, Object[]> columns) throws IOException {
+		if (CSV.isCompatibleWith(format)) {
+			return new CsvWriter<T>(out, header, columns);
+		}
+		return new NdjsonWriter<T>(out, objectMapper);
+	}
+	
+	public abstract void write(T row) throws IOException;
+	
+	/***
+	 * Esvazia o buffer; o fluxo da resposta é fechado pelo container.
+	 */
+	@Override
+	public void close() throws IOException {
+		writer.flush();
+	}
+	
+	
+	private static class NdjsonWriter<T> extends RowWriter<T> {
+		
+		private final ObjectMapper objectMapper;
+		private final JsonGenerator generator;
+		private boolean empty = true;
+		
+		NdjsonWriter(OutputStream out, ObjectMapper objectMapper) throws IOException {
+			super(out);
+			this.objectMapper = objectMapper;
+			this.generator = objectMapper.getFactory().createGenerator(writer);
+			this.generator.setRootValueSeparator(new SerializedString("\n"));
+		}
+		
+		@Override
+		public void write(T row) throws IOException {
+			objectMapper.writeValue(generator, row);
+			empty = false;
+		}
+		
+		/***
+		 * Termina a última linha; uma exportação vazia fica sem nenhum byte.
+		 */
+		@Override
+		public void close() throws IOException {
+			generator.flush();
+			if (!empty) {
+				writer.write('\n');
+			}
+			super.close();
+		}
+	}
+	
+	
+	private static class CsvWriter<T> extends RowWriter<T> {
+		
+		private final Function<T, Object[]> columns;
+		
+		CsvWriter(OutputStream out, String[] header, Function<T, Object[]> columns) throws IOException {
+			super(out);
+			this.columns = columns;
+			writeLine(header);
+		}
+		
+		@Override
+		public void write(T row) throws IOException {
+			writeLine(columns.apply(row));
+		}
+		
+		private void writeLine(Object[] values) throws IOException {
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				writeField(values[i]);
+			}
+			writer.write('\n');
+		}
+		
+		/***
+		 * Textos que começam com =, +, -, @, tab ou CR ganham um apóstrofo e vão entre aspas,
+		 * para a planilha não interpretá-los como fórmula (CSV injection). Números e datas
+		 * saem como estão.
+		 */
+		private void writeField(Object value) throws IOException {
+			if (value == null) {
+				return;
+			}
+			String text = value.toString();
+			if (value instanceof CharSequence && isFormula(text)) {
+				writer.write("\"'");
+				writer.write(text.replace("\"", "\"\""));
+				writer.write('"');
+				return;
+			}
+			if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+				writer.write(text);
+				return;
+			}
+			writer.write('"');
+			writer.write(text.replace("\"", "\"\""));
+			writer.write('"');
+		}
+		
+		private static boolean isFormula(String text) {
+			if (text.isEmpty()) {
+				return false;
+			}
+			char first = text.charAt(0);
+			return first == '=' || first == '+' || first == '-' || first == '@' || first == '\t' || first == '\r';
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.example.libraryapi.importer;
+
+import com.example.libraryapi.dto.BookDTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/***
+ * Uma linha do arquivo de importação: o livro lido ou o erro de leitura.
+ */
+@Getter
+@AllArgsConstructor
+public class BookRow {
+	
+	private final long line;
+	private final BookDTO book;
+	private final String error;
+	
+	public boolean hasError() {
+		return error != null;
+	}
+}
@@ -0,0 +1,204 @@
+package com.example.libraryapi.importer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.http.MediaType;
+
+import com.example.libraryapi.dto.BookDTO;
+import com.example.libraryapi.exceptions.InvalidFileException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/***
+ * Lê o corpo da importação linha a linha, sem carregar o arquivo em memória.
+ * 
+ * NDJSON: um {@link BookDTO} em JSON por linha. CSV: cabeçalho com as colunas tittle, author e
+ * isbn (em qualquer ordem), campos separados por vírgula e aspas duplas opcionais; um registro
+ * não pode quebrar linha.
+ */
+public abstract class BookRowReader implements Closeable {
+	
+	public static final String NDJSON_VALUE = "application/x-ndjson";
+	public static final String CSV_VALUE = "text/csv";
+	
+	private final BufferedReader reader;
+	private long line;
+	
+	protected BookRowReader(BufferedReader reader) {
+		this.reader = reader;
+	}
+	
+	public static BookRowReader of(MediaType contentType, InputStream body, ObjectMapper objectMapper) {
+		Charset charset = contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(body, charset));
+		
+		if (contentType.isCompatibleWith(MediaType.valueOf(NDJSON_VALUE))) {
+			return new NdjsonReader(reader, objectMapper);
+		}
+		if (contentType.isCompatibleWith(MediaType.valueOf(CSV_VALUE))) {
+			return new CsvReader(reader);
+		}
+		throw new InvalidFileException("Formato não suportado: " + contentType);
+	}
+	
+	/***
+	 * @return a próxima linha não vazia, ou {@code null} no fim do arquivo
+	 */
+	public BookRow next() throws IOException {
+		String text;
+		do {
+			text = reader.readLine();
+			if (text == null) {
+				return null;
+			}
+			line++;
+		} while (text.trim().isEmpty());
+		
+		return parse(line, text);
+	}
+	
+	protected abstract BookRow parse(long line, String text);
+	
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+	
+	
+	private static class NdjsonReader extends BookRowReader {
+		
+		private final ObjectMapper objectMapper;
+		
+		NdjsonReader(BufferedReader reader, ObjectMapper objectMapper) {
+			super(reader);
+			this.objectMapper = objectMapper;
+		}
+		
+		@Override
+		protected BookRow parse(long line, String text) {
+			try {
+				return new BookRow(line, objectMapper.readValue(text, BookDTO.class), null);
+			} catch (JsonProcessingException e) {
+				return new BookRow(line, null, "JSON inválido");
+			}
+		}
+	}
+	
+	
+	private static class CsvReader extends BookRowReader {
+		
+		private int tittleColumn = -1;
+		private int authorColumn = -1;
+		private int isbnColumn = -1;
+		private boolean headerRead;
+		
+		CsvReader(BufferedReader reader) {
+			super(reader);
+		}
+		
+		@Override
+		public BookRow next() throws IOException {
+			if (!headerRead) {
+				headerRead = true;
+				if (super.next() == null) {
+					return null;
+				}
+			}
+			return super.next();
+		}
+		
+		@Override
+		protected BookRow parse(long line, String text) {
+			List<String> fields = split(text);
+			if (tittleColumn < 0) {
+				readHeader(fields);
+				return new BookRow(line, null, null);
+			}
+			if (fields == null) {
+				return new BookRow(line, null, "CSV inválido: aspas não fechadas");
+			}
+			
+			return new BookRow(line, BookDTO.builder()
+					.tittle(field(fields, tittleColumn))
+					.author(field(fields, authorColumn))
+					.isbn(field(fields, isbnColumn))
+					.build(), null);
+		}
+		
+		private void readHeader(List<String> fields) {
+			if (fields != null) {
+				for (int i = 0; i < fields.size(); i++) {
+					switch (fields.get(i).trim().toLowerCase(Locale.ROOT)) {
+					case "tittle":
+						tittleColumn = i;
+						break;
+					case "author":
+						authorColumn = i;
+						break;
+					case "isbn":
+						isbnColumn = i;
+						break;
+					default:
+						break;
+					}
+				}
+			}
+			if (tittleColumn < 0 || authorColumn < 0 || isbnColumn < 0) {
+				throw new InvalidFileException("Cabeçalho CSV deve conter as colunas tittle, author e isbn");
+			}
+		}
+		
+		private static String field(List<String> fields, int column) {
+			if (column >= fields.size()) {
+				return null;
+			}
+			String value = fields.get(column).trim();
+			return value.isEmpty() ? null : value;
+		}
+		
+		/***
+		 * @return os campos da linha, ou {@code null} se há aspas não fechadas
+		 */
+		private static List<String> split(String text) {
+			List<String> fields = new ArrayList<>();
+			StringBuilder current = new StringBuilder();
+			boolean quoted = false;
+			
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (quoted) {
+					if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+						current.append('"');
+						i++;
+					} else if (c == '"') {
+						quoted = false;
+					} else {
+						current.append(c);
+					}
+				} else if (c == '"') {
+					quoted = true;
+				} else if (c == ',') {
+					fields.add(current.toString());
+					current.setLength(0);
+				} else {
+					current.append(c);
+				}
+			}
+			
+			if (quoted) {
+				return null;
+			}
+			fields.add(current.toString());
+			return fields;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.example.libraryapi.index;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.libraryapi.cache.CacheInvalidation;
+import com.example.libraryapi.cache.CacheInvalidationChannel;
+import com.example.libraryapi.repository.LoanRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/***
+ * Mantém o {@link BookAvailabilityIndex} de cada nó em dia com os empréstimos e devoluções feitos
+ * nos outros, do mesmo jeito que o {@link BookIndexReplicator} faz com os índices de busca: os
+ * livros que mudaram vão pelo {@link CacheInvalidationChannel} em lotes de ids e quem recebe
+ * confere no banco, numa thread própria, quais deles têm empréstimo em aberto.
+ *
+ * Reler do banco em vez de levar o estado na mensagem deixa a ordem de chegada sem importância:
+ * um empréstimo e a devolução do mesmo livro em nós diferentes terminam no estado do banco.
+ */
+@Slf4j
+@Component
+public class BookAvailabilityReplicator {
+
+	public static final String REGION = "book-availability";
+
+	private final String origin = UUID.randomUUID().toString();
+	private final CacheInvalidationChannel channel;
+	private final LoanRepository repository;
+	private final BookAvailabilityIndex availabilityIndex;
+	private final Consumer<CacheInvalidation> listener = this::receive;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("book-availability-"));
+
+	public BookAvailabilityReplicator(ObjectProvider<CacheInvalidationChannel> channel, LoanRepository repository,
+			BookAvailabilityIndex availabilityIndex) {
+		this.channel = channel.getIfAvailable();
+		this.repository = repository;
+		this.availabilityIndex = availabilityIndex;
+	}
+
+	@PostConstruct
+	public void subscribe() {
+		if (channel != null) {
+			channel.subscribe(listener);
+		}
+	}
+
+	@PreDestroy
+	public void unsubscribe() {
+		if (channel != null) {
+			channel.unsubscribe(listener);
+		}
+		executor.shutdownNow();
+	}
+
+	/***
+	 * Avisa os outros nós dos livros emprestados ou devolvidos aqui; dentro de uma transação, só
+	 * depois do commit.
+	 */
+	public void changed(Collection<Long> bookIds) {
+		if (channel == null || bookIds.isEmpty()) {
+			return;
+		}
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			publish(bookIds);
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				publish(bookIds);
+			}
+		});
+	}
+
+	private void publish(Collection<Long> bookIds) {
+		long[] ids = bookIds.stream().mapToLong(Long::longValue).distinct().toArray();
+		for (int from = 0; from < ids.length; from += BookIndexReplicator.BATCH_SIZE) {
+			long[] batch = Arrays.copyOfRange(ids, from, Math.min(ids.length, from + BookIndexReplicator.BATCH_SIZE));
+			channel.publish(new CacheInvalidation(origin, REGION, batch, null));
+		}
+	}
+
+	private void receive(CacheInvalidation invalidation) {
+		if (origin.equals(invalidation.getOrigin()) || !REGION.equals(invalidation.getRegion())) {
+			return;
+		}
+		Object key = invalidation.getKey();
+		try {
+			executor.execute(() -> {
+				if (key instanceof long[]) {
+					refresh((long[]) key);
+				} else {
+					refreshAll();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.debug("Book availability replicator stopped, ignoring {}", invalidation);
+		}
+	}
+
+	private void refresh(long[] bookIds) {
+		List<Long> ids = Arrays.stream(bookIds).boxed().collect(Collectors.toList());
+		try {
+			Set<Long> loaned = repository.findOpenBookIds(ids);
+			for (Long id : ids) {
+				if (loaned.contains(id)) {
+					availabilityIndex.markLoaned(id);
+				} else {
+					availabilityIndex.markReturned(id);
+				}
+			}
+		} catch (RuntimeException e) {
+			log.warn("Could not refresh availability for {} books", ids.size(), e);
+		}
+	}
+
+	/***
+	 * Aviso sem ids (a fila do canal transbordou no outro nó): recarrega o índice inteiro.
+	 */
+	private void refreshAll() {
+		log.warn("Book availability changes were lost in transit, reloading the availability index");
+		try {
+			availabilityIndex.load(repository.findBookIdsWithOpenLoans());
+		} catch (RuntimeException e) {
+			log.warn("Could not reload the availability index", e);
+		}
+	}
+}
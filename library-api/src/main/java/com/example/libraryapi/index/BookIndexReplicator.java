@@ -0,0 +1,174 @@
+package com.example.libraryapi.index;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.libraryapi.cache.CacheInvalidation;
+import com.example.libraryapi.cache.CacheInvalidationChannel;
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.repository.BookRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/***
+ * Mantém o {@link BookSearchIndex} e o {@link BookTrigramIndex} de cada nó em dia com os livros
+ * gravados nos outros: cada gravação é avisada pelo {@link CacheInvalidationChannel} e quem recebe
+ * relê os livros do banco e os indexa de novo. Sem o aviso, o índice de trigramas de um nó não
+ * teria os livros cadastrados nos outros e o filtro cairia na consulta completa.
+ *
+ * Os ids vão em lotes de até {@link #BATCH_SIZE} por mensagem, e quem recebe relê cada lote em
+ * uma única consulta, numa thread própria: uma importação grande não vira uma mensagem por livro
+ * nem prende a thread do canal, que também entrega as invalidações de cache.
+ *
+ * Um livro alterado em outro nó pode deixar trigramas antigos no índice deste: só trazem
+ * candidatos a mais, que o filtro no banco descarta.
+ */
+@Slf4j
+@Component
+public class BookIndexReplicator {
+	
+	public static final String REGION = "book-index";
+	
+	/***
+	 * Ids por mensagem: até 20 caracteres cada, cabem na coluna da chave do canal JDBC.
+	 */
+	static final int BATCH_SIZE = 190;
+	
+	private static final int REFRESH_BATCH = 1000;
+	
+	private final String origin = UUID.randomUUID().toString();
+	private final CacheInvalidationChannel channel;
+	private final BookRepository repository;
+	private final BookSearchIndex searchIndex;
+	private final BookTrigramIndex trigramIndex;
+	private final Consumer<CacheInvalidation> listener = this::receive;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("book-index-"));
+	
+	public BookIndexReplicator(ObjectProvider<CacheInvalidationChannel> channel, BookRepository repository,
+			BookSearchIndex searchIndex, BookTrigramIndex trigramIndex) {
+		this.channel = channel.getIfAvailable();
+		this.repository = repository;
+		this.searchIndex = searchIndex;
+		this.trigramIndex = trigramIndex;
+	}
+	
+	@PostConstruct
+	public void subscribe() {
+		if (channel != null) {
+			channel.subscribe(listener);
+		}
+	}
+	
+	@PreDestroy
+	public void unsubscribe() {
+		if (channel != null) {
+			channel.unsubscribe(listener);
+		}
+		executor.shutdownNow();
+	}
+	
+	/***
+	 * Avisa os outros nós dos livros gravados aqui; dentro de uma transação, só depois do commit,
+	 * para que quem recebe já encontre o livro no banco.
+	 */
+	public void changed(Collection<Long> bookIds) {
+		if (channel == null || bookIds.isEmpty()) {
+			return;
+		}
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			publish(bookIds);
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				publish(bookIds);
+			}
+		});
+	}
+	
+	private void publish(Collection<Long> bookIds) {
+		long[] ids = bookIds.stream().mapToLong(Long::longValue).toArray();
+		for (int from = 0; from < ids.length; from += BATCH_SIZE) {
+			long[] batch = Arrays.copyOfRange(ids, from, Math.min(ids.length, from + BATCH_SIZE));
+			channel.publish(new CacheInvalidation(origin, REGION, batch, null));
+		}
+	}
+	
+	private void receive(CacheInvalidation invalidation) {
+		if (origin.equals(invalidation.getOrigin()) || !REGION.equals(invalidation.getRegion())) {
+			return;
+		}
+		Object key = invalidation.getKey();
+		try {
+			executor.execute(() -> {
+				if (key instanceof long[]) {
+					refresh((long[]) key);
+				} else {
+					refreshAll();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.debug("Book index replicator stopped, ignoring {}", invalidation);
+		}
+	}
+	
+	private void refresh(long[] bookIds) {
+		List<Long> ids = Arrays.stream(bookIds).boxed().collect(Collectors.toList());
+		try {
+			// consulta em vez de findById: o cache de segundo nível deste nó pode ainda ter a versão antiga
+			Set<Long> missing = new HashSet<>(ids);
+			for (Book book : repository.findAllById(ids)) {
+				searchIndex.index(book);
+				trigramIndex.index(book);
+				missing.remove(book.getId());
+			}
+			for (Long id : missing) {
+				searchIndex.remove(id);
+				trigramIndex.remove(id);
+			}
+		} catch (RuntimeException e) {
+			log.warn("Could not refresh search indexes for {} books", ids.size(), e);
+		}
+	}
+	
+	/***
+	 * Aviso sem ids (a fila do canal transbordou no outro nó): relê o acervo inteiro por cursor.
+	 */
+	private void refreshAll() {
+		log.warn("Book index changes were lost in transit, refreshing all books");
+		try {
+			Long lastId = 0L;
+			List<Book> books;
+			do {
+				books = repository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, REFRESH_BATCH));
+				for (Book book : books) {
+					searchIndex.index(book);
+					trigramIndex.index(book);
+					lastId = book.getId();
+				}
+			} while (books.size() == REFRESH_BATCH);
+		} catch (RuntimeException e) {
+			log.warn("Could not refresh search indexes", e);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package com.example.libraryapi.index;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.springframework.stereotype.Component;
+
+import com.example.libraryapi.model.Book;
+
+/***
+ * Índice invertido em memória sobre título e autor dos livros.
+ * 
+ * Os termos são normalizados (minúsculas, sem acentos); um termo presente no título vale
+ * {@link #TITTLE_WEIGHT} pontos e no autor {@link #AUTHOR_WEIGHT}. As postings são ids int em
+ * {@link IntPostingList}, como no {@link BookTrigramIndex}. A busca devolve os ids que
+ * contêm todos os termos da consulta, do maior para o menor peso somado.
+ */
+@Component
+public class BookSearchIndex {
+	
+	static final int TITTLE_WEIGHT = 2;
+	static final int AUTHOR_WEIGHT = 1;
+	
+	private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+	
+	private final Map<String, TermPostings> postings = new HashMap<>();
+	private final Map<Long, String[]> documents = new HashMap<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	public void index(Book book) {
+		int id = book.getId().intValue();
+		List<String> tittleTerms = tokenize(book.getTittle());
+		List<String> authorTerms = tokenize(book.getAuthor());
+		Set<String> terms = new LinkedHashSet<>(tittleTerms);
+		terms.addAll(authorTerms);
+		
+		lock.writeLock().lock();
+		try {
+			removeDocument(book.getId());
+			for (String term : tittleTerms) {
+				postings.computeIfAbsent(term, key -> new TermPostings()).tittles.add(id);
+			}
+			for (String term : authorTerms) {
+				postings.computeIfAbsent(term, key -> new TermPostings()).authors.add(id);
+			}
+			documents.put(book.getId(), terms.toArray(new String[terms.size()]));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void remove(Long id) {
+		lock.writeLock().lock();
+		try {
+			removeDocument(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			postings.clear();
+			documents.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return documents.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/***
+	 * @return ids dos livros que contêm todos os termos de {@code query}, ordenados por relevância
+	 */
+	public List<Long> search(String query) {
+		List<String> terms = tokenize(query);
+		if (terms.isEmpty()) {
+			return Collections.emptyList();
+		}
+		
+		int[] ids;
+		int[] scores;
+		lock.readLock().lock();
+		try {
+			TermPostings[] lists = new TermPostings[terms.size()];
+			for (int i = 0; i < lists.length; i++) {
+				lists[i] = postings.get(terms.get(i));
+				if (lists[i] == null) {
+					return Collections.emptyList();
+				}
+			}
+			Arrays.sort(lists, Comparator.comparingInt(TermPostings::size));
+			
+			ids = lists[0].ids();
+			for (int i = 1; i < lists.length && ids.length > 0; i++) {
+				ids = lists[i].retain(ids);
+			}
+			scores = new int[ids.length];
+			for (TermPostings list : lists) {
+				for (int i = 0; i < ids.length; i++) {
+					scores[i] += list.weight(ids[i]);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		
+		Integer[] order = new Integer[ids.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// ids já estão em ordem crescente, então a ordenação estável desempata pelo id
+		Arrays.sort(order, (a, b) -> Integer.compare(scores[b], scores[a]));
+		List<Long> result = new ArrayList<>(order.length);
+		for (int position : order) {
+			result.add((long) ids[position]);
+		}
+		return result;
+	}
+	
+	static List<String> tokenize(String text) {
+		if (text == null) {
+			return Collections.emptyList();
+		}
+		String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+		List<String> terms = new ArrayList<>();
+		for (String term : SEPARATORS.split(folded.toLowerCase(Locale.ROOT))) {
+			if (!term.isEmpty() && !terms.contains(term)) {
+				terms.add(term);
+			}
+		}
+		return terms;
+	}
+	
+	private void removeDocument(Long id) {
+		String[] terms = documents.remove(id);
+		if (terms == null) {
+			return;
+		}
+		for (String term : terms) {
+			TermPostings list = postings.get(term);
+			list.tittles.remove(id.intValue());
+			list.authors.remove(id.intValue());
+			if (list.isEmpty()) {
+				postings.remove(term);
+			}
+		}
+	}
+	
+	/***
+	 * União de dois arrays ordenados e sem repetição.
+	 */
+	private static int[] union(int[] first, int[] second) {
+		if (second.length == 0) {
+			return first;
+		}
+		int[] result = new int[first.length + second.length];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while (i < first.length || j < second.length) {
+			if (j == second.length || (i < first.length && first[i] < second[j])) {
+				result[count++] = first[i++];
+			} else if (i == first.length || second[j] < first[i]) {
+				result[count++] = second[j++];
+			} else {
+				result[count++] = first[i++];
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+	
+	
+	/***
+	 * Livros que têm o termo no título e no autor, em listas de ints separadas: o peso de um
+	 * livro no termo sai de em qual das duas ele aparece.
+	 */
+	private static class TermPostings {
+		
+		final IntPostingList tittles = new IntPostingList();
+		final IntPostingList authors = new IntPostingList();
+		
+		int size() {
+			return tittles.size() + authors.size();
+		}
+		
+		boolean isEmpty() {
+			return tittles.isEmpty() && authors.isEmpty();
+		}
+		
+		int[] ids() {
+			return union(tittles.toArray(), authors.toArray());
+		}
+		
+		int[] retain(int[] sorted) {
+			return union(tittles.retain(sorted), authors.retain(sorted));
+		}
+		
+				int weight(int id) {
+			return (tittles.contains(id) ? TITTLE_WEIGHT : 0) + (authors.contains(id) ? AUTHOR_WEIGHT : 0);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.example.libraryapi.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.stereotype.Component;
+
+import com.example.libraryapi.model.Book;
+
+/***
+ * Índice de trigramas sobre tittle, author e isbn, usado para reduzir os candidatos do filtro
+ * CONTAINING + ignoreCase de {@code BookServiceImpl.find}.
+ * 
+ * O índice só responde quais ids podem conter o trecho: a confirmação continua sendo feita
+ * pelo Example no banco. Um livro que falta no índice, porém, sumiria do resultado, e eles
+ * faltam de fato: livros gravados direto por SQL, avisos de outros nós ainda a caminho ou
+ * perdidos numa queda do canal. Por isso a lista de candidatos só vale quando
+ * {@link #covers(long, Long)} confirma que o índice tem tantos livros quanto a tabela, até o
+ * mesmo id máximo. Trigramas antigos de um livro alterado em outro nó podem ficar no índice sem
+ * afetar o resultado, apenas trazendo candidatos a mais até a próxima reconstrução.
+ */
+@Component
+public class BookTrigramIndex {
+	
+	/***
+	 * Acima disso a lista de ids deixa de compensar frente à varredura da tabela.
+	 */
+	public static final int MAX_CANDIDATES = 5_000;
+	
+	private static final int GRAM = 3;
+	
+	private final Map<Long, IntPostingList> tittles = new HashMap<>();
+	private final Map<Long, IntPostingList> authors = new HashMap<>();
+	private final Map<Long, IntPostingList> isbns = new HashMap<>();
+	private final IntPostingList ids = new IntPostingList();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private volatile boolean ready;
+	private volatile boolean overflow;
+	
+	public void index(Book book) {
+		if (book.getId() > Integer.MAX_VALUE) {
+			overflow = true;
+			return;
+		}
+		int id = book.getId().intValue();
+		
+		lock.writeLock().lock();
+		try {
+			add(tittles, book.getTittle(), id);
+			add(authors, book.getAuthor(), id);
+			add(isbns, book.getIsbn(), id);
+			ids.add(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void remove(Book book) {
+		if (book.getId() > Integer.MAX_VALUE) {
+			return;
+		}
+		int id = book.getId().intValue();
+		
+		lock.writeLock().lock();
+		try {
+			remove(tittles, book.getTittle(), id);
+			remove(authors, book.getAuthor(), id);
+			remove(isbns, book.getIsbn(), id);
+			ids.remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/***
+	 * Remove um livro do qual só se sabe o id (excluído em outro nó): percorre todas as listas,
+	 * o que só se paga porque exclusões são raras.
+	 */
+	public void remove(Long bookId) {
+		if (bookId > Integer.MAX_VALUE) {
+			return;
+		}
+		int id = bookId.intValue();
+		
+		lock.writeLock().lock();
+		try {
+			if (!ids.contains(id)) {
+				return;
+			}
+			removeEverywhere(tittles, id);
+			removeEverywhere(authors, id);
+			removeEverywhere(isbns, id);
+			ids.remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			ready = false;
+			overflow = false;
+			tittles.clear();
+			authors.clear();
+			isbns.clear();
+			ids.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void markReady() {
+		ready = true;
+	}
+	
+	/***
+	 * Se o índice tem exatamente os livros da tabela, pela contagem e pelo maior id: ids vêm de
+	 * uma sequence, então um livro novo que não chegou aqui muda o máximo e um excluído muda a
+	 * contagem.
+	 */
+	public boolean covers(long count, Long maxId) {
+		lock.readLock().lock();
+		try {
+			if (ids.size() != count) {
+				return false;
+			}
+			return count == 0 || (maxId != null && maxId == ids.last());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/***
+	 * @return ids ordenados que podem satisfazer o filtro, ou {@code null} quando o índice não
+	 * consegue restringir a busca (não carregado, trechos com menos de 3 caracteres ou
+	 * mais de {@link #MAX_CANDIDATES} candidatos)
+	 */
+	public int[] candidates(Book filter) {
+		if (!ready || overflow) {
+			return null;
+		}
+		
+		lock.readLock().lock();
+		try {
+			int[] result = null;
+			result = narrow(result, tittles, filter.getTittle());
+			result = narrow(result, authors, filter.getAuthor());
+			result = narrow(result, isbns, filter.getIsbn());
+			return result == null || result.length > MAX_CANDIDATES ? null : result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	private static int[] narrow(int[] current, Map<Long, IntPostingList> field, String value) {
+		long[] grams = trigrams(value);
+		if (grams.length == 0) {
+			return current;
+		}
+		
+		IntPostingList[] lists = new IntPostingList[grams.length];
+		for (int i = 0; i < grams.length; i++) {
+			lists[i] = field.get(grams[i]);
+			if (lists[i] == null) {
+				return new int[0];
+			}
+		}
+		Arrays.sort(lists, (a, b) -> Integer.compare(a.size(), b.size()));
+		
+		int[] result = current == null ? lists[0].toArray() : lists[0].retain(current);
+		for (int i = 1; i < lists.length && result.length > 0; i++) {
+			result = lists[i].retain(result);
+		}
+		return result;
+	}
+	
+	private static void removeEverywhere(Map<Long, IntPostingList> field, int id) {
+		field.values().removeIf(list -> {
+			list.remove(id);
+			return list.isEmpty();
+		});
+	}
+	
+	private static void add(Map<Long, IntPostingList> field, String value, int id) {
+		for (long gram : trigrams(value)) {
+			field.computeIfAbsent(gram, key -> new IntPostingList()).add(id);
+		}
+	}
+	
+	private static void remove(Map<Long, IntPostingList> field, String value, int id) {
+		for (long gram : trigrams(value)) {
+			IntPostingList list = field.get(gram);
+			if (list != null) {
+				list.remove(id);
+				if (list.isEmpty()) {
+					field.remove(gram);
+				}
+			}
+		}
+	}
+	
+	/***
+	 * Trigramas distintos do texto em minúsculas, cada um com os 3 chars empacotados em um long.
+	 */
+	static long[] trigrams(String value) {
+		if (value == null || value.length() < GRAM) {
+			return new long[0];
+		}
+		String text = value.toLowerCase(Locale.ROOT);
+		long[] grams = new long[text.length() - GRAM + 1];
+		for (int i = 0; i < grams.length; i++) {
+			grams[i] = ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+		}
+		return Arrays.stream(grams).distinct().toArray();
+	}
+}
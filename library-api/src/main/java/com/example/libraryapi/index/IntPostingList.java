@@ -0,0 +1,99 @@
+package com.example.libraryapi.index;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/***
+ * Lista ordenada e sem repetição de ints, guardada em um array primitivo que cresce sob demanda.
+ * 
+ * Ids chegam quase sempre em ordem crescente (sequence), então o caso comum de {@link #add(int)}
+ * é um append.
+ */
+public class IntPostingList {
+	
+	private static final int INITIAL_CAPACITY = 4;
+	
+	private int[] values = new int[INITIAL_CAPACITY];
+	private int size;
+	
+	public void add(int value) {
+		if (size > 0 && values[size - 1] >= value) {
+			int position = Arrays.binarySearch(values, 0, size, value);
+			if (position >= 0) {
+				return;
+			}
+			insertAt(-position - 1, value);
+			return;
+		}
+		insertAt(size, value);
+	}
+	
+	public void remove(int value) {
+		int position = Arrays.binarySearch(values, 0, size, value);
+		if (position >= 0) {
+			System.arraycopy(values, position + 1, values, position, size - position - 1);
+			size--;
+		}
+	}
+	
+	public boolean contains(int value) {
+		return Arrays.binarySearch(values, 0, size, value) >= 0;
+	}
+	
+	/***
+	 * Maior valor da lista, que não pode estar vazia.
+	 */
+	public int last() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return values[size - 1];
+	}
+	
+	public void clear() {
+		size = 0;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+	
+	/***
+	 * Interseção de um array ordenado com esta lista, avançando os dois em paralelo.
+	 */
+	public int[] retain(int[] sorted) {
+		int[] result = new int[Math.min(sorted.length, size)];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while (i < sorted.length && j < size) {
+			if (sorted[i] < values[j]) {
+				i++;
+			} else if (sorted[i] > values[j]) {
+				j++;
+			} else {
+				result[count++] = sorted[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+	
+	private void insertAt(int position, int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size + (size >> 1) + 1);
+		}
+		System.arraycopy(values, position, values, position + 1, size - position);
+		values[position] = value;
+		size++;
+	}
+}
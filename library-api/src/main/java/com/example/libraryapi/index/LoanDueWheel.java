@@ -0,0 +1,192 @@
+package com.example.libraryapi.index;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.stereotype.Component;
+
+/***
+ * Vencimentos dos empréstimos em aberto, em uma timing wheel hierárquica de 4 níveis com 64
+ * posições cada e resolução de 1 minuto (o último nível alcança ~31 anos).
+ * 
+ * Agendar e cancelar são O(1). A cada minuto que passa, {@link #advance(LocalDateTime)} devolve
+ * só os empréstimos que venceram naquele minuto; os agendados para longe descem de nível
+ * ("cascade") quando o ponteiro do nível de baixo dá a volta.
+ */
+@Component
+public class LoanDueWheel {
+	
+	static final long TICK_MILLIS = 60_000;
+	
+	private static final int LEVELS = 4;
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final long HORIZON = 1L << (SLOT_BITS * LEVELS);
+	
+	private final ZoneId zone;
+	
+	@SuppressWarnings("unchecked")
+	private final Set<Long>[][] wheel = new Set[LEVELS][SLOTS];
+	private final Map<Long, Timeout> timeouts = new HashMap<>();
+	private final Set<Long> expired = new HashSet<>();
+	private final Set<Long> overflow = new HashSet<>();
+	
+	private long currentTick = -1;
+	
+	public LoanDueWheel() {
+		this(ZoneId.systemDefault());
+	}
+	
+	LoanDueWheel(ZoneId zone) {
+		this.zone = zone;
+	}
+	
+	private static final class Timeout {
+		final long tick;
+		Set<Long> bucket;
+		
+		Timeout(long tick) {
+			this.tick = tick;
+		}
+	}
+	
+	/***
+	 * Recarrega a roda com os vencimentos informados, a partir de {@code now}.
+	 */
+	public synchronized void load(Map<Long, LocalDateTime> dueDates, LocalDateTime now) {
+		for (Set<Long>[] level : wheel) {
+			for (int slot = 0; slot < SLOTS; slot++) {
+				level[slot] = null;
+			}
+		}
+		timeouts.clear();
+		expired.clear();
+		overflow.clear();
+		currentTick = tick(now);
+		dueDates.forEach(this::add);
+	}
+	
+	public synchronized boolean isReady() {
+		return currentTick >= 0;
+	}
+	
+	public synchronized void schedule(Long loanId, LocalDateTime dueDate) {
+		if (currentTick < 0 || dueDate == null) {
+			return;
+		}
+		cancel(loanId);
+		add(loanId, dueDate);
+	}
+	
+	public synchronized void cancel(Long loanId) {
+		Timeout timeout = timeouts.remove(loanId);
+		if (timeout != null) {
+			timeout.bucket.remove(loanId);
+		}
+	}
+	
+	public synchronized int size() {
+		return timeouts.size();
+	}
+	
+	/***
+	 * Avança a roda até {@code now} e devolve os empréstimos vencidos desde a última chamada,
+	 * que deixam a roda.
+	 */
+	public synchronized List<Long> advance(LocalDateTime now) {
+		List<Long> due = new ArrayList<>();
+		if (currentTick < 0) {
+			return due;
+		}
+		
+		long target = tick(now);
+		drain(expired, due);
+		while (currentTick < target) {
+			currentTick++;
+			cascade();
+			Set<Long> bucket = wheel[0][(int) (currentTick & SLOT_MASK)];
+			if (bucket != null) {
+				drain(bucket, due);
+			}
+			drain(expired, due);
+		}
+		return due;
+	}
+	
+	private void add(Long loanId, LocalDateTime dueDate) {
+		place(loanId, new Timeout(tick(dueDate)));
+	}
+	
+	private void place(Long loanId, Timeout timeout) {
+		long delta = timeout.tick - currentTick;
+		Set<Long> bucket;
+		if (delta <= 0) {
+			bucket = expired;
+		} else if (delta >= HORIZON) {
+			bucket = overflow;
+		} else {
+			int level = 0;
+			while (delta >= 1L << (SLOT_BITS * (level + 1))) {
+				level++;
+			}
+			bucket = bucket(level, (int) ((timeout.tick >>> (SLOT_BITS * level)) & SLOT_MASK));
+		}
+		timeout.bucket = bucket;
+		bucket.add(loanId);
+		timeouts.put(loanId, timeout);
+	}
+	
+	/***
+	 * Quando um nível dá a volta, a posição corrente do nível de cima desce para os níveis de baixo.
+	 */
+	private void cascade() {
+		for (int level = 1; level < LEVELS; level++) {
+			if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+				return;
+			}
+			int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+			Set<Long> bucket = wheel[level][slot];
+			if (bucket != null && !bucket.isEmpty()) {
+				wheel[level][slot] = null;
+				for (Long loanId : bucket) {
+					place(loanId, timeouts.get(loanId));
+				}
+			}
+		}
+		if ((currentTick & (HORIZON - 1)) == 0 && !overflow.isEmpty()) {
+			List<Long> pending = new ArrayList<>(overflow);
+			overflow.clear();
+			for (Long loanId : pending) {
+				place(loanId, timeouts.get(loanId));
+			}
+		}
+	}
+	
+	private Set<Long> bucket(int level, int slot) {
+		Set<Long> bucket = wheel[level][slot];
+		if (bucket == null) {
+			bucket = new HashSet<>();
+			wheel[level][slot] = bucket;
+		}
+		return bucket;
+	}
+	
+	private void drain(Set<Long> bucket, List<Long> due) {
+		for (Long loanId : bucket) {
+			timeouts.remove(loanId);
+			due.add(loanId);
+		}
+		bucket.clear();
+	}
+	
+	private long tick(LocalDateTime dateTime) {
+		return dateTime.atZone(zone).toInstant().toEpochMilli() / TICK_MILLIS;
+	}
+}
@@ -0,0 +1,278 @@
+package com.example.libraryapi.mail;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.example.libraryapi.model.OutboxMail;
+import com.example.libraryapi.model.OutboxMail.Status;
+import com.example.libraryapi.repository.OutboxMailRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j;
+
+/***
+ * Drena a outbox de emails com um pool de workers. Cada worker entrega um lote de até
+ * {@code batch-size} emails numa única conexão SMTP. Os emails de cada rodada são reservados
+ * por um prazo (lease) num único UPDATE antes do envio, então várias instâncias podem drenar a
+ * mesma tabela; se o worker cair no meio do envio, o email volta a ficar disponível quando o
+ * prazo vence. O worker renova a reserva logo antes de enviar e só grava o resultado dos emails
+ * que ainda são dele, para não sobrescrever o de quem os reservou de novo.
+ * 
+ * Falhas são tentadas de novo com espera exponencial até {@code max-attempts}; depois disso
+ * o email fica como DEAD, com o último erro, para análise manual.
+ */
+@Component
+@Log4j
+public class MailOutboxDispatcher {
+	
+	private static final Collection<Status> CLAIMABLE = Arrays.asList(Status.PENDING, Status.SENDING);
+	
+	private final OutboxMailRepository repository;
+	private final JavaMailSender javaMailSender;
+	private final Counter sentCounter;
+	private final Counter retryCounter;
+	private final Counter deadCounter;
+	
+	@Value("${application.mail.default-remetent}")
+	private String remetent;
+	
+	@Value("${application.mail.outbox.workers:4}")
+	private int workers;
+	
+	@Value("${application.mail.outbox.max-in-flight:16}")
+	private int maxInFlight;
+	
+	@Value("${application.mail.outbox.batch-size:20}")
+	private int batchSize;
+	
+	@Value("${application.mail.outbox.max-attempts:5}")
+	private int maxAttempts;
+	
+	@Value("${application.mail.outbox.backoff-ms:30000}")
+	private long backoffMs;
+	
+	@Value("${application.mail.outbox.max-backoff-ms:3600000}")
+	private long maxBackoffMs;
+	
+	@Value("${application.mail.outbox.lease-ms:60000}")
+	private long leaseMs;
+	
+	private ExecutorService executor;
+	private Semaphore inFlight;
+	
+	public MailOutboxDispatcher(OutboxMailRepository repository, JavaMailSender javaMailSender, MeterRegistry meterRegistry) {
+		this.repository = repository;
+		this.javaMailSender = javaMailSender;
+		this.sentCounter = outcome(meterRegistry, "sent");
+		this.retryCounter = outcome(meterRegistry, "retry");
+		this.deadCounter = outcome(meterRegistry, "dead");
+	}
+	
+	private static Counter outcome(MeterRegistry meterRegistry, String outcome) {
+		return Counter.builder("library.mail.outbox.deliveries")
+				.description("Tentativas de entrega da outbox de emails")
+				.tag("outcome", outcome)
+				.register(meterRegistry);
+	}
+	
+	@PostConstruct
+	public void start() {
+		executor = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("mail-outbox-"));
+		inFlight = new Semaphore(maxInFlight);
+	}
+	
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+	
+	
+	/***
+	 * Reserva os emails vencidos até o limite de envios simultâneos e os entrega aos workers
+	 * em lotes. Retorna quantos foram reservados nesta rodada.
+	 */
+	@Scheduled(initialDelayString = "${application.mail.outbox.poll-interval-ms:500}",
+			fixedDelayString = "${application.mail.outbox.poll-interval-ms:500}")
+	public int dispatch() {
+		int free = inFlight.availablePermits();
+		if (free == 0) {
+			return 0;
+		}
+		
+		LocalDateTime now = LocalDateTime.now();
+		List<Long> dueIds = repository.findDueIds(CLAIMABLE, now, PageRequest.of(0, free));
+		if (dueIds.isEmpty() || !inFlight.tryAcquire(dueIds.size())) {
+			return 0;
+		}
+		
+		String lease = UUID.randomUUID().toString();
+		List<Long> claimed = dueIds;
+		int count = repository.claim(dueIds, Status.SENDING, CLAIMABLE, lease, now, now.plus(leaseMs, ChronoUnit.MILLIS));
+		if (count < dueIds.size()) {
+			Set<Long> leased = count == 0 ? Collections.emptySet() : repository.findLeasedIds(dueIds, lease);
+			claimed = new ArrayList<>(leased.size());
+			for (Long id : dueIds) {
+				if (leased.contains(id)) {
+					claimed.add(id);
+				}
+			}
+			inFlight.release(dueIds.size() - claimed.size());
+		}
+		
+		for (int from = 0; from < claimed.size(); from += batchSize) {
+			submit(new ArrayList<>(claimed.subList(from, Math.min(claimed.size(), from + batchSize))), lease);
+		}
+		return claimed.size();
+	}
+	
+	private void submit(List<Long> batch, String lease) {
+		executor.execute(() -> {
+			try {
+				deliver(batch, lease);
+			} catch (RuntimeException e) {
+				log.error("Falha ao gravar o resultado da entrega; os emails voltam para a fila quando a reserva vencer", e);
+			} finally {
+				inFlight.release(batch.size());
+			}
+		});
+	}
+	
+	public boolean isIdle() {
+		return inFlight.availablePermits() == maxInFlight;
+	}
+	
+	
+	/***
+	 * Monta as mensagens do lote e envia todas de uma vez, numa só conexão. Endereço inválido
+	 * ou recusado falha só o próprio email; falha de conexão falha o lote inteiro. Emails cuja
+	 * reserva venceu na fila e foi tomada por outro worker ficam de fora.
+	 */
+	private void deliver(List<Long> ids, String lease) {
+		if (repository.renew(ids, lease, LocalDateTime.now().plus(leaseMs, ChronoUnit.MILLIS)) == 0) {
+			return;
+		}
+		List<OutboxMail> mails = repository.findAllById(ids).stream()
+				.filter(mail -> lease.equals(mail.getLease()))
+				.collect(Collectors.toList());
+		Map<MimeMessage, OutboxMail> messages = new LinkedHashMap<>();
+		for (OutboxMail mail : mails) {
+			mail.setAttempts(mail.getAttempts() + 1);
+			try {
+				messages.put(message(mail), mail);
+			} catch (MessagingException e) {
+				failed(mail, e);
+			}
+		}
+		
+		Map<Object, Exception> failures = send(messages.keySet());
+		for (Map.Entry<MimeMessage, OutboxMail> entry : messages.entrySet()) {
+			Exception failure = failures.get(entry.getKey());
+			if (failure == null) {
+				sent(entry.getValue());
+			} else {
+				failed(entry.getValue(), failure);
+			}
+		}
+		for (OutboxMail mail : mails) {
+			if (repository.complete(mail, lease) == 0) {
+				log.warn("Email " + mail.getId() + " foi reservado por outro worker durante o envio; resultado descartado");
+			}
+		}
+	}
+	
+	private Map<Object, Exception> send(Collection<MimeMessage> messages) {
+		if (messages.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		try {
+			javaMailSender.send(messages.toArray(new MimeMessage[0]));
+			return Collections.emptyMap();
+		} catch (MailSendException e) {
+			if (!e.getFailedMessages().isEmpty()) {
+				return e.getFailedMessages();
+			}
+			return allFailed(messages, e);
+		} catch (MailException e) {
+			return allFailed(messages, e);
+		}
+	}
+	
+	private static Map<Object, Exception> allFailed(Collection<MimeMessage> messages, Exception e) {
+		Map<Object, Exception> failures = new HashMap<>();
+		for (MimeMessage message : messages) {
+			failures.put(message, e);
+		}
+		return failures;
+	}
+	
+	private void sent(OutboxMail mail) {
+		mail.setStatus(Status.SENT);
+		mail.setSentAt(LocalDateTime.now());
+		mail.setLastError(null);
+		sentCounter.increment();
+	}
+	
+	private void failed(OutboxMail mail, Exception e) {
+		mail.setLastError(lastError(e));
+		if (mail.getAttempts() >= maxAttempts) {
+			mail.setStatus(Status.DEAD);
+			deadCounter.increment();
+			log.error("Email " + mail.getId() + " descartado após " + mail.getAttempts() + " tentativas", e);
+			return;
+		}
+		
+		long backoff = Math.min(maxBackoffMs, backoffMs << Math.min(mail.getAttempts() - 1, 20));
+		mail.setStatus(Status.PENDING);
+		mail.setNextAttemptAt(LocalDateTime.now().plus(backoff, ChronoUnit.MILLIS));
+		retryCounter.increment();
+		log.warn("Falha no envio do email " + mail.getId() + "; nova tentativa em " + backoff + " ms: " + e.getMessage());
+	}
+	
+	private MimeMessage message(OutboxMail mail) throws MessagingException {
+		MimeMessage mimeMessage = javaMailSender.createMimeMessage();
+		MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, StandardCharsets.UTF_8.name());
+		helper.setFrom(remetent);
+		helper.setTo(mail.getRecipient());
+		helper.setSubject(mail.getSubject());
+		helper.setText(mail.getText());
+		return mimeMessage;
+	}
+	
+	private static String lastError(Exception e) {
+		String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+		return error.length() > 1000 ? error.substring(0, 1000) : error;
+	}
+}
@@ -0,0 +1,23 @@
+package com.example.libraryapi.mapper;
+
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+
+import com.example.libraryapi.dto.BookDTO;
+import com.example.libraryapi.model.Book;
+
+/***
+ * Conversão Book <-> BookDTO gerada em tempo de compilação (MapStruct).
+ */
+@Mapper
+public interface BookMapper {
+
+	BookDTO toDto(Book book);
+
+	@Mapping(target = "loans", ignore = true)
+	@Mapping(target = "activeLoanId", ignore = true)
+	@Mapping(target = "totalLoans", ignore = true)
+	@Mapping(target = "lastLoanDate", ignore = true)
+	@Mapping(target = "version", ignore = true)
+	Book toEntity(BookDTO dto);
+}
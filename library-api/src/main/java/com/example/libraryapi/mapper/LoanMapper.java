@@ -0,0 +1,28 @@
+package com.example.libraryapi.mapper;
+
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+
+import com.example.libraryapi.dto.LoanDTO;
+import com.example.libraryapi.model.Loan;
+
+/***
+ * Conversão Loan -> LoanDTO gerada em tempo de compilação (MapStruct).
+ * 
+ * O isbn só é preenchido em {@link #toDtoWithIsbn(Loan)}, mantendo a mesma saída
+ * que as listagens de empréstimo sempre tiveram.
+ * 
+ * As listagens saem direto da consulta como {@link LoanDTO}, por isso não há bean: o mapper é
+ * a referência dessa saída no MapperTest e no MappingBenchmark, via {@code Mappers.getMapper}.
+ */
+@Mapper(uses = BookMapper.class)
+public interface LoanMapper {
+
+	@Mapping(target = "email", source = "customerEmail")
+	@Mapping(target = "isbn", ignore = true)
+	LoanDTO toDto(Loan loan);
+
+	@Mapping(target = "email", source = "customerEmail")
+	@Mapping(target = "isbn", source = "book.isbn")
+	LoanDTO toDtoWithIsbn(Loan loan);
+}
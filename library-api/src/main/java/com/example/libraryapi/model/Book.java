@@ -1,30 +1,60 @@
 package com.example.libraryapi.model;
 
+import java.time.LocalDate;
 import java.util.List;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.Version;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
-import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
-@Data
-@Builder
+/***
+ * Livro do acervo. Igualdade e toString usam só as colunas do livro: a coleção de empréstimos
+ * nunca é carregada por logar o livro ou colocá-lo em um Set.
+ * 
+ * Fica no cache de segundo nível: o catálogo é muito lido e pouco alterado. Os contadores de
+ * empréstimo são alterados por UPDATE direto e podem estar defasados na cópia em cache; quem
+ * precisa deles lê pela consulta de estatísticas.
+ * 
+ * O UPDATE leva só as colunas alteradas (a edição do cadastro muda título e autor).
+ */
+@Setter
+@Getter
+@ToString(exclude = "loans")
+@Builder(toBuilder = true)
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
 @Table
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@DynamicUpdate
 public class Book {
 	
+	/***
+	 * Sequence em blocos (otimizador pooled) em vez de IDENTITY: o Hibernate conhece o id antes
+	 * do INSERT e consegue agrupar os inserts em lotes JDBC.
+	 */
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_seq")
+	@SequenceGenerator(name = "book_seq", sequenceName = "book_seq", allocationSize = 50)
 	private Long id;
 	
 	@Column
@@ -33,9 +63,56 @@ public class Book {
 	@Column
 	private String author;
 	
-	@Column
+	@Column(unique = true)
 	private String isbn;
 	
+	/***
+	 * Contadores de empréstimo mantidos pelo {@code LoanServiceImpl} com UPDATEs pontuais na mesma
+	 * transação do empréstimo; não são atualizáveis pelo save do livro, para que a edição do
+	 * cadastro não sobrescreva um empréstimo concorrente.
+	 */
+	@Column(name = "active_loan_id", updatable = false)
+	private Long activeLoanId;
+	
+	@Column(name = "total_loans", nullable = false, updatable = false)
+	private long totalLoans;
+	
+	@Column(name = "last_loan_date", updatable = false)
+	private LocalDate lastLoanDate;
+	
+	/***
+	 * Versão para o controle otimista de concorrência e o ETag do livro. Só muda com o cadastro:
+	 * os contadores de empréstimo não a incrementam.
+	 */
+	@Version
+	private Long version;
+	
 	@OneToMany( mappedBy = "book")
 	private List<Loan> loans;
+	
+	/***
+	 * Mesmo id ou, antes de gravado, mesmo isbn.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof Book)) {
+			return false;
+		}
+		Book book = (Book) other;
+		if (id != null || book.getId() != null) {
+			return id != null && id.equals(book.getId());
+		}
+		return isbn != null && isbn.equals(book.getIsbn());
+	}
+	
+	/***
+	 * Constante, para não mudar quando o livro recebe o id ao ser gravado.
+	 */
+	@Override
+	public int hashCode() {
+		return Book.class.hashCode();
+	}
 }
@@ -0,0 +1,62 @@
+package com.example.libraryapi.model;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/***
+ * Invalidação de cache publicada por um nó, lida pelos outros nós no banco compartilhado. Gravada
+ * e lida por JDBC no {@link com.example.libraryapi.cache.JdbcCacheInvalidationChannel}; a entidade
+ * existe para a tabela entrar no schema.
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "cache_invalidation", indexes = @Index(name = "idx_cache_invalidation_created", columnList = "created_at"))
+public class CacheInvalidationEvent {
+	
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+	
+	/*** canal que publicou; ele mesmo já entregou a mensagem aos seus assinantes */
+	@Column(nullable = false, length = 36)
+	private String node;
+	
+	/*** quem publicou dentro do nó (fábrica de regiões, gerenciador de cache, índice) */
+	@Column(length = 36)
+	private String origin;
+	
+	@Column(nullable = false)
+	private String region;
+	
+	/*** long, string ou long[] (ids separados por vírgula); nulo para a região inteira */
+	@Column(name = "key_type", length = 10)
+	private String keyType;
+	
+	@Column(name = "cache_key", length = 4000)
+	private String cacheKey;
+	
+	/*** valor da entrada quando ela é substituída em vez de removida (timestamps das tabelas) */
+	@Column(name = "cache_value")
+	private Long cacheValue;
+	
+	/*** hora do banco, para que os nós não dependam dos próprios relógios */
+	@Column(name = "created_at", nullable = false)
+	private LocalDateTime createdAt;
+}
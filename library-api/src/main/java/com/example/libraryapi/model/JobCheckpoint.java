@@ -0,0 +1,49 @@
+package com.example.libraryapi.model;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/***
+ * Execução de uma rotina em lotes (ou de uma partição dela): enquanto {@code running} estiver
+ * marcado a execução de {@code runDate} não terminou. O nó {@code owner} detém a partição até
+ * {@code leaseUntil} e renova o lease a cada lote; vencido o lease, outro nó assume.
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table
+public class JobCheckpoint {
+	
+	@Id
+	@Column(length = 50)
+	private String name;
+	
+	@Column
+	private boolean running;
+	
+	@Column(name = "run_date")
+	private LocalDate runDate;
+	
+	@Column(length = 100)
+	private String owner;
+	
+	@Column(name = "lease_until")
+	private LocalDateTime leaseUntil;
+	
+	@Column(name = "updated_at")
+	private LocalDateTime updatedAt;
+}
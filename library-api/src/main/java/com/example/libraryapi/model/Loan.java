@@ -1,15 +1,23 @@
 package com.example.libraryapi.model;
 
+import java.sql.SQLException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Locale;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -28,9 +36,16 @@ import lombok.Setter;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table
+@Table(indexes = @Index(name = "idx_loan_to_notify", columnList = "returned, notified_at, due_date"),
+		uniqueConstraints = @UniqueConstraint(name = Loan.OPEN_BOOK_CONSTRAINT, columnNames = "open_book_id"))
 public class Loan {
 	
+	/***
+	 * Nome da constraint unique de {@link #openBookId}, para reconhecer a recusa de um segundo
+	 * empréstimo aberto entre as demais violações de integridade.
+	 */
+	public static final String OPEN_BOOK_CONSTRAINT = "uk_loan_open_book";
+	
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	private Long id;
@@ -41,6 +56,13 @@ public class Loan {
 	@Column(name = "customer_email")
 	private String customerEmail;
 	
+	/***
+	 * Hash do email do cliente: divide a varredura de atrasados em partições disjuntas entre os nós,
+	 * mantendo todos os empréstimos de um cliente na mesma partição.
+	 */
+	@Column(name = "customer_hash")
+	private Integer customerHash;
+	
 	@JoinColumn(name = "id_book")
 	@ManyToOne
 	private Book book;
@@ -48,6 +70,64 @@ public class Loan {
 	@Column
 	private LocalDate loanDate;
 	
+	/***
+	 * Prazo de devolução (dia e hora): a partir deste momento o empréstimo está atrasado.
+	 */
+	@Column(name = "due_date")
+	private LocalDateTime dueDate;
+	
+	/***
+	 * Quando o cliente foi avisado do atraso; a rotina noturna só olha os ainda não avisados.
+	 */
+	@Column(name = "notified_at")
+	private LocalDateTime notifiedAt;
+	
 	@Column
 	private boolean returned;
+	
+	/***
+	 * Id do livro enquanto o empréstimo está em aberto e nulo após a devolução: a constraint
+	 * unique garante no banco um único empréstimo aberto por livro.
+	 */
+	@Column(name = "open_book_id")
+	private Long openBookId;
+	
+	/***
+	 * Versão para o controle otimista de concorrência e o ETag do empréstimo. A marcação de
+	 * aviso da rotina noturna não a incrementa.
+	 */
+	@Version
+	private Long version;
+	
+	@PrePersist
+	@PreUpdate
+	void hashCustomer() {
+		customerHash = customerHash(customerEmail);
+	}
+	
+	public static Integer customerHash(String customerEmail) {
+		return customerEmail == null ? null : customerEmail.hashCode() & Integer.MAX_VALUE;
+	}
+	
+	/***
+	 * Se a falha veio da constraint {@link #OPEN_BOOK_CONSTRAINT}: procura na cadeia de causas
+	 * (e nas próximas exceções de um lote JDBC) uma violação de integridade (SQLState 23xxx) que
+	 * cite a constraint. Outras violações, como coluna nula ou grande demais, não contam.
+	 */
+	public static boolean isOpenBookConflict(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLException) {
+				for (SQLException e = (SQLException) cause; e != null; e = e.getNextException()) {
+					if (e.getSQLState() != null && e.getSQLState().startsWith("23") && e.getMessage() != null
+							&& e.getMessage().toLowerCase(Locale.ROOT).contains(OPEN_BOOK_CONSTRAINT)) {
+						return true;
+					}
+				}
+			}
+			if (cause.getCause() == cause) {
+				break;
+			}
+		}
+		return false;
+	}
 }
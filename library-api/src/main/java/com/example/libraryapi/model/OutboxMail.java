@@ -0,0 +1,86 @@
+package com.example.libraryapi.model;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/***
+ * Email aguardando entrega, um por destinatário. A fila é drenada pelo
+ * {@link com.example.libraryapi.mail.MailOutboxDispatcher}.
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "outbox_mail", indexes = @Index(name = "idx_outbox_mail_due", columnList = "status, next_attempt_at"))
+public class OutboxMail {
+	
+	public enum Status {
+		PENDING, SENDING, SENT, DEAD
+	}
+	
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+	
+	/***
+	 * Mesmo email para o mesmo destinatário no mesmo dia gera a mesma chave: é enfileirado uma vez só.
+	 */
+	@Column(name = "dedup_key", unique = true, nullable = false, length = 32)
+	private String dedupKey;
+	
+	@Column(nullable = false)
+	private String recipient;
+	
+	@Column
+	private String subject;
+	
+	@Column(length = 2000)
+	private String text;
+	
+	@Enumerated(EnumType.STRING)
+	@Column(nullable = false, length = 10)
+	private Status status;
+	
+	@Column
+	private int attempts;
+	
+	/***
+	 * Pendente: quando pode ser tentado. Enviando: fim do prazo do worker que o reservou;
+	 * depois disso outro worker pode reservá-lo de novo.
+	 */
+	@Column(name = "next_attempt_at")
+	private LocalDateTime nextAttemptAt;
+	
+	/***
+	 * Rodada de reserva que detém o email enquanto ele está em SENDING. Só quem tem a reserva
+	 * grava o resultado: se ela venceu e outro worker reservou o email de novo, o primeiro perde a escrita.
+	 */
+	@Column(name = "lease_token", length = 36)
+	private String lease;
+	
+	@Column(name = "last_error", length = 1000)
+	private String lastError;
+	
+	@Column(name = "created_at")
+	private LocalDateTime createdAt;
+	
+	@Column(name = "sent_at")
+	private LocalDateTime sentAt;
+}
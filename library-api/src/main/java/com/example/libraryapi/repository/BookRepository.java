@@ -1,15 +1,66 @@
 package com.example.libraryapi.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
+
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import com.example.libraryapi.config.CacheConfig;
+import com.example.libraryapi.dto.BookDTO;
+import com.example.libraryapi.dto.BookStatsDTO;
 import com.example.libraryapi.model.Book;
 
 @Repository
-public interface BookRepository extends JpaRepository<Book, Long> {
+public interface BookRepository extends JpaRepository<Book, Long>, JpaSpecificationExecutor<Book> {
+	
+	/***
+	 * Linhas buscadas por ida ao banco nos cursores de exportação.
+	 */
+	String EXPORT_FETCH_SIZE = "1000";
+	
+	@Cacheable(CacheConfig.ISBN_EXISTS)
 	boolean existsByIsbn(String isbn);
 
+	/***
+	 * No cache de consultas do Hibernate: invalidado a cada escrita na tabela book, inclusive
+	 * pelas outras réplicas.
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.CACHEABLE, value = "true"))
 	Optional<Book> findByIsbn(String isbn);
+	
+	List<Book> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+	
+	@Query("select max(b.id) from Book b")
+	Long findMaxId();
+	
+	List<Book> findByIsbnIn(Collection<String> isbns);
+	
+	@Query("select b.isbn from Book b where b.isbn in :isbns")
+	Set<String> findExistingIsbns(@Param("isbns") Collection<String> isbns);
+	
+	/***
+	 * Cursor só de avanço para a exportação; deve ser consumido dentro de uma transação e fechado.
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.FETCH_SIZE, value = EXPORT_FETCH_SIZE))
+	@Query("select new com.example.libraryapi.dto.BookDTO(b.id, b.tittle, b.author, b.isbn) from Book b order by b.id")
+	Stream<BookDTO> streamAllForExport();
+	
+	/***
+	 * Estatísticas de empréstimo lidas dos contadores mantidos na própria linha do livro.
+	 */
+	@Query("select new com.example.libraryapi.dto.BookStatsDTO(b.id, b.isbn, b.activeLoanId, b.totalLoans, b.lastLoanDate) from Book b where b.id = :id")
+	Optional<BookStatsDTO> findStatsById(@Param("id") Long id);
 }
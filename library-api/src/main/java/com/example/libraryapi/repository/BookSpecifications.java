@@ -0,0 +1,29 @@
+package com.example.libraryapi.repository;
+
+import java.util.Collection;
+
+import javax.persistence.criteria.Predicate;
+
+import org.springframework.data.domain.Example;
+import org.springframework.data.jpa.convert.QueryByExamplePredicateBuilder;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.EscapeCharacter;
+
+import com.example.libraryapi.model.Book;
+
+public final class BookSpecifications {
+	
+	private BookSpecifications() {
+	}
+	
+	/***
+	 * Mesmo predicado de {@code findAll(Example)}, restrito aos ids informados.
+	 */
+	public static Specification<Book> matchingWithIds(Example<Book> example, Collection<Long> ids) {
+		return (root, query, cb) -> {
+			Predicate inIds = root.get("id").in(ids);
+			Predicate matching = QueryByExamplePredicateBuilder.getPredicate(root, cb, example, EscapeCharacter.DEFAULT);
+			return matching == null ? inIds : cb.and(matching, inIds);
+		};
+	}
+}
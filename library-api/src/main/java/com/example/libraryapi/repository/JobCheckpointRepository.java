@@ -0,0 +1,51 @@
+package com.example.libraryapi.repository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.libraryapi.model.JobCheckpoint;
+
+@Repository
+public interface JobCheckpointRepository extends JpaRepository<JobCheckpoint, String> {
+	
+	/***
+	 * Abre a execução do dia nas partições que ainda não a abriram; idempotente entre os nós.
+	 */
+	@Transactional
+	@Modifying
+	@Query("update JobCheckpoint c set c.running = true, c.runDate = :runDate, c.owner = null, c.leaseUntil = null, " +
+			"c.updatedAt = :now where c.name in :names and (c.runDate is null or c.runDate < :runDate)")
+	int startRun(@Param("names") Collection<String> names, @Param("runDate") LocalDate runDate, @Param("now") LocalDateTime now);
+	
+	/***
+	 * Partições com execução em aberto que o nó pode assumir: livres, com lease vencido ou já dele.
+	 */
+	@Query("select c.name from JobCheckpoint c where c.name in :names and c.running = true " +
+			"and (c.owner is null or c.owner = :owner or c.leaseUntil < :now)")
+	List<String> findClaimable(@Param("names") Collection<String> names, @Param("owner") String owner, @Param("now") LocalDateTime now);
+	
+	/***
+	 * Assume ou renova o lease da partição; devolve 0 se outro nó a detém ou se ela já terminou.
+	 */
+	@Transactional
+	@Modifying
+	@Query("update JobCheckpoint c set c.owner = :owner, c.leaseUntil = :leaseUntil, c.updatedAt = :now " +
+			"where c.name = :name and c.running = true and (c.owner is null or c.owner = :owner or c.leaseUntil < :now)")
+	int claim(@Param("name") String name, @Param("owner") String owner, @Param("now") LocalDateTime now,
+			@Param("leaseUntil") LocalDateTime leaseUntil);
+	
+	@Transactional
+	@Modifying
+	@Query("update JobCheckpoint c set c.running = false, c.owner = null, c.leaseUntil = null, c.updatedAt = :now " +
+			"where c.name = :name and c.owner = :owner")
+	int complete(@Param("name") String name, @Param("owner") String owner, @Param("now") LocalDateTime now);
+}
@@ -1,31 +1,98 @@
 package com.example.libraryapi.repository;
 
-import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.example.libraryapi.dto.LateLoanDTO;
+import com.example.libraryapi.dto.LoanDTO;
+import com.example.libraryapi.dto.LoanDueDTO;
+import com.example.libraryapi.dto.LoanExportDTO;
 import com.example.libraryapi.model.Book;
 import com.example.libraryapi.model.Loan;
 
 @Repository
-public interface LoanRepository extends JpaRepository<Loan, Long> {
+public interface LoanRepository extends JpaRepository<Loan, Long>, LoanRepositoryCustom {
 	
 	@Query("select case when (count(l.id) > 0) then true else false end " +
     " from Loan l where l.book = :book and (l.returned is null or l.returned is false) ")
 	boolean existsByBookAndNotReturned(@Param("book") Book book);
 	
-	@Query(value = "select l from Loan as l join l.book as book where book.isbn = :isbn or l.customer = :customer")
-	Page<Loan> findByBookIsbnOrCustomer(@Param("isbn") String isbn,@Param("customer")  String customer, Pageable pageResquest);
-
-	Page<Loan> findByBook(Book book, Pageable pageable);
+	@Query("select l.book.id from Loan l where l.returned is null or l.returned is false ")
+	List<Long> findBookIdsWithOpenLoans();
+	
+	@Query("select l.openBookId from Loan l where l.openBookId in :bookIds")
+	Set<Long> findOpenBookIds(@Param("bookIds") Collection<Long> bookIds);
+	
+	@Query("select l from Loan l join fetch l.book where l.id in :ids")
+	List<Loan> findAllWithBookByIdIn(@Param("ids") Collection<Long> ids);
+	
+	/***
+	 * Listagem de empréstimos já como {@link LoanDTO}: uma consulta com join no livro (mais o count da página),
+	 * sem carregar as entidades nem buscar o livro de cada empréstimo.
+	 */
+	@Query(value = "select new com.example.libraryapi.dto.LoanDTO(l.id, b.isbn, l.customer, l.customerEmail, b.id, b.tittle, b.author, b.isbn) " +
+			"from Loan as l join l.book as b where b.isbn = :isbn or l.customer = :customer",
+			countQuery = "select count(l) from Loan as l join l.book as b where b.isbn = :isbn or l.customer = :customer")
+	Page<LoanDTO> findByBookIsbnOrCustomer(@Param("isbn") String isbn, @Param("customer") String customer, Pageable pageable);
+	
+	@Query("select new com.example.libraryapi.dto.LoanDTO(l.id, b.isbn, l.customer, l.customerEmail, b.id, b.tittle, b.author, b.isbn) " +
+			"from Loan as l join l.book as b where (b.isbn = :isbn or l.customer = :customer) and l.id > :after order by l.id")
+	List<LoanDTO> findByBookIsbnOrCustomerAfter(@Param("isbn") String isbn, @Param("customer") String customer, @Param("after") Long after, Pageable pageable);
+	
+	@Query(value = "select new com.example.libraryapi.dto.LoanDTO(l.id, cast(null as string), l.customer, l.customerEmail, b.id, b.tittle, b.author, b.isbn) " +
+			"from Loan as l join l.book as b where b.id = :bookId",
+			countQuery = "select count(l) from Loan as l where l.book.id = :bookId")
+	Page<LoanDTO> findByBookId(@Param("bookId") Long bookId, Pageable pageable);
+	
+	/***
+	 * Cursor só de avanço para a exportação; deve ser consumido dentro de uma transação e fechado.
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.FETCH_SIZE, value = BookRepository.EXPORT_FETCH_SIZE))
+	@Query("select new com.example.libraryapi.dto.LoanExportDTO(l.id, b.isbn, l.customer, l.customerEmail, l.loanDate, l.returned) " +
+			"from Loan l join l.book b order by l.id")
+	Stream<LoanExportDTO> streamAllForExport();
+	
+	/***
+	 * Clientes a avisar de uma das {@code partitions} partições de clientes (pelo hash do email).
+	 */
+	@Query("select distinct l.customerEmail from Loan as l where l.returned = false and l.notifiedAt is null " +
+			"and l.dueDate <= :now and l.customerEmail is not null and mod(l.customerHash, :partitions) = :partition " +
+			"order by l.customerEmail")
+	List<String> findCustomerEmailsToNotify(@Param("now") LocalDateTime now, @Param("partition") int partition,
+			@Param("partitions") int partitions, Pageable pageable);
+	
+	@Query("select new com.example.libraryapi.dto.LateLoanDTO(l.id, l.customer, l.customerEmail, b.tittle, l.dueDate) " +
+			"from Loan as l join l.book as b where l.returned = false and l.notifiedAt is null and l.dueDate <= :now " +
+			"and l.customerEmail in :emails order by l.customerEmail, l.id")
+	List<LateLoanDTO> findLoansToNotify(@Param("now") LocalDateTime now, @Param("emails") Collection<String> emails);
+	
+	@Query("select new com.example.libraryapi.dto.LateLoanDTO(l.id, l.customer, l.customerEmail, b.tittle, l.dueDate) " +
+			"from Loan as l join l.book as b where l.id in :ids and l.returned = false and l.notifiedAt is null " +
+			"and l.customerEmail is not null order by l.customerEmail, l.id")
+	List<LateLoanDTO> findLoansToNotifyByIdIn(@Param("ids") Collection<Long> ids);
+	
+	@Query("select new com.example.libraryapi.dto.LoanDueDTO(l.id, l.dueDate) from Loan as l " +
+			"where l.returned = false and l.notifiedAt is null and l.dueDate is not null")
+	List<LoanDueDTO> findDueDatesToNotify();
 	
-	@Query("select l from Loan as l where l.loanDate <= :threeDaysAgo and (l.returned is null or l.returned is false) ")
-	List<Loan> findByLoanDateLessThanAndNotReturned(@Param("threeDaysAgo") LocalDate threeDaysAgo);
+	@Transactional
+	@Modifying
+	@Query("update Loan l set l.notifiedAt = :notifiedAt where l.id in :ids and l.notifiedAt is null")
+	int markNotified(@Param("ids") Collection<Long> ids, @Param("notifiedAt") LocalDateTime notifiedAt);
 	
 }
@@ -0,0 +1,48 @@
+package com.example.libraryapi.repository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import com.example.libraryapi.model.Loan;
+
+public interface LoanRepositoryCustom {
+	
+	/***
+	 * Registra o empréstimo do livro do isbn em um único INSERT ... SELECT.
+	 * 
+	 * @return o empréstimo criado (o livro vem apenas com o id), ou {@code null} se não existe
+	 * livro com o isbn
+	 * @throws org.springframework.dao.DataIntegrityViolationException se o livro já tem
+	 * empréstimo em aberto ({@link Loan#isOpenBookConflict(Throwable)}) ou o banco recusa a linha
+	 */
+	Loan insertOpenLoan(String isbn, String customer, String customerEmail, LocalDate loanDate, LocalDateTime dueDate);
+	
+	/***
+	 * Grava os empréstimos em aberto em um único lote JDBC e preenche o id de cada um.
+	 * 
+	 * @throws org.springframework.dao.DataIntegrityViolationException se algum livro já tem
+	 * empréstimo em aberto ({@link Loan#isOpenBookConflict(Throwable)}) ou o banco recusa uma linha
+	 */
+	void insertOpenLoans(List<Loan> loans);
+	
+	/***
+	 * Devolve o empréstimo em um único UPDATE condicionado a ainda estar em aberto (e, se
+	 * informada, a estar na versão esperada).
+	 * 
+	 * @return o empréstimo devolvido (só id, id do livro e nova versão), ou {@code null} se nenhuma
+	 * linha foi alterada: inexistente, já devolvido ou em outra versão
+	 */
+	Loan returnLoan(Long id, Long expectedVersion);
+	
+	/***
+	 * Soma os empréstimos gravados aos contadores dos livros (total, data do último e, se em
+	 * aberto, o empréstimo ativo) em um lote de UPDATEs atômicos.
+	 */
+	void recordCheckouts(List<Loan> loans);
+	
+	/***
+	 * Acerta o empréstimo ativo dos livros após devolução (ou reabertura) dos empréstimos, em lote.
+	 */
+	void recordReturns(List<Loan> loans);
+}
@@ -0,0 +1,168 @@
+package com.example.libraryapi.repository;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.model.Loan;
+
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class LoanRepositoryImpl implements LoanRepositoryCustom {
+	
+	private static final String INSERT_OPEN_LOAN =
+			"insert into loan (customer, customer_email, customer_hash, id_book, loan_date, due_date, returned, open_book_id, version) " +
+			"select ?, ?, ?, b.id, ?, ?, false, b.id, 0 from book b where b.isbn = ?";
+	
+	private static final String INSERT_LOAN =
+			"insert into loan (customer, customer_email, customer_hash, id_book, loan_date, due_date, returned, open_book_id, version) " +
+			"values (?, ?, ?, ?, ?, ?, false, ?, 0)";
+	
+	private static final String RETURN_LOAN =
+			"update loan set returned = true, open_book_id = null, version = version + 1 where id = ? and returned = false";
+	
+	private static final String RETURN_LOAN_AT_VERSION = RETURN_LOAN + " and version = ?";
+	
+	private static final String RECORD_CHECKOUT =
+			"update book set total_loans = total_loans + 1, last_loan_date = greatest(coalesce(last_loan_date, ?), ?), " +
+			"active_loan_id = coalesce(?, active_loan_id) where id = ?";
+	
+	private static final String RECORD_RETURN =
+			"update book set active_loan_id = ? where id = ? and (active_loan_id is null or active_loan_id = ?)";
+	
+	private final JdbcTemplate jdbcTemplate;
+	
+	@Override
+	public Loan insertOpenLoan(String isbn, String customer, String customerEmail, LocalDate loanDate, LocalDateTime dueDate) {
+		KeyHolder keyHolder = new GeneratedKeyHolder();
+		int inserted = jdbcTemplate.update(connection -> {
+			PreparedStatement ps = connection.prepareStatement(INSERT_OPEN_LOAN, new String[] { "id", "id_book" });
+			ps.setString(1, customer);
+			ps.setString(2, customerEmail);
+			ps.setObject(3, Loan.customerHash(customerEmail), Types.INTEGER);
+			ps.setDate(4, Date.valueOf(loanDate));
+			ps.setTimestamp(5, Timestamp.valueOf(dueDate));
+			ps.setString(6, isbn);
+			return ps;
+		}, keyHolder);
+		
+		if (inserted == 0) {
+			return null;
+		}
+		
+		Map<String, Object> keys = keyHolder.getKeys();
+		Long bookId = ((Number) keys.get("ID_BOOK")).longValue();
+		return Loan.builder()
+				.id(((Number) keys.get("ID")).longValue())
+				.book(Book.builder().id(bookId).isbn(isbn).build())
+				.customer(customer)
+				.customerEmail(customerEmail)
+				.customerHash(Loan.customerHash(customerEmail))
+				.loanDate(loanDate)
+				.dueDate(dueDate)
+				.openBookId(bookId)
+				.version(0L)
+				.build();
+	}
+	
+	@Override
+	public void insertOpenLoans(List<Loan> loans) {
+		if (loans.isEmpty()) {
+			return;
+		}
+		
+		jdbcTemplate.execute((Connection connection) -> {
+			try (PreparedStatement ps = connection.prepareStatement(INSERT_LOAN, new String[] { "id" })) {
+				for (Loan loan : loans) {
+					ps.setString(1, loan.getCustomer());
+					ps.setString(2, loan.getCustomerEmail());
+					ps.setObject(3, Loan.customerHash(loan.getCustomerEmail()), Types.INTEGER);
+					ps.setLong(4, loan.getBook().getId());
+					ps.setDate(5, Date.valueOf(loan.getLoanDate()));
+					ps.setTimestamp(6, Timestamp.valueOf(loan.getDueDate()));
+					ps.setLong(7, loan.getBook().getId());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				
+				try (ResultSet keys = ps.getGeneratedKeys()) {
+					for (Loan loan : loans) {
+						keys.next();
+						loan.setId(keys.getLong(1));
+						loan.setCustomerHash(Loan.customerHash(loan.getCustomerEmail()));
+						loan.setOpenBookId(loan.getBook().getId());
+						loan.setVersion(0L);
+					}
+				}
+			}
+			return null;
+		});
+	}
+	
+	@Override
+	public Loan returnLoan(Long id, Long expectedVersion) {
+		KeyHolder keyHolder = new GeneratedKeyHolder();
+		int updated = jdbcTemplate.update(connection -> {
+			PreparedStatement ps = connection.prepareStatement(expectedVersion == null ? RETURN_LOAN : RETURN_LOAN_AT_VERSION,
+					new String[] { "id_book", "version" });
+			ps.setLong(1, id);
+			if (expectedVersion != null) {
+				ps.setLong(2, expectedVersion);
+			}
+			return ps;
+		}, keyHolder);
+		
+		if (updated == 0) {
+			return null;
+		}
+		
+		Map<String, Object> keys = keyHolder.getKeys();
+		return Loan.builder()
+				.id(id)
+				.book(Book.builder().id(((Number) keys.get("ID_BOOK")).longValue()).build())
+				.returned(true)
+				.version(((Number) keys.get("VERSION")).longValue())
+				.build();
+	}
+	
+	@Override
+	public void recordCheckouts(List<Loan> loans) {
+		if (loans.isEmpty()) {
+			return;
+		}
+		
+		jdbcTemplate.batchUpdate(RECORD_CHECKOUT, loans, loans.size(), (ps, loan) -> {
+			Date loanDate = loan.getLoanDate() == null ? null : Date.valueOf(loan.getLoanDate());
+			ps.setDate(1, loanDate);
+			ps.setDate(2, loanDate);
+			ps.setObject(3, loan.isReturned() ? null : loan.getId(), Types.BIGINT);
+			ps.setLong(4, loan.getBook().getId());
+		});
+	}
+	
+	@Override
+	public void recordReturns(List<Loan> loans) {
+		if (loans.isEmpty()) {
+			return;
+		}
+		
+		jdbcTemplate.batchUpdate(RECORD_RETURN, loans, loans.size(), (ps, loan) -> {
+			ps.setObject(1, loan.isReturned() ? null : loan.getId(), Types.BIGINT);
+			ps.setLong(2, loan.getBook().getId());
+			ps.setLong(3, loan.getId());
+		});
+	}
+}
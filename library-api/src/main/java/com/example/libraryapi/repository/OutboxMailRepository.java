@@ -0,0 +1,62 @@
+package com.example.libraryapi.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.libraryapi.model.OutboxMail;
+import com.example.libraryapi.model.OutboxMail.Status;
+
+@Repository
+public interface OutboxMailRepository extends JpaRepository<OutboxMail, Long> {
+	
+	@Query("select o.dedupKey from OutboxMail o where o.dedupKey in :keys")
+	Set<String> findExistingDedupKeys(@Param("keys") Collection<String> keys);
+	
+	@Query("select o.id from OutboxMail o where o.status in :statuses and o.nextAttemptAt <= :now order by o.nextAttemptAt")
+	List<Long> findDueIds(@Param("statuses") Collection<Status> statuses, @Param("now") LocalDateTime now, Pageable pageable);
+	
+	/***
+	 * Reserva de uma vez, para a rodada {@code lease}, os emails ainda vencidos entre {@code ids}, até
+	 * {@code leaseUntil}. Retorna quantos foram reservados; os que outro worker levou antes ficam de fora.
+	 */
+	@Transactional
+	@Modifying
+	@Query("update OutboxMail o set o.status = :sending, o.lease = :lease, o.nextAttemptAt = :leaseUntil " +
+			"where o.id in :ids and o.status in :statuses and o.nextAttemptAt <= :now")
+	int claim(@Param("ids") Collection<Long> ids, @Param("sending") Status sending, @Param("statuses") Collection<Status> statuses,
+			@Param("lease") String lease, @Param("now") LocalDateTime now, @Param("leaseUntil") LocalDateTime leaseUntil);
+	
+	@Query("select o.id from OutboxMail o where o.id in :ids and o.lease = :lease")
+	Set<Long> findLeasedIds(@Param("ids") Collection<Long> ids, @Param("lease") String lease);
+	
+	/***
+	 * Estende o prazo da reserva dos emails que a rodada {@code lease} ainda detém.
+	 */
+	@Transactional
+	@Modifying
+	@Query("update OutboxMail o set o.nextAttemptAt = :leaseUntil where o.id in :ids and o.lease = :lease")
+	int renew(@Param("ids") Collection<Long> ids, @Param("lease") String lease, @Param("leaseUntil") LocalDateTime leaseUntil);
+	
+	/***
+	 * Grava o resultado da entrega e solta a reserva; retorna 0 se a rodada {@code lease} já não
+	 * detém o email (a reserva venceu e outro worker o reservou de novo).
+	 */
+	@Transactional
+	@Modifying
+	@Query("update OutboxMail o set o.status = :#{#mail.status}, o.attempts = :#{#mail.attempts}, " +
+			"o.nextAttemptAt = :#{#mail.nextAttemptAt}, o.lastError = :#{#mail.lastError}, o.sentAt = :#{#mail.sentAt}, " +
+			"o.lease = null where o.id = :#{#mail.id} and o.lease = :lease")
+	int complete(@Param("mail") OutboxMail mail, @Param("lease") String lease);
+	
+	long countByStatusIn(Collection<Status> statuses);
+}
@@ -0,0 +1,12 @@
+package com.example.libraryapi.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.http.MediaType;
+
+import com.example.libraryapi.dto.BookImportResultDTO;
+
+public interface BookImportService {
+	BookImportResultDTO importBooks(InputStream body, MediaType contentType) throws IOException;
+}
@@ -1,22 +1,37 @@
 package com.example.libraryapi.service;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import com.example.libraryapi.dto.BookStatsDTO;
 import com.example.libraryapi.model.Book;
 
 public interface BookService {
 	Book save(Book book);
+	
+	List<Book> saveAll(List<Book> books);
 
 	Optional<Book> getById(Long id);
 
+	List<Book> getByIds(Collection<Long> ids);
+
 	void delete(Book book);
 
 	Book update(Book book);
 
 	Page<Book> find(Book filter, Pageable pageRequest);
+	
+	List<Book> findAfter(Long afterId, int limit);
+	
+	Page<Book> search(String query, Pageable pageRequest);
 
 	Optional<Book> getBookByIsbn(String isbn);
+
+	List<Book> getByIsbns(Collection<String> isbns);
+
+	Optional<BookStatsDTO> getStats(Long id);
 }
@@ -1,7 +1,11 @@
 package com.example.libraryapi.service;
 
-import java.util.List;
+import java.util.Map;
 
 public interface EmailService {
-	void sendMails(String message, List<String> mailsList);
+	
+	/***
+	 * Enfileira uma mensagem própria para cada destinatário (chave do mapa); a entrega é feita em segundo plano.
+	 */
+	void sendMails(Map<String, String> messagesByRecipient);
 }
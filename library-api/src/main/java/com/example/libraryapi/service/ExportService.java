@@ -0,0 +1,12 @@
+package com.example.libraryapi.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.springframework.http.MediaType;
+
+public interface ExportService {
+	void exportBooks(MediaType format, OutputStream out) throws IOException;
+	
+	void exportLoans(MediaType format, OutputStream out) throws IOException;
+}
@@ -1,25 +1,71 @@
 package com.example.libraryapi.service;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import com.example.libraryapi.dto.LateLoanDTO;
+import com.example.libraryapi.dto.LoanBatchItemDTO;
+import com.example.libraryapi.dto.LoanDTO;
 import com.example.libraryapi.dto.LoanFilterDTO;
-import com.example.libraryapi.model.Book;
+import com.example.libraryapi.dto.ReturnedLoanItemDTO;
 import com.example.libraryapi.model.Loan;
 
 public interface LoanService {
 	Loan save(Loan loan);
+	
+	Loan checkout(String isbn, String customer, String customerEmail);
+	
+	List<LoanBatchItemDTO> checkoutAll(List<LoanDTO> requests);
 
 	Optional<Loan> getById(Long id);
 
 	Loan update(Loan loan);
+	
+	Loan returnLoan(Long id, Long expectedVersion);
+	
+	List<LoanBatchItemDTO> returnAll(List<ReturnedLoanItemDTO> requests);
 
-	Page<Loan> find(LoanFilterDTO filter, Pageable pageRequest);
+	/***
+	 * Listagens de empréstimos montadas direto na consulta, com os dados do livro de cada empréstimo.
+	 */
+	Page<LoanDTO> find(LoanFilterDTO filter, Pageable pageRequest);
+	
+	List<LoanDTO> findAfter(LoanFilterDTO filter, Long afterId, int limit);
 
-	Page<Loan> findLoansByBook(Book book, Pageable pageable);
+	Page<LoanDTO> findLoansByBook(Long bookId, Pageable pageable);
+	
+	/***
+	 * Empréstimos vencidos e ainda não avisados dos primeiros {@code limit} clientes da partição
+	 * {@code partition} (de {@code partitions}), agrupados por email.
+	 */
+	Map<String, List<LateLoanDTO>> findLateLoansToNotify(int partition, int partitions, int limit);
+	
+	/***
+	 * Os empréstimos informados que ainda estão em aberto e não foram avisados, agrupados por email.
+	 */
+	Map<String, List<LateLoanDTO>> findLateLoansToNotify(Collection<Long> loanIds);
+	
+	/***
+	 * Empréstimos cujo vencimento chegou desde a última chamada, segundo a roda de vencimentos.
+	 */
+	List<Long> pollDueLoans();
+	
+	/***
+	 * Devolve os empréstimos para a roda de vencimentos, para nova tentativa em {@code retryAt}.
+	 */
+	void rescheduleDue(Collection<Long> loanIds, LocalDateTime retryAt);
+	
+	/***
+	 * Marca os empréstimos como avisados; falha com {@link org.springframework.dao.ConcurrencyFailureException}
+	 * se algum já tiver sido avisado por outro nó, para que a transação do aviso seja desfeita.
+	 */
+	void markNotified(Collection<Long> loanIds);
 	
-	List<Loan> getAllLateLoans();
+	boolean isBookAvailable(Long bookId);
 }
@@ -0,0 +1,171 @@
+package com.example.libraryapi.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import com.example.libraryapi.dto.BookDTO;
+import com.example.libraryapi.dto.BookImportErrorDTO;
+import com.example.libraryapi.dto.BookImportResultDTO;
+import com.example.libraryapi.importer.BookRow;
+import com.example.libraryapi.importer.BookRowReader;
+import com.example.libraryapi.mapper.BookMapper;
+import com.example.libraryapi.repository.BookRepository;
+import com.example.libraryapi.service.BookImportService;
+import com.example.libraryapi.service.BookService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/***
+ * Importação do acervo em lotes: cada lote valida as linhas, confere os isbns no banco com um
+ * único IN e grava tudo em uma transação com inserts em lote JDBC. Se o banco recusar o lote
+ * (um isbn gravado por outra requisição no meio do caminho), as linhas são gravadas uma a uma e
+ * só as recusadas entram nos erros. Só o lote corrente e os primeiros erros ficam em memória,
+ * qualquer que seja o tamanho do arquivo.
+ */
+@Service
+@Slf4j
+public class BookImportServiceImpl implements BookImportService {
+	
+	private BookService bookService;
+	private BookRepository repository;
+	private BookMapper bookMapper;
+	private Validator validator;
+	private ObjectMapper objectMapper;
+	
+	@Value("${application.import.batch-size:500}")
+	private int batchSize;
+	
+	@Value("${application.import.max-errors:1000}")
+	private int maxErrors;
+	
+	public BookImportServiceImpl(BookService bookService, BookRepository repository, BookMapper bookMapper,
+			Validator validator, ObjectMapper objectMapper) {
+		this.bookService = bookService;
+		this.repository = repository;
+		this.bookMapper = bookMapper;
+		this.validator = validator;
+		this.objectMapper = objectMapper;
+	}
+	
+	
+	@Override
+	public BookImportResultDTO importBooks(InputStream body, MediaType contentType) throws IOException {
+		BookImportResultDTO result = new BookImportResultDTO();
+		List<BookRow> batch = new ArrayList<>(batchSize);
+		
+		try (BookRowReader reader = BookRowReader.of(contentType, body, objectMapper)) {
+			BookRow row;
+			while ((row = reader.next()) != null) {
+				result.setReceived(result.getReceived() + 1);
+				String error = row.hasError() ? row.getError() : validate(row.getBook());
+				if (error != null) {
+					reject(result, row, error);
+					continue;
+				}
+				
+				batch.add(row);
+				if (batch.size() == batchSize) {
+					importBatch(batch, result);
+				}
+			}
+			importBatch(batch, result);
+		}
+		
+		log.info("Book import finished: {} received, {} imported, {} rejected",
+				result.getReceived(), result.getImported(), result.getRejected());
+		return result;
+	}
+	
+	
+	private void importBatch(List<BookRow> batch, BookImportResultDTO result) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		
+		Set<String> existing = repository.findExistingIsbns(
+				batch.stream().map(row -> row.getBook().getIsbn()).collect(Collectors.toSet()));
+		Set<String> seen = new HashSet<>();
+		List<BookRow> accepted = new ArrayList<>(batch.size());
+		for (BookRow row : batch) {
+			String isbn = row.getBook().getIsbn();
+			if (existing.contains(isbn) || !seen.add(isbn)) {
+				reject(result, row, "Isbn já cadastrado");
+			} else {
+				accepted.add(row);
+			}
+		}
+		
+		if (accepted.size() > 1) {
+			try {
+				// as entidades gravadas saem do contexto de persistência no commit do lote
+				bookService.saveAll(accepted.stream()
+						.map(row -> bookMapper.toEntity(row.getBook()))
+						.collect(Collectors.toList()));
+				result.setImported(result.getImported() + accepted.size());
+			} catch (DataIntegrityViolationException e) {
+				// o lote voltou inteiro: as linhas seguem uma a uma para recusar só as que o banco não aceita
+				log.warn("Book import batch of {} rows rejected by the database, retrying row by row", accepted.size());
+				accepted.forEach(row -> importRow(row, result));
+			}
+		} else {
+			accepted.forEach(row -> importRow(row, result));
+		}
+		
+		batch.clear();
+	}
+	
+	private void importRow(BookRow row, BookImportResultDTO result) {
+		try {
+			bookService.saveAll(Collections.singletonList(bookMapper.toEntity(row.getBook())));
+			result.setImported(result.getImported() + 1);
+		} catch (DataIntegrityViolationException e) {
+			String isbn = row.getBook().getIsbn();
+			if (!repository.findExistingIsbns(Collections.singleton(isbn)).isEmpty()) {
+				// isbn gravado por outra requisição entre a consulta e o insert
+				reject(result, row, "Isbn já cadastrado");
+			} else {
+				log.warn("Book import row {} rejected by the database", row.getLine(), e);
+				reject(result, row, "Livro recusado pelo banco: " + e.getMostSpecificCause().getMessage());
+			}
+		}
+	}
+	
+	private String validate(BookDTO book) {
+		Set<ConstraintViolation<BookDTO>> violations = validator.validate(book);
+		if (violations.isEmpty()) {
+			return null;
+		}
+		return violations.stream()
+				.map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+				.sorted()
+				.collect(Collectors.joining(", "));
+	}
+	
+	private void reject(BookImportResultDTO result, BookRow row, String message) {
+		result.setRejected(result.getRejected() + 1);
+		if (result.getErrors().size() < maxErrors) {
+			result.getErrors().add(BookImportErrorDTO.builder()
+					.line(row.getLine())
+					.isbn(row.getBook() != null ? row.getBook().getIsbn() : null)
+					.message(message)
+					.build());
+		} else {
+			result.setErrorsTruncated(true);
+		}
+	}
+}
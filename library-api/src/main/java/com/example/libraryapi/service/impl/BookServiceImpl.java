@@ -1,82 +1,237 @@
 package com.example.libraryapi.service.impl;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.example.libraryapi.config.CacheConfig;
+import com.example.libraryapi.dto.BookStatsDTO;
 import com.example.libraryapi.exceptions.BusinnesException;
+import com.example.libraryapi.index.BookIndexReplicator;
+import com.example.libraryapi.index.BookSearchIndex;
+import com.example.libraryapi.index.BookTrigramIndex;
 import com.example.libraryapi.model.Book;
 import com.example.libraryapi.repository.BookRepository;
+import com.example.libraryapi.repository.BookSpecifications;
 import com.example.libraryapi.service.BookService;
 
+import lombok.extern.slf4j.Slf4j;
+
 @Service
+@Slf4j
 public class BookServiceImpl implements BookService {
 	
+	private static final int INDEX_LOAD_BATCH = 1000;
+	
 	private BookRepository repository;
+	private BookSearchIndex searchIndex;
+	private BookTrigramIndex trigramIndex;
+	private BookIndexReplicator indexReplicator;
 
-	public BookServiceImpl(BookRepository repository) {
-		this.repository = repository;;
+	public BookServiceImpl(BookRepository repository, BookSearchIndex searchIndex, BookTrigramIndex trigramIndex,
+			BookIndexReplicator indexReplicator) {
+		this.repository = repository;
+		this.searchIndex = searchIndex;
+		this.trigramIndex = trigramIndex;
+		this.indexReplicator = indexReplicator;
+	}
+	
+	
+	/***
+	 * Reconstrói os índices em memória percorrendo o acervo por cursor de id.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadIndexes() {
+		searchIndex.clear();
+		trigramIndex.clear();
+		
+		Long lastId = 0L;
+		List<Book> books;
+		do {
+			books = repository.findByIdGreaterThanOrderByIdAsc(lastId, PageRequest.of(0, INDEX_LOAD_BATCH));
+			for (Book book : books) {
+				searchIndex.index(book);
+				trigramIndex.index(book);
+				lastId = book.getId();
+			}
+		} while (books.size() == INDEX_LOAD_BATCH);
+		trigramIndex.markReady();
+		
+		log.info("Search indexes loaded with {} books", searchIndex.size());
 	}
 	
 	
 	@Override
+	@CacheEvict(cacheNames = CacheConfig.ISBN_EXISTS, key = "#book.isbn", condition = "#book.isbn != null")
 	public Book save(Book book) {
 		if(repository.existsByIsbn(book.getIsbn())) {
 			throw new BusinnesException("Isbn já cadastrado");
 		}
 		
-		return repository.save(book);
+		Book saved = repository.save(book);
+		searchIndex.index(saved);
+		trigramIndex.index(saved);
+		indexReplicator.changed(Collections.singletonList(saved.getId()));
+		return saved;
+	}
+
+
+	/***
+	 * Grava um lote já validado (isbns novos) em uma transação; com o id por sequence os inserts
+	 * saem em lotes JDBC. O flush antecede a indexação para que uma violação de constraint não
+	 * deixe os índices à frente do banco. O cache de isbn é limpo por inteiro, uma vez por lote.
+	 */
+	@Override
+	@Transactional
+	@CacheEvict(cacheNames = CacheConfig.ISBN_EXISTS, allEntries = true)
+	public List<Book> saveAll(List<Book> books) {
+		List<Book> saved = repository.saveAll(books);
+		repository.flush();
+		for (Book book : saved) {
+			searchIndex.index(book);
+			trigramIndex.index(book);
+		}
+		indexReplicator.changed(saved.stream().map(Book::getId).collect(Collectors.toList()));
+		return saved;
 	}
 
 
 	@Override
+	@Transactional(readOnly = true)
 	public Optional<Book> getById(Long id) {
 		return repository.findById(id);
 	}
 
 
+	/***
+	 * Todos os livros em um único IN; os ids que não existem ficam de fora.
+	 */
 	@Override
+	@Transactional(readOnly = true)
+	public List<Book> getByIds(Collection<Long> ids) {
+		if (ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return repository.findAllById(ids);
+	}
+
+
+	@Override
+	@CacheEvict(cacheNames = CacheConfig.ISBN_EXISTS, key = "#book.isbn", condition = "#book.isbn != null")
 	public void delete(Book book) {
 		if(book == null || book.getId() == null) {
 			throw new IllegalArgumentException("Livro não pode ser null");
 		}
 		
 		this.repository.delete(book);
+		searchIndex.remove(book.getId());
+		trigramIndex.remove(book);
+		indexReplicator.changed(Collections.singletonList(book.getId()));
 	}
 
 
 	@Override
+	@CacheEvict(cacheNames = CacheConfig.ISBN_EXISTS, key = "#book.isbn", condition = "#book.isbn != null")
 	public Book update(Book book) {
 		if(book == null || book.getId() == null) {
 			throw new IllegalArgumentException("Livro não pode ser null");
 		}
 		
-		return this.repository.save(book);
+		// os trigramas da versão gravada saem antes dos da nova entrar
+		this.repository.findById(book.getId()).ifPresent(trigramIndex::remove);
+		Book updated = this.repository.save(book);
+		searchIndex.index(updated);
+		trigramIndex.index(updated);
+		indexReplicator.changed(Collections.singletonList(updated.getId()));
+		return updated;
 	}
 
 
 	@Override
+	@Transactional(readOnly = true)
 	public Page<Book> find(Book filter, Pageable pageRequest) {
 		Example<Book> example = Example.of(filter ,
 					ExampleMatcher
 						.matching()
 						.withIgnoreCase()
 						.withIgnoreNullValues()
+						.withIgnorePaths("totalLoans")
 						.withStringMatcher(ExampleMatcher.StringMatcher.CONTAINING)
 		);
 		
-		return this.repository.findAll(example, pageRequest);
+		// o índice só restringe a busca quando tem todos os livros da tabela; sem candidatos,
+		// ou com a tabela à frente do índice, vale a consulta completa
+		int[] candidates = trigramIndex.candidates(filter);
+		if (candidates == null || candidates.length == 0
+				|| !trigramIndex.covers(this.repository.count(), this.repository.findMaxId())) {
+			return this.repository.findAll(example, pageRequest);
+		}
+		
+		List<Long> ids = Arrays.stream(candidates).asLongStream().boxed().collect(Collectors.toList());
+		return this.repository.findAll(BookSpecifications.matchingWithIds(example, ids), pageRequest);
+	}
+
+
+	@Override
+	@Transactional(readOnly = true)
+	public List<Book> findAfter(Long afterId, int limit) {
+		return this.repository.findByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, limit));
+	}
+
+
+	@Override
+	@Transactional(readOnly = true)
+	public Page<Book> search(String query, Pageable pageRequest) {
+		List<Long> ids = searchIndex.search(query);
+		int from = (int) Math.min(pageRequest.getOffset(), ids.size());
+		int to = Math.min(from + pageRequest.getPageSize(), ids.size());
+		List<Long> pageIds = ids.subList(from, to);
+		if (pageIds.isEmpty()) {
+			return new PageImpl<Book>(Collections.emptyList(), pageRequest, ids.size());
+		}
+		
+		List<Book> books = this.repository.findAllById(pageIds);
+		books.sort(Comparator.comparingInt(book -> pageIds.indexOf(book.getId())));
+		return new PageImpl<Book>(books, pageRequest, ids.size());
 	}
 
 
 	@Override
+	@Transactional(readOnly = true)
 	public Optional<Book> getBookByIsbn(String isbn) {
 		return this.repository.findByIsbn(isbn);
 	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public List<Book> getByIsbns(Collection<String> isbns) {
+		if (isbns.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return this.repository.findByIsbnIn(isbns);
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public Optional<BookStatsDTO> getStats(Long id) {
+		return this.repository.findStatsById(id);
+	}
 	
 	
 	
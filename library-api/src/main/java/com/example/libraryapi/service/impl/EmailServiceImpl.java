@@ -1,12 +1,16 @@
 package com.example.libraryapi.service.impl;
 
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
 
+import com.example.libraryapi.model.OutboxMail;
+import com.example.libraryapi.repository.OutboxMailRepository;
 import com.example.libraryapi.service.EmailService;
 
 import lombok.RequiredArgsConstructor;
@@ -15,23 +19,46 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class EmailServiceImpl implements EmailService {
 
-	@Value("${application.mail.default-remetent}")
-	private String remetent;
+	static final String SUBJECT = "Livro com empréstimos atrasado.";
 	
-	private final JavaMailSender javaMailSender;
+	private final OutboxMailRepository outboxRepository;
 	
+	/***
+	 * Grava um email por destinatário na outbox, sem falar com o SMTP. Destinatários que já
+	 * receberam a mesma mensagem hoje são ignorados, então reprocessar um lote não duplica envios.
+	 */
 	@Override
-	public void sendMails(String message, List<String> mailsList) {
+	public void sendMails(Map<String, String> messagesByRecipient) {
+		LocalDate today = LocalDate.now();
+		LocalDateTime now = LocalDateTime.now();
 		
-		String[] mails = mailsList.toArray(new String[mailsList.size()]); 
+		Map<String, OutboxMail> mailsByKey = new LinkedHashMap<>();
+		for (Map.Entry<String, String> entry : messagesByRecipient.entrySet()) {
+			String recipient = entry.getKey();
+			String message = entry.getValue();
+			String dedupKey = dedupKey(today, recipient, message);
+			mailsByKey.putIfAbsent(dedupKey, OutboxMail.builder()
+					.dedupKey(dedupKey)
+					.recipient(recipient)
+					.subject(SUBJECT)
+					.text(message)
+					.status(OutboxMail.Status.PENDING)
+					.nextAttemptAt(now)
+					.createdAt(now)
+					.build());
+		}
+		if (mailsByKey.isEmpty()) {
+			return;
+		}
 		
-		SimpleMailMessage mailMessage = new SimpleMailMessage();
-		mailMessage.setFrom(remetent);
-		mailMessage.setSubject("Livro com empréstimos atrasado.");
-		mailMessage.setText(message);
-		mailMessage.setTo(mails);
-		
-		javaMailSender.send(mailMessage);
+		mailsByKey.keySet().removeAll(outboxRepository.findExistingDedupKeys(mailsByKey.keySet()));
+		if (!mailsByKey.isEmpty()) {
+			outboxRepository.saveAll(mailsByKey.values());
+		}
 	}
 
+	static String dedupKey(LocalDate day, String recipient, String message) {
+		String source = day + "|" + recipient + "|" + SUBJECT + "|" + message;
+		return DigestUtils.md5DigestAsHex(source.getBytes(StandardCharsets.UTF_8));
+	}
 }
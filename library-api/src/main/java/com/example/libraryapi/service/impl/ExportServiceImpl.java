@@ -0,0 +1,83 @@
+package com.example.libraryapi.service.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.libraryapi.dto.BookDTO;
+import com.example.libraryapi.dto.LoanExportDTO;
+import com.example.libraryapi.exporter.RowWriter;
+import com.example.libraryapi.repository.BookRepository;
+import com.example.libraryapi.repository.LoanRepository;
+import com.example.libraryapi.service.ExportService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/***
+ * Exportação completa do acervo e do histórico de empréstimos: as linhas saem de um cursor
+ * só de avanço (projeções, fora do contexto de persistência) direto para a resposta.
+ */
+@Service
+public class ExportServiceImpl implements ExportService {
+	
+	private static final String[] BOOK_HEADER = { "id", "tittle", "author", "isbn" };
+	private static final String[] LOAN_HEADER = { "id", "isbn", "customer", "email", "loanDate", "returned" };
+	
+	private BookRepository bookRepository;
+	private LoanRepository loanRepository;
+	private ObjectMapper objectMapper;
+	private TransactionTemplate readOnlyTransaction;
+	
+	public ExportServiceImpl(BookRepository bookRepository, LoanRepository loanRepository,
+			ObjectMapper objectMapper, TransactionTemplate transactionTemplate) {
+		this.bookRepository = bookRepository;
+		this.loanRepository = loanRepository;
+		this.objectMapper = objectMapper;
+		this.readOnlyTransaction = new TransactionTemplate(transactionTemplate.getTransactionManager());
+		this.readOnlyTransaction.setReadOnly(true);
+	}
+	
+	
+	@Override
+	public void exportBooks(MediaType format, OutputStream out) throws IOException {
+		export(format, out, BOOK_HEADER,
+				book -> new Object[] { book.getId(), book.getTittle(), book.getAuthor(), book.getIsbn() },
+				bookRepository::streamAllForExport);
+	}
+	
+	
+	@Override
+	public void exportLoans(MediaType format, OutputStream out) throws IOException {
+		export(format, out, LOAN_HEADER,
+				loan -> new Object[] { loan.getId(), loan.getIsbn(), loan.getCustomer(), loan.getEmail(), loan.getLoanDate(), loan.isReturned() },
+				loanRepository::streamAllForExport);
+	}
+	
+	
+	private <T> void export(MediaType format, OutputStream out, String[] header, Function<T, Object[]> columns,
+			Supplier<Stream<T>> rows) throws IOException {
+		try (RowWriter<T> writer = RowWriter.of(format, out, objectMapper, header, columns)) {
+			readOnlyTransaction.executeWithoutResult(status -> {
+				try (Stream<T> stream = rows.get()) {
+					stream.forEach(row -> write(writer, row));
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	private static <T> void write(RowWriter<T> writer, T row) {
+		try {
+			writer.write(row);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -1,43 +1,225 @@
 package com.example.libraryapi.service.impl;
 
-import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.example.libraryapi.dto.LateLoanDTO;
+import com.example.libraryapi.dto.LoanBatchItemDTO;
+import com.example.libraryapi.dto.LoanDTO;
 import com.example.libraryapi.dto.LoanFilterDTO;
+import com.example.libraryapi.dto.ReturnedLoanItemDTO;
 import com.example.libraryapi.exceptions.BusinnesException;
+import com.example.libraryapi.exceptions.EntityNotFoundException;
+import com.example.libraryapi.index.BookAvailabilityIndex;
+import com.example.libraryapi.index.BookAvailabilityReplicator;
+import com.example.libraryapi.index.LoanDueWheel;
 import com.example.libraryapi.model.Book;
 import com.example.libraryapi.model.Loan;
+import com.example.libraryapi.repository.BookRepository;
 import com.example.libraryapi.repository.LoanRepository;
 import com.example.libraryapi.service.LoanService;
 
+import lombok.extern.slf4j.Slf4j;
+
 @Service
+@Slf4j
 public class LoanServiceImpl implements LoanService {
 
+	/***
+	 * Prazo padrão, gravado em {@link Loan#getDueDate()} na abertura do empréstimo.
+	 */
 	private static final Integer LOAN_DAYS = 4;
 	
 	private LoanRepository repository;
+	private BookRepository bookRepository;
+	private BookAvailabilityIndex availabilityIndex;
+	private BookAvailabilityReplicator availabilityReplicator;
+	private LoanDueWheel dueWheel;
+	private TransactionTemplate transactionTemplate;
 	
-	public LoanServiceImpl(LoanRepository repository) {
+	public LoanServiceImpl(LoanRepository repository, BookRepository bookRepository,
+			BookAvailabilityIndex availabilityIndex, BookAvailabilityReplicator availabilityReplicator,
+			LoanDueWheel dueWheel, TransactionTemplate transactionTemplate) {
 		this.repository = repository;
+		this.bookRepository = bookRepository;
+		this.availabilityIndex = availabilityIndex;
+		this.availabilityReplicator = availabilityReplicator;
+		this.dueWheel = dueWheel;
+		this.transactionTemplate = transactionTemplate;
+	}
+	
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadAvailability() {
+		availabilityIndex.load(repository.findBookIdsWithOpenLoans());
+		log.info("Availability index loaded with {} loaned books", availabilityIndex.loanedCount());
+	}
+	
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadDueWheel() {
+		Map<Long, LocalDateTime> dueDates = new HashMap<>();
+		repository.findDueDatesToNotify().forEach(due -> dueDates.put(due.getId(), due.getDueDate()));
+		dueWheel.load(dueDates, LocalDateTime.now());
+		log.info("Due wheel loaded with {} open loans", dueWheel.size());
 	}
 	
 	
 	@Override
 	public Loan save(Loan loan) {
-		if(repository.existsByBookAndNotReturned(loan.getBook())) {
+		if(isLoaned(loan.getBook())) {
 			throw new BusinnesException("Livro já emprestado");
 		}
 		
-		return repository.save(loan);
+		loan.setOpenBookId(loan.isReturned() ? null : loan.getBook().getId());
+		if (loan.getDueDate() == null && loan.getLoanDate() != null) {
+			loan.setDueDate(loan.getLoanDate().atTime(LocalTime.now()).plusDays(LOAN_DAYS));
+		}
+		Loan saved;
+		try {
+			saved = transactionTemplate.execute(status -> {
+				Loan inserted = repository.save(loan);
+				repository.recordCheckouts(Collections.singletonList(inserted));
+				return inserted;
+			});
+		} catch (DataIntegrityViolationException e) {
+			throw openBookConflict(e);
+		}
+		if (!saved.isReturned()) {
+			availabilityIndex.markLoaned(saved.getBook().getId());
+			availabilityReplicator.changed(Collections.singletonList(saved.getBook().getId()));
+			dueWheel.schedule(saved.getId(), saved.getDueDate());
+		}
+		return saved;
+	}
+	
+	
+	/***
+	 * Empréstimo em uma única ida ao banco: o livro é resolvido pelo isbn no próprio INSERT e a
+	 * constraint unique de open_book_id rejeita o segundo empréstimo aberto, sem janela de corrida
+	 * entre a verificação e a gravação.
+	 */
+	@Override
+	public Loan checkout(String isbn, String customer, String customerEmail) {
+		LocalDateTime now = LocalDateTime.now();
+		Loan loan;
+		try {
+			loan = transactionTemplate.execute(status -> {
+				Loan inserted = repository.insertOpenLoan(isbn, customer, customerEmail, now.toLocalDate(), now.plusDays(LOAN_DAYS));
+				if (inserted != null) {
+					repository.recordCheckouts(Collections.singletonList(inserted));
+				}
+				return inserted;
+			});
+		} catch (DataIntegrityViolationException e) {
+			throw openBookConflict(e);
+		}
+		
+		if (loan == null) {
+			throw new EntityNotFoundException("Livro não encontrado para o isbn informado.");
+		}
+		
+		availabilityIndex.markLoaned(loan.getBook().getId());
+		availabilityReplicator.changed(Collections.singletonList(loan.getBook().getId()));
+		dueWheel.schedule(loan.getId(), loan.getDueDate());
+		return loan;
 	}
 
 
+	/***
+	 * Empréstimo de uma pilha de livros: os isbns são resolvidos em um único IN, a
+	 * disponibilidade é conferida no banco para todos de uma vez ({@link #loanedAmong(Collection)})
+	 * e os empréstimos são gravados em um lote JDBC. Se outro empréstimo entrar entre a conferência
+	 * e o insert, o lote é desfeito e os itens seguem um a um por
+	 * {@link #checkout(String, String, String)}, que diz qual deles o banco recusou.
+	 */
 	@Override
+	public List<LoanBatchItemDTO> checkoutAll(List<LoanDTO> requests) {
+		Set<String> isbns = requests.stream().map(LoanDTO::getIsbn).filter(Objects::nonNull).collect(Collectors.toSet());
+		Map<String, Book> books = new HashMap<>();
+		if (!isbns.isEmpty()) {
+			bookRepository.findByIsbnIn(isbns).forEach(book -> books.put(book.getIsbn(), book));
+		}
+		Set<Long> loaned = loanedAmong(books.values());
+		
+		LoanBatchItemDTO[] results = new LoanBatchItemDTO[requests.size()];
+		List<Loan> loans = new ArrayList<>();
+		List<Integer> positions = new ArrayList<>();
+		LocalDateTime now = LocalDateTime.now();
+		for (int i = 0; i < requests.size(); i++) {
+			LoanDTO request = requests.get(i);
+			Book book = books.get(request.getIsbn());
+			if (book == null) {
+				results[i] = item(null, request.getIsbn(), HttpStatus.NOT_FOUND, "Livro não encontrado para o isbn informado.");
+			} else if (!loaned.add(book.getId())) {
+				results[i] = item(null, request.getIsbn(), HttpStatus.BAD_REQUEST, "Livro já emprestado");
+			} else {
+				loans.add(Loan.builder()
+						.book(book)
+						.customer(request.getCustomer())
+						.customerEmail(request.getEmail())
+						.loanDate(now.toLocalDate())
+						.dueDate(now.plusDays(LOAN_DAYS))
+						.build());
+				positions.add(i);
+			}
+		}
+		
+		try {
+			transactionTemplate.executeWithoutResult(status -> {
+				repository.insertOpenLoans(loans);
+				repository.recordCheckouts(loans);
+			});
+		} catch (DataIntegrityViolationException e) {
+			if (!Loan.isOpenBookConflict(e)) {
+				throw e;
+			}
+			log.warn("Batch checkout raced with another loan, retrying {} items one by one", loans.size());
+			for (Integer position : positions) {
+				results[position] = checkoutItem(requests.get(position));
+			}
+			return Arrays.asList(results);
+		}
+		
+		for (int k = 0; k < loans.size(); k++) {
+			Loan loan = loans.get(k);
+			availabilityIndex.markLoaned(loan.getBook().getId());
+			dueWheel.schedule(loan.getId(), loan.getDueDate());
+			results[positions.get(k)] = item(loan.getId(), loan.getBook().getIsbn(), HttpStatus.CREATED, null);
+		}
+		availabilityReplicator.changed(loans.stream().map(loan -> loan.getBook().getId()).collect(Collectors.toList()));
+		return Arrays.asList(results);
+	}
+
+
+	@Override
+	@Transactional(readOnly = true)
 	public Optional<Loan> getById(Long id) {
 		return repository.findById(id);
 	}
@@ -45,26 +227,289 @@ public class LoanServiceImpl implements LoanService {
 
 	@Override
 	public Loan update(Loan loan) {
-		return repository.save(loan);
+		loan.setOpenBookId(loan.isReturned() ? null : loan.getBook().getId());
+		Loan updated;
+		try {
+			updated = transactionTemplate.execute(status -> {
+				Loan saved = repository.save(loan);
+				repository.recordReturns(Collections.singletonList(saved));
+				return saved;
+			});
+		} catch (DataIntegrityViolationException e) {
+			throw openBookConflict(e);
+		}
+		track(loan);
+		return updated;
 	}
 
 
+	/***
+	 * Devolução sem carregar o empréstimo: um UPDATE condicional e o acerto do livro na mesma
+	 * transação. O empréstimo só é lido quando nenhuma linha muda, para dizer o motivo.
+	 */
 	@Override
-	public Page<Loan> find(LoanFilterDTO loanFilterDTO, Pageable pageable) {
+	public Loan returnLoan(Long id, Long expectedVersion) {
+		Loan returned = transactionTemplate.execute(status -> {
+			Loan loan = repository.returnLoan(id, expectedVersion);
+			if (loan != null) {
+				repository.recordReturns(Collections.singletonList(loan));
+			}
+			return loan;
+		});
+		
+		if (returned == null) {
+			Loan current = repository.findById(id).orElseThrow(() -> new EntityNotFoundException("Empréstimo não encontrado."));
+			if (current.isReturned()) {
+				throw new BusinnesException("Empréstimo já devolvido");
+			}
+			throw new ObjectOptimisticLockingFailureException(Loan.class, id);
+		}
+		track(returned);
+		return returned;
+	}
+
+
+	/***
+	 * Devolução em lote: os empréstimos (com o livro) vêm em uma consulta e os UPDATEs saem
+	 * em lote JDBC no commit de uma única transação.
+	 */
+	@Override
+	public List<LoanBatchItemDTO> returnAll(List<ReturnedLoanItemDTO> requests) {
+		Set<Long> ids = requests.stream().map(ReturnedLoanItemDTO::getId).filter(Objects::nonNull).collect(Collectors.toSet());
+		List<Loan> updated = new ArrayList<>();
+		List<LoanBatchItemDTO> results;
+		try {
+			results = transactionTemplate.execute(status -> {
+				Map<Long, Loan> loans = new HashMap<>();
+				if (!ids.isEmpty()) {
+					repository.findAllWithBookByIdIn(ids).forEach(loan -> loans.put(loan.getId(), loan));
+				}
+				
+				List<LoanBatchItemDTO> items = new ArrayList<>(requests.size());
+				for (ReturnedLoanItemDTO request : requests) {
+					Loan loan = loans.get(request.getId());
+					if (loan == null) {
+						items.add(item(request.getId(), null, HttpStatus.NOT_FOUND, "Empréstimo não encontrado."));
+						continue;
+					}
+					loan.setReturned(request.isReturned());
+					loan.setOpenBookId(request.isReturned() ? null : loan.getBook().getId());
+					updated.add(loan);
+					items.add(item(loan.getId(), loan.getBook().getIsbn(), HttpStatus.OK, null));
+				}
+				repository.recordReturns(updated);
+				return items;
+			});
+		} catch (DataIntegrityViolationException e) {
+			if (!Loan.isOpenBookConflict(e)) {
+				throw e;
+			}
+			log.warn("Batch return reopened an already loaned book, retrying {} items one by one", requests.size());
+			return requests.stream().map(this::returnItem).collect(Collectors.toList());
+		}
+		
+		track(updated);
+		return results;
+	}
+
+
+	@Override
+	@Transactional(readOnly = true)
+	public Page<LoanDTO> find(LoanFilterDTO loanFilterDTO, Pageable pageable) {
 		return repository.findByBookIsbnOrCustomer(loanFilterDTO.getIsbn(), loanFilterDTO.getCustomer(), pageable);
 	}
 
 
 	@Override
-	public Page<Loan> findLoansByBook(Book book, Pageable pageable) {
-		return repository.findByBook(book, pageable);
+	@Transactional(readOnly = true)
+	public List<LoanDTO> findAfter(LoanFilterDTO loanFilterDTO, Long afterId, int limit) {
+		return repository.findByBookIsbnOrCustomerAfter(loanFilterDTO.getIsbn(), loanFilterDTO.getCustomer(), afterId, PageRequest.of(0, limit));
+	}
+
+
+	@Override
+	@Transactional(readOnly = true)
+	public Page<LoanDTO> findLoansByBook(Long bookId, Pageable pageable) {
+		return repository.findByBookId(bookId, pageable);
+	}
+
+
+	@Override
+	public Map<String, List<LateLoanDTO>> findLateLoansToNotify(int partition, int partitions, int limit) {
+		LocalDateTime now = LocalDateTime.now();
+		List<String> emails = repository.findCustomerEmailsToNotify(now, partition, partitions, PageRequest.of(0, limit));
+		if (emails.isEmpty()) {
+			return new LinkedHashMap<>();
+		}
+		return byEmail(repository.findLoansToNotify(now, emails));
 	}
 
 
 	@Override
-	public List<Loan> getAllLateLoans() {
-		LocalDate threeDaysAgo = LocalDate.now().minusDays(LOAN_DAYS);
-		return repository.findByLoanDateLessThanAndNotReturned(threeDaysAgo);
+	public Map<String, List<LateLoanDTO>> findLateLoansToNotify(Collection<Long> loanIds) {
+		if (loanIds.isEmpty()) {
+			return new LinkedHashMap<>();
+		}
+		return byEmail(repository.findLoansToNotifyByIdIn(loanIds));
+	}
+	
+	private static Map<String, List<LateLoanDTO>> byEmail(List<LateLoanDTO> lateLoans) {
+		Map<String, List<LateLoanDTO>> lateLoansByEmail = new LinkedHashMap<>();
+		for (LateLoanDTO lateLoan : lateLoans) {
+			lateLoansByEmail.computeIfAbsent(lateLoan.getEmail(), email -> new ArrayList<>()).add(lateLoan);
+		}
+		return lateLoansByEmail;
+	}
+
+
+	@Override
+	public List<Long> pollDueLoans() {
+		return dueWheel.advance(LocalDateTime.now());
+	}
+
+
+	@Override
+	public void rescheduleDue(Collection<Long> loanIds, LocalDateTime retryAt) {
+		loanIds.forEach(loanId -> dueWheel.schedule(loanId, retryAt));
+	}
+
+
+	@Override
+	public void markNotified(Collection<Long> loanIds) {
+		if (!loanIds.isEmpty() && repository.markNotified(loanIds, LocalDateTime.now()) != loanIds.size()) {
+			throw new ConcurrencyFailureException("Empréstimos já avisados por outro nó: " + loanIds);
+		}
+	}
+	
+	/***
+	 * Mantém o índice de disponibilidade (deste nó e, pelo canal, dos outros) e a roda de
+	 * vencimentos em dia com o empréstimo gravado.
+	 */
+	private void track(Loan loan) {
+		track(Collections.singletonList(loan));
+	}
+	
+	private void track(List<Loan> loans) {
+		for (Loan loan : loans) {
+			if (loan.isReturned()) {
+				availabilityIndex.markReturned(loan.getBook().getId());
+				dueWheel.cancel(loan.getId());
+			} else {
+				availabilityIndex.markLoaned(loan.getBook().getId());
+				dueWheel.schedule(loan.getId(), loan.getDueDate());
+			}
+		}
+		availabilityReplicator.changed(loans.stream().map(loan -> loan.getBook().getId()).collect(Collectors.toList()));
+	}
+
+
+	/***
+	 * Resposta de consulta, direto do índice em memória quando ele já foi carregado.
+	 */
+	@Override
+	public boolean isBookAvailable(Long bookId) {
+		if (availabilityIndex.isReady()) {
+			return !availabilityIndex.isLoaned(bookId);
+		}
+		return !repository.existsByBookAndNotReturned(Book.builder().id(bookId).build());
+	}
+	
+	
+	/***
+	 * Livros emprestados entre os informados, em uma única consulta. O índice em memória é só do
+	 * nó e pode estar atrasado em relação aos outros: serve para restringir a consulta aos livros
+	 * que ele aponta como emprestados, e os que ele dá como livres ficam com a constraint de
+	 * open_book_id no insert.
+	 */
+	private Set<Long> loanedAmong(Collection<Book> books) {
+		Set<Long> ids = books.stream().map(Book::getId).collect(Collectors.toSet());
+		if (availabilityIndex.isReady()) {
+			ids.removeIf(id -> !availabilityIndex.isLoaned(id));
+		}
+		if (ids.isEmpty()) {
+			return new HashSet<>();
+		}
+		return new HashSet<>(repository.findOpenBookIds(ids));
+	}
+	
+	/***
+	 * Devolução (ou reabertura) de um único empréstimo, na sua própria transação: usada quando o
+	 * lote é recusado, para que só o item em conflito fique de fora.
+	 */
+	private LoanBatchItemDTO returnItem(ReturnedLoanItemDTO request) {
+		Loan loan;
+		try {
+			loan = transactionTemplate.execute(status -> {
+				if (request.getId() == null) {
+					return null;
+				}
+				Loan found = repository.findAllWithBookByIdIn(Collections.singleton(request.getId())).stream().findFirst().orElse(null);
+				if (found != null) {
+					found.setReturned(request.isReturned());
+					found.setOpenBookId(request.isReturned() ? null : found.getBook().getId());
+					repository.recordReturns(Collections.singletonList(found));
+				}
+				return found;
+			});
+		} catch (DataIntegrityViolationException e) {
+			return rejected(request.getId(), null, e);
+		}
+		if (loan == null) {
+			return item(request.getId(), null, HttpStatus.NOT_FOUND, "Empréstimo não encontrado.");
+		}
+		track(loan);
+		return item(loan.getId(), loan.getBook().getIsbn(), HttpStatus.OK, null);
+	}
+	
+	private LoanBatchItemDTO checkoutItem(LoanDTO request) {
+		try {
+			Loan loan = checkout(request.getIsbn(), request.getCustomer(), request.getEmail());
+			return item(loan.getId(), request.getIsbn(), HttpStatus.CREATED, null);
+		} catch (EntityNotFoundException e) {
+			return item(null, request.getIsbn(), HttpStatus.NOT_FOUND, e.getMessage());
+		} catch (BusinnesException e) {
+			return item(null, request.getIsbn(), HttpStatus.BAD_REQUEST, e.getMessage());
+		} catch (DataIntegrityViolationException e) {
+			return rejected(null, request.getIsbn(), e);
+		}
+	}
+	
+	/***
+	 * Item do lote recusado pelo banco por outro motivo que não a constraint de empréstimo aberto:
+	 * os demais itens já foram gravados, então ele vira um erro de validação em vez de derrubar
+	 * a resposta inteira.
+	 */
+	private static LoanBatchItemDTO rejected(Long id, String isbn, DataIntegrityViolationException e) {
+		if (Loan.isOpenBookConflict(e)) {
+			return item(id, isbn, HttpStatus.BAD_REQUEST, "Livro já emprestado");
+		}
+		log.warn("Loan batch item {} rejected by the database", id != null ? id : isbn, e);
+		return item(id, isbn, HttpStatus.BAD_REQUEST, "Empréstimo recusado pelo banco: " + e.getMostSpecificCause().getMessage());
+	}
+	
+	/***
+	 * Só a constraint unique de open_book_id quer dizer "livro já emprestado"; qualquer outra
+	 * violação segue adiante como está.
+	 */
+	private static RuntimeException openBookConflict(DataIntegrityViolationException e) {
+		return Loan.isOpenBookConflict(e) ? new BusinnesException("Livro já emprestado") : e;
+	}
+	
+	private static LoanBatchItemDTO item(Long id, String isbn, HttpStatus status, String message) {
+		return LoanBatchItemDTO.builder().id(id).isbn(isbn).status(status.value()).message(message).build();
+	}
+	
+	
+	/***
+	 * Consulta o índice em memória; o banco só é usado para confirmar um livro que o índice dá
+	 * como emprestado (ele pode não ter visto a devolução feita em outro nó) ou enquanto o índice
+	 * não foi carregado. Um livro dado como livre por engano é recusado pela constraint no insert.
+	 */
+	private boolean isLoaned(Book book) {
+		if (availabilityIndex.isReady() && !availabilityIndex.isLoaned(book.getId())) {
+			return false;
+		}
+		return repository.existsByBookAndNotReturned(book);
 	}
 	
 }
@@ -1,23 +1,47 @@
 package com.example.libraryapi.service.impl;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.annotation.PostConstruct;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import com.example.libraryapi.model.Loan;
+import com.example.libraryapi.dto.LateLoanDTO;
+import com.example.libraryapi.model.JobCheckpoint;
+import com.example.libraryapi.repository.JobCheckpointRepository;
 import com.example.libraryapi.service.EmailService;
 import com.example.libraryapi.service.LoanService;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.log4j.Log4j;
 
 
 
 @Service
-@RequiredArgsConstructor
 @Log4j
 public class ScheduleServiceImpl {
 	
@@ -27,29 +51,266 @@ public class ScheduleServiceImpl {
 	
 	private static final String CRON_LATE_LOANS = "0 0 0 1/1 * ?";
 	
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+	
+	static final String LATE_LOANS_JOB = "late-loans";
+	
 	private final LoanService loanService;
 	private final EmailService emailService;
+	private final JobCheckpointRepository checkpointRepository;
+	private final TransactionTemplate transactionTemplate;
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+	private List<String> partitionNames;
+	
+	private final Timer chunkTimer;
+	private final Counter loansCounter;
+	private final Counter mailsCounter;
+	private final Counter failuresCounter;
+	private final Counter partitionsCounter;
 	
 	@Value("${application.mail.lateloans.message}")
 	private String message;
 	
+	@Value("${application.mail.lateloans.chunk-size:500}")
+	private int chunkSize;
+	
+	@Value("${application.mail.lateloans.partitions:8}")
+	private int partitions;
 	
+	@Value("${application.mail.lateloans.lease-ms:60000}")
+	private long leaseMillis;
+	
+	/***
+	 * Identifica o nó nos leases; sem configuração, um id aleatório por execução da aplicação.
+	 */
+	@Value("${application.node-id:}")
+	private String nodeId;
+	
+	public ScheduleServiceImpl(LoanService loanService, EmailService emailService,
+			JobCheckpointRepository checkpointRepository, TransactionTemplate transactionTemplate, MeterRegistry meterRegistry) {
+		this.loanService = loanService;
+		this.emailService = emailService;
+		this.checkpointRepository = checkpointRepository;
+		this.transactionTemplate = transactionTemplate;
+		this.chunkTimer = Timer.builder("library.lateloans.chunk")
+				.description("Leitura e envio de um lote de clientes com empréstimos atrasados")
+				.register(meterRegistry);
+		this.loansCounter = Counter.builder("library.lateloans.loans")
+				.description("Empréstimos atrasados avisados")
+				.register(meterRegistry);
+		this.mailsCounter = Counter.builder("library.lateloans.mails")
+				.description("Clientes notificados (um resumo por cliente)")
+				.register(meterRegistry);
+		this.failuresCounter = Counter.builder("library.lateloans.failures")
+				.description("Lotes interrompidos por falha ao enfileirar os emails")
+				.register(meterRegistry);
+		this.partitionsCounter = Counter.builder("library.lateloans.partitions")
+				.description("Partições da varredura de atrasados concluídas por este nó")
+				.register(meterRegistry);
+	}
+	
+	@PostConstruct
+	public void init() {
+		if (nodeId == null || nodeId.isEmpty()) {
+			nodeId = UUID.randomUUID().toString();
+		}
+		partitionNames = IntStream.range(0, partitions)
+				.mapToObj(partition -> LATE_LOANS_JOB + "-" + partition)
+				.collect(Collectors.toList());
+	}
+	
+	
+	/***
+	 * Avisa, no minuto em que vencem, os empréstimos da roda de vencimentos: cada execução só
+	 * consulta os que venceram desde a anterior, em vez de varrer a tabela. Se o envio falhar,
+	 * os empréstimos voltam para a roda e são tentados de novo na próxima execução.
+	 */
+	@Scheduled(initialDelayString = "${application.mail.lateloans.reminder-interval-ms:60000}",
+			fixedDelayString = "${application.mail.lateloans.reminder-interval-ms:60000}")
+	public void sendDueReminders() {
+		List<Long> dueLoans = loanService.pollDueLoans();
+		for (int from = 0; from < dueLoans.size(); from += chunkSize) {
+			List<Long> loanIds = dueLoans.subList(from, Math.min(from + chunkSize, dueLoans.size()));
+			Timer.Sample sample = Timer.start();
+			if (!notify(loanService.findLateLoansToNotify(loanIds), () -> { })) {
+				List<Long> pending = dueLoans.subList(from, dueLoans.size());
+				loanService.rescheduleDue(pending, LocalDateTime.now().plusMinutes(1));
+				return;
+			}
+			sample.stop(chunkTimer);
+		}
+	}
+	
+	
+	/***
+	 * Varredura diária de conciliação: enfileira, em lotes de clientes, um resumo por cliente com
+	 * os empréstimos vencidos que ainda não foram avisados (por exemplo, os que venceram com a
+	 * aplicação fora do ar). Pelo índice de (returned, notified_at, due_date) só lê esses empréstimos.
+	 * 
+	 * Os clientes são divididos em {@code partitions} partições pelo hash do email; todos os nós
+	 * abrem a execução do dia e cada um processa as partições cujo lease conseguir assumir.
+	 */
 	@Scheduled( cron = CRON_LATE_LOANS)
 	public void sendMailLateLoans() {
-		List<Loan> allLateLoans = loanService.getAllLateLoans();
-		List<String> mailsList = allLateLoans.stream()
-				.map(l -> l.getCustomerEmail())
-				.collect(Collectors.toList());
+		if (!sweeping.compareAndSet(false, true)) {
+			log.warn("Varredura de atrasados já em andamento");
+			return;
+		}
+		try {
+			createPartitions();
+			checkpointRepository.startRun(partitionNames, LocalDate.now(), LocalDateTime.now());
+			sweepClaimablePartitions();
+		} finally {
+			sweeping.set(false);
+		}
+	}
+	
+	
+	/***
+	 * Assume as partições da execução em aberto cujo nó parou de renovar o lease (caiu ou foi
+	 * desligado no meio da varredura).
+	 */
+	@Scheduled(initialDelayString = "${application.mail.lateloans.lease-ms:60000}",
+			fixedDelayString = "${application.mail.lateloans.lease-ms:60000}")
+	public void takeOverPartitions() {
+		if (!sweeping.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			sweepClaimablePartitions();
+		} finally {
+			sweeping.set(false);
+		}
+	}
+	
+	
+	/***
+	 * Retoma na subida uma varredura interrompida por queda da aplicação.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void resumeInterruptedSweep() {
+		createPartitions();
+		takeOverPartitions();
+	}
+	
+	
+	private void sweepClaimablePartitions() {
+		List<String> claimable;
+		while (!(claimable = checkpointRepository.findClaimable(partitionNames, nodeId, LocalDateTime.now())).isEmpty()) {
+			// nós diferentes começam por partições diferentes
+			Collections.shuffle(claimable);
+			boolean swept = false;
+			for (String name : claimable) {
+				if (renewLease(name)) {
+					swept |= sweep(name);
+				}
+			}
+			if (!swept) {
+				return;
+			}
+		}
+	}
+	
+	
+	private boolean sweep(String name) {
+		log.info("Varrendo atrasados da partição " + name + " no nó " + nodeId);
+		int partition = partitionNames.indexOf(name);
+		Map<String, List<LateLoanDTO>> chunk;
+		do {
+			Timer.Sample sample = Timer.start();
+			chunk = loanService.findLateLoansToNotify(partition, partitions, chunkSize);
+			if (chunk.isEmpty()) {
+				break;
+			}
+			if (!notify(chunk, () -> fence(name))) {
+				return false;
+			}
+			sample.stop(chunkTimer);
+		} while (chunk.size() == chunkSize);
 		
-		if(existeEmailParaEnvio(mailsList)) {
-			emailService.sendMails(message , mailsList);
-			log.info("EMAILS ENVIADOS");
+		if (checkpointRepository.complete(name, nodeId, LocalDateTime.now()) > 0) {
+			partitionsCounter.increment();
+			log.info("EMAILS ENVIADOS (" + name + ")");
 		}
+		return true;
 	}
-
-
-	private boolean existeEmailParaEnvio(List<String> mailsList) {
-		return mailsList.size() > 0;
+	
+	private boolean renewLease(String name) {
+		LocalDateTime now = LocalDateTime.now();
+		return checkpointRepository.claim(name, nodeId, now, now.plus(leaseMillis, ChronoUnit.MILLIS)) > 0;
+	}
+	
+	/***
+	 * Renova o lease na transação do lote: se outro nó assumiu a partição, o lote é desfeito.
+	 */
+	private void fence(String name) {
+		if (!renewLease(name)) {
+			throw new ConcurrencyFailureException("Partição " + name + " assumida por outro nó");
+		}
+	}
+	
+	private void createPartitions() {
+		Set<String> existing = checkpointRepository.findAllById(partitionNames).stream()
+				.map(JobCheckpoint::getName).collect(Collectors.toSet());
+		for (String name : partitionNames) {
+			if (!existing.contains(name)) {
+				try {
+					checkpointRepository.save(JobCheckpoint.builder().name(name).updatedAt(LocalDateTime.now()).build());
+				} catch (DataIntegrityViolationException e) {
+					log.debug("Partição " + name + " criada por outro nó");
+				}
+			}
+		}
+	}
+	
+	/***
+	 * Grava os resumos na outbox e marca os empréstimos como avisados na mesma transação:
+	 * nenhum empréstimo é avisado duas vezes, nem por dois nós, e uma falha não perde o que já
+	 * foi enfileirado.
+	 */
+	private boolean notify(Map<String, List<LateLoanDTO>> lateLoansByEmail, Runnable fence) {
+		if (lateLoansByEmail.isEmpty()) {
+			return true;
+		}
+		
+		Map<String, String> digests = new LinkedHashMap<>();
+		List<Long> loanIds = new ArrayList<>();
+		for (Map.Entry<String, List<LateLoanDTO>> customer : lateLoansByEmail.entrySet()) {
+			digests.put(customer.getKey(), digest(customer.getValue()));
+			customer.getValue().forEach(lateLoan -> loanIds.add(lateLoan.getId()));
+		}
+		
+		try {
+			transactionTemplate.executeWithoutResult(status -> {
+				fence.run();
+				emailService.sendMails(digests);
+				loanService.markNotified(loanIds);
+			});
+		} catch (DataAccessException | TransactionException e) {
+			failuresCounter.increment();
+			log.error("Falha ao enfileirar emails; os clientes restantes serão avisados na próxima execução", e);
+			return false;
+		}
+		
+		loansCounter.increment(loanIds.size());
+		mailsCounter.increment(digests.size());
+		return true;
+	}
+	
+	/***
+	 * Um email por cliente com todos os livros em atraso do cliente.
+	 */
+	private String digest(List<LateLoanDTO> lateLoans) {
+		StringBuilder digest = new StringBuilder()
+				.append("Olá, ").append(lateLoans.get(0).getCustomer()).append(".\n\n")
+				.append(message).append("\n\n")
+				.append("Livros em atraso:\n");
+		for (LateLoanDTO lateLoan : lateLoans) {
+			digest.append("- ").append(lateLoan.getTittle())
+				.append(" (devolução prevista para ").append(DATE_FORMAT.format(lateLoan.getDueDate())).append(")\n");
+		}
+		return digest.toString();
 	}
 	
+	
 }
@@ -0,0 +1,122 @@
+package com.example.libraryapi.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.hibernate.Hibernate;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import com.example.libraryapi.cache.SingleFlight;
+import com.example.libraryapi.datasource.ReplicaRoutingDataSource;
+import com.example.libraryapi.dto.BookStatsDTO;
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.service.BookService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/***
+ * Fica na frente do {@link BookServiceImpl}: quando um título dispara, as consultas simultâneas
+ * pelo mesmo id ou isbn viram uma só. Fica fora da transação do BookServiceImpl, para que quem
+ * espera não segure uma conexão do pool. O resto é repassado sem mudança.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(value = "application.books.single-flight.enabled", matchIfMissing = true)
+public class SingleFlightBookService implements BookService {
+
+	private final BookService delegate;
+	private final SingleFlight<Long, Optional<Book>> byId;
+	private final SingleFlight<String, Optional<Book>> byIsbn;
+
+	public SingleFlightBookService(BookServiceImpl delegate, MeterRegistry meterRegistry) {
+		this.delegate = delegate;
+		this.byId = new SingleFlight<>("book-by-id", SingleFlightBookService::copy, meterRegistry);
+		this.byIsbn = new SingleFlight<>("book-by-isbn", SingleFlightBookService::copy, meterRegistry);
+	}
+
+	/***
+	 * Quem acabou de gravar lê sozinho: o resultado de uma carga de outra thread, vinda de uma
+	 * réplica, pode ainda não ter a sua escrita.
+	 */
+	@Override
+	public Optional<Book> getById(Long id) {
+		if (ReplicaRoutingDataSource.isPinned()) {
+			return delegate.getById(id);
+		}
+		return byId.load(id, () -> delegate.getById(id));
+	}
+
+	@Override
+	public Optional<Book> getBookByIsbn(String isbn) {
+		if (ReplicaRoutingDataSource.isPinned()) {
+			return delegate.getBookByIsbn(isbn);
+		}
+		return byIsbn.load(isbn, () -> delegate.getBookByIsbn(isbn));
+	}
+
+	@Override
+	public List<Book> getByIds(Collection<Long> ids) {
+		return delegate.getByIds(ids);
+	}
+
+	@Override
+	public List<Book> getByIsbns(Collection<String> isbns) {
+		return delegate.getByIsbns(isbns);
+	}
+
+	@Override
+	public Book save(Book book) {
+		return delegate.save(book);
+	}
+
+	@Override
+	public List<Book> saveAll(List<Book> books) {
+		return delegate.saveAll(books);
+	}
+
+	@Override
+	public void delete(Book book) {
+		delegate.delete(book);
+	}
+
+	@Override
+	public Book update(Book book) {
+		return delegate.update(book);
+	}
+
+	@Override
+	public Page<Book> find(Book filter, Pageable pageRequest) {
+		return delegate.find(filter, pageRequest);
+	}
+
+	@Override
+	public List<Book> findAfter(Long afterId, int limit) {
+		return delegate.findAfter(afterId, limit);
+	}
+
+	@Override
+	public Page<Book> search(String query, Pageable pageRequest) {
+		return delegate.search(query, pageRequest);
+	}
+
+	@Override
+	public Optional<BookStatsDTO> getStats(Long id) {
+		return delegate.getStats(id);
+	}
+
+	/***
+	 * Cópia com a sua própria lista de empréstimos. A lista ainda não carregada não vai na cópia:
+	 * fora da sessão ela não pode mais ser lida e, compartilhada, ligaria as cópias entre si.
+	 */
+	private static Optional<Book> copy(Optional<Book> book) {
+		return book.map(found -> found.toBuilder()
+				.loans(found.getLoans() != null && Hibernate.isInitialized(found.getLoans()) ? new ArrayList<>(found.getLoans()) : null)
+				.build());
+	}
+}
@@ -0,0 +1,168 @@
+package com.example.libraryapi.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.libraryapi.LibraryApiApplication;
+import com.example.libraryapi.index.BookTrigramIndex;
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.model.Loan;
+import com.example.libraryapi.repository.BookRepository;
+import com.example.libraryapi.service.BookService;
+import com.example.libraryapi.service.LoanService;
+
+/***
+ * Dois nós da aplicação (dois contextos Spring) sobre o mesmo H2 em memória, cada um com o seu
+ * canal JDBC: o aviso só chega ao outro nó pela tabela cache_invalidation, tanto para os caches
+ * quanto para os índices de busca.
+ */
+public class CacheInvalidationClusterTest {
+
+	private static final long POLL_INTERVAL_MS = 50;
+
+	static ConfigurableApplicationContext nodeA;
+	static ConfigurableApplicationContext nodeB;
+
+	@BeforeAll
+	public static void startNodes() {
+		nodeA = node("create-drop");
+		nodeB = node("none");
+	}
+
+	@AfterAll
+	public static void stopNodes() {
+		nodeB.close();
+		nodeA.close();
+	}
+
+	@Test
+	@DisplayName("Deve remover do cache de segundo nível do outro nó o livro alterado")
+	public void evictBookOnOtherNodeTest() {
+		// cenario
+		Book book = nodeA.getBean(BookRepository.class).save(Book.builder().isbn("cluster-1").tittle("Antigo").author("Autor").build());
+		assertThat(nodeB.getBean(BookRepository.class).findById(book.getId()).get().getTittle()).isEqualTo("Antigo");
+
+		// execucao
+		book.setTittle("Novo");
+		nodeA.getBean(BookRepository.class).save(book);
+
+		// verificacao
+		assertThat(await(() -> "Novo".equals(nodeB.getBean(BookRepository.class).findById(book.getId()).get().getTittle()))).isTrue();
+	}
+
+	@Test
+	@DisplayName("Deve remover do cache do outro nó a resposta de isbn inexistente depois do cadastro")
+	public void evictIsbnExistsOnOtherNodeTest() {
+		// cenario
+		assertThat(nodeB.getBean(BookRepository.class).existsByIsbn("cluster-2")).isFalse();
+
+		// execucao
+		nodeA.getBean(BookService.class).save(Book.builder().isbn("cluster-2").tittle("Livro").author("Autor").build());
+
+		// verificacao
+		assertThat(await(() -> nodeB.getBean(BookRepository.class).existsByIsbn("cluster-2"))).isTrue();
+	}
+
+	@Test
+	@DisplayName("Deve encontrar pelo filtro do outro nó o livro cadastrado, pelo índice de trigramas atualizado")
+	public void replicateTrigramIndexTest() {
+		// cenario
+		BookTrigramIndex indexB = nodeB.getBean(BookTrigramIndex.class);
+		assertThat(indexB.candidates(Book.builder().tittle("Replicado").build())).isNotNull();
+
+		// execucao
+		Book book = nodeA.getBean(BookService.class).save(Book.builder().isbn("cluster-3").tittle("Livro Replicado").author("Autor").build());
+
+		// verificacao
+		assertThat(await(() -> Arrays.stream(indexB.candidates(Book.builder().tittle("replicado").build()))
+				.anyMatch(id -> id == book.getId()))).isTrue();
+		assertThat(nodeB.getBean(BookService.class)
+				.find(Book.builder().tittle("replicado").build(), PageRequest.of(0, 10)).getTotalElements()).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("Deve tirar do índice de trigramas do outro nó o livro excluído")
+	public void replicateTrigramRemovalTest() {
+		// cenario
+		BookService serviceA = nodeA.getBean(BookService.class);
+		Book book = serviceA.save(Book.builder().isbn("cluster-4").tittle("Livro Excluido").author("Autor").build());
+		BookTrigramIndex indexB = nodeB.getBean(BookTrigramIndex.class);
+		assertThat(await(() -> indexB.candidates(Book.builder().tittle("excluido").build()).length == 1)).isTrue();
+
+		// execucao
+		serviceA.delete(book);
+
+		// verificacao
+		assertThat(await(() -> indexB.candidates(Book.builder().tittle("excluido").build()).length == 0)).isTrue();
+	}
+
+	@Test
+	@DisplayName("Deve encontrar pelo filtro o livro gravado direto no banco, que nenhum índice conhece")
+	public void findBookInsertedBySqlTest() {
+		// execucao
+		nodeA.getBean(JdbcTemplate.class).update(
+				"insert into book (id, tittle, author, isbn, total_loans, version) values (next value for book_seq, 'Livro Semeado', 'Autor', 'cluster-5', 0, 0)");
+
+		// verificacao
+		assertThat(nodeB.getBean(BookService.class)
+				.find(Book.builder().tittle("semeado").build(), PageRequest.of(0, 10)).getTotalElements()).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("Deve refletir no índice de disponibilidade do outro nó o empréstimo e a devolução")
+	public void replicateAvailabilityTest() {
+		// cenario
+		Book book = nodeA.getBean(BookService.class).save(Book.builder().isbn("cluster-6").tittle("Livro").author("Autor").build());
+		LoanService loansB = nodeB.getBean(LoanService.class);
+		assertThat(loansB.isBookAvailable(book.getId())).isTrue();
+
+		// execucao e verificacao
+		Loan loan = nodeA.getBean(LoanService.class).checkout("cluster-6", "Fulano", "fulano@email.com");
+		assertThat(await(() -> !loansB.isBookAvailable(book.getId()))).isTrue();
+
+		nodeA.getBean(LoanService.class).returnLoan(loan.getId(), null);
+		assertThat(await(() -> loansB.isBookAvailable(book.getId()))).isTrue();
+	}
+
+	private static boolean await(BooleanSupplier condition) {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			if (System.nanoTime() > deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static ConfigurableApplicationContext node(String ddlAuto) {
+		return new SpringApplicationBuilder(LibraryApiApplication.class)
+				.profiles("test")
+				.properties(
+						"server.port=0",
+						"spring.datasource.url=jdbc:h2:mem:cache-cluster;DB_CLOSE_DELAY=-1",
+						"spring.jpa.hibernate.ddl-auto=" + ddlAuto,
+						"application.mail.lateloans.lease-ms=3600000",
+						"application.mail.lateloans.reminder-interval-ms=3600000",
+						"application.mail.outbox.poll-interval-ms=50")
+				// argumento, e não properties(): valor padrão perderia para o application.properties
+				.run("--application.cache.invalidation.poll-interval-ms=" + POLL_INTERVAL_MS);
+	}
+}
@@ -0,0 +1,110 @@
+package com.example.libraryapi.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/***
+ * Dois canais sobre a mesma tabela cache_invalidation, com as rodadas de {@code relay()} chamadas
+ * pelo teste: o nó B só recebe o que o nó A gravou.
+ */
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class JdbcCacheInvalidationChannelTest {
+	
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+	
+	JdbcCacheInvalidationChannel nodeA;
+	JdbcCacheInvalidationChannel nodeB;
+	List<CacheInvalidation> received;
+	
+	@BeforeEach
+	public void setUp() {
+		nodeA = new JdbcCacheInvalidationChannel(jdbcTemplate, Duration.ofMinutes(1), 2);
+		nodeB = new JdbcCacheInvalidationChannel(jdbcTemplate, Duration.ofMinutes(1), 2);
+		received = new CopyOnWriteArrayList<>();
+		nodeB.subscribe(received::add);
+		nodeB.relay();
+	}
+	
+	@AfterEach
+	public void tearDown() {
+		jdbcTemplate.update("delete from cache_invalidation");
+	}
+	
+	@Test
+	@DisplayName("Deve entregar ao outro nó a chave e o valor lidos das colunas")
+	public void deliverKeysTest() {
+		// cenario
+		nodeA.publish(new CacheInvalidation("a", "book", 7L, null));
+		nodeA.publish(new CacheInvalidation("a", "timestamps", "book", 1234L));
+		nodeA.relay();
+		nodeA.publish(new CacheInvalidation("a", "book-index", new long[] { 1, 2, 3 }, null));
+		nodeA.relay();
+		
+		// execucao
+		nodeB.relay();
+		
+		// verificacao
+		assertThat(received).hasSize(3);
+		assertThat(received.get(0).getOrigin()).isEqualTo("a");
+		assertThat(received.get(0).getKey()).isEqualTo(7L);
+		assertThat(received.get(1).getKey()).isEqualTo("book");
+		assertThat(received.get(1).getValue()).isEqualTo(1234L);
+		assertThat((long[]) received.get(2).getKey()).containsExactly(1, 2, 3);
+	}
+	
+	@Test
+	@DisplayName("Deve invalidar a região inteira quando a chave não é de um tipo conhecido")
+	public void unsupportedKeyTest() {
+		// cenario
+		nodeA.publish(new CacheInvalidation("a", "isbnExists", new SimpleKey("001", 1), null));
+		nodeA.relay();
+		jdbcTemplate.update("insert into cache_invalidation (node, origin, region, key_type, cache_key, created_at) "
+				+ "values ('outro', 'x', 'book', 'java', 'rO0AB', current_timestamp)");
+		
+		// execucao
+		nodeB.relay();
+		
+		// verificacao
+		assertThat(received).extracting(CacheInvalidation::getRegion).containsExactly("isbnExists", "book");
+		assertThat(received).extracting(CacheInvalidation::getKey).containsOnlyNulls();
+	}
+	
+	@Test
+	@DisplayName("Deve trocar por uma invalidação da região inteira o que não cabe na fila")
+	public void pendingOverflowTest() {
+		// cenario
+		nodeA.publish(new CacheInvalidation("a", "book", 1L, null));
+		nodeA.publish(new CacheInvalidation("a", "book", 2L, null));
+		nodeA.publish(new CacheInvalidation("a", "book", 3L, null));
+		nodeA.relay();
+		
+		// execucao
+		nodeB.relay();
+		
+		// verificacao
+		assertThat(received).hasSize(1);
+		assertThat(received.get(0).getRegion()).isEqualTo("book");
+		assertThat(received.get(0).getKey()).isNull();
+	}
+}
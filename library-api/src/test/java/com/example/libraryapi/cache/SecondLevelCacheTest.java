@@ -0,0 +1,137 @@
+package com.example.libraryapi.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.example.libraryapi.controller.SqlStatementCounter;
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.repository.BookRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/***
+ * Cache de segundo nível do livro e invalidação pelo canal entre réplicas, simulando a outra
+ * réplica com mensagens publicadas direto no canal.
+ */
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+		"application.mail.outbox.poll-interval-ms=3600000",
+		"application.mail.lateloans.reminder-interval-ms=3600000",
+		"application.mail.lateloans.lease-ms=3600000" })
+public class SecondLevelCacheTest {
+	
+	private static final String BOOK_REGION = Book.class.getName();
+	private static final String TIMESTAMPS_REGION = RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME;
+	
+	@Autowired
+	BookRepository bookRepository;
+	
+	@Autowired
+	CacheInvalidationChannel channel;
+	
+	@Autowired
+	MeterRegistry meterRegistry;
+	
+	@Autowired
+	EntityManagerFactory entityManagerFactory;
+	
+	SqlStatementCounter statements;
+	Book book;
+	
+	@BeforeEach
+	public void setUp() {
+		statements = new SqlStatementCounter(entityManagerFactory);
+		book = bookRepository.save(Book.builder().isbn("cache-123").tittle("Livro").author("Autor").build());
+	}
+	
+	@AfterEach
+	public void tearDown() {
+		bookRepository.deleteAllInBatch();
+	}
+	
+	@Test
+	@DisplayName("Deve ler o livro por id e por isbn sem ir ao banco depois da primeira leitura")
+	public void readFromCacheTest() throws Exception {
+		// cenario
+		bookRepository.findByIsbn("cache-123");
+		
+		// execucao
+		long count = statements.count(() -> {
+			assertThat(bookRepository.findById(book.getId())).contains(book);
+			assertThat(bookRepository.findByIsbn("cache-123")).contains(book);
+		});
+		
+		// verificacao
+		assertThat(count).isZero();
+		assertThat(meterRegistry.get(CaffeineRegionFactory.HIT_RATIO_METRIC).tag("region", BOOK_REGION).gauge().value())
+			.isGreaterThan(0);
+	}
+	
+	@Test
+	@DisplayName("Deve avisar as outras réplicas ao alterar um livro")
+	public void publishOnWriteTest() {
+		// cenario
+		List<CacheInvalidation> received = new CopyOnWriteArrayList<>();
+		Consumer<CacheInvalidation> replica = received::add;
+		channel.subscribe(replica);
+		
+		// execucao
+		try {
+			book.setTittle("Outro titulo");
+			bookRepository.save(book);
+		} finally {
+			channel.unsubscribe(replica);
+		}
+		
+		// verificacao
+		assertThat(received).anyMatch(invalidation -> BOOK_REGION.equals(invalidation.getRegion())
+				&& book.getId().equals(invalidation.getKey()) && invalidation.getValue() == null);
+		assertThat(received).anyMatch(invalidation -> TIMESTAMPS_REGION.equals(invalidation.getRegion())
+				&& "book".equals(invalidation.getKey()) && invalidation.getValue() != null);
+	}
+	
+	@Test
+	@DisplayName("Deve recarregar do banco o livro alterado por outra réplica")
+	public void evictOnRemoteWriteTest() throws Exception {
+		// cenario
+		bookRepository.findById(book.getId());
+		
+		// execucao
+		channel.publish(new CacheInvalidation("outra-replica", BOOK_REGION, book.getId(), null));
+		
+		// verificacao
+		assertThat(statements.count(() -> bookRepository.findById(book.getId()))).isEqualTo(1);
+	}
+	
+	@Test
+	@DisplayName("Deve refazer a consulta por isbn quando outra réplica altera a tabela de livros")
+	public void invalidateQueryOnRemoteWriteTest() throws Exception {
+		// cenario
+		bookRepository.findByIsbn("cache-123");
+		long timestamp = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getCache().getRegionFactory().nextTimestamp();
+		
+		// execucao
+		channel.publish(new CacheInvalidation("outra-replica", TIMESTAMPS_REGION, "book", timestamp));
+		
+		// verificacao
+		assertThat(statements.count(() -> bookRepository.findByIsbn("cache-123"))).isEqualTo(1);
+	}
+}
@@ -0,0 +1,128 @@
+package com.example.libraryapi.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.example.libraryapi.model.Book;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SingleFlightTest {
+
+	private static final int CALLERS = 16;
+
+	MeterRegistry meterRegistry;
+	SingleFlight<Long, Book> singleFlight;
+	ExecutorService executor;
+
+	@BeforeEach
+	public void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		singleFlight = new SingleFlight<>("book-by-id", book -> book.toBuilder().build(), meterRegistry);
+		executor = Executors.newFixedThreadPool(CALLERS);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	@DisplayName("Deve fazer uma única carga para as chamadas simultâneas pela mesma chave, cada uma com a sua cópia")
+	public void coalesceConcurrentCallsTest() throws Exception {
+		// cenario
+		AtomicInteger loads = new AtomicInteger();
+		Supplier<Book> loader = () -> {
+			loads.incrementAndGet();
+			awaitCoalesced(CALLERS - 1);
+			return Book.builder().id(1L).isbn("123").build();
+		};
+
+		// execucao
+		List<Future<Book>> calls = new ArrayList<>();
+		for (int i = 0; i < CALLERS; i++) {
+			calls.add(executor.submit(() -> singleFlight.load(1L, loader)));
+		}
+		List<Book> books = new ArrayList<>();
+		for (Future<Book> call : calls) {
+			books.add(call.get(10, TimeUnit.SECONDS));
+		}
+
+		// verificacao
+		assertThat(loads.get()).isEqualTo(1);
+		assertThat(books).allMatch(book -> "123".equals(book.getIsbn()));
+		assertThat(books.stream().distinct().count()).isEqualTo(1);
+		assertThat(books.stream().map(System::identityHashCode).distinct().count()).isEqualTo(CALLERS);
+		assertThat(meterRegistry.get(SingleFlight.LOADS_METRIC).counter().count()).isEqualTo(1);
+		assertThat(singleFlight.inFlight()).isZero();
+	}
+
+	@Test
+	@DisplayName("Deve repassar a falha da carga a todos que esperavam e carregar de novo na próxima chamada")
+	public void shareFailureTest() throws Exception {
+		// cenario
+		Supplier<Book> failing = () -> {
+			awaitCoalesced(CALLERS - 1);
+			throw new IllegalStateException("banco fora do ar");
+		};
+
+		// execucao
+		List<Future<Book>> calls = new ArrayList<>();
+		for (int i = 0; i < CALLERS; i++) {
+			calls.add(executor.submit(() -> singleFlight.load(1L, failing)));
+		}
+
+		// verificacao
+		for (Future<Book> call : calls) {
+			Throwable error = catchThrowable(() -> call.get(10, TimeUnit.SECONDS));
+			assertThat(error.getCause()).isInstanceOf(IllegalStateException.class).hasMessage("banco fora do ar");
+		}
+		assertThat(singleFlight.load(1L, () -> Book.builder().id(1L).build()).getId()).isEqualTo(1L);
+		assertThat(meterRegistry.get(SingleFlight.LOADS_METRIC).counter().count()).isEqualTo(2);
+	}
+
+	@Test
+	@DisplayName("Não deve agrupar chamadas por chaves diferentes")
+	public void differentKeysTest() {
+		singleFlight.load(1L, () -> Book.builder().id(1L).build());
+		singleFlight.load(2L, () -> Book.builder().id(2L).build());
+
+		assertThat(meterRegistry.get(SingleFlight.LOADS_METRIC).counter().count()).isEqualTo(2);
+		assertThat(meterRegistry.get(SingleFlight.COALESCED_METRIC).counter().count()).isZero();
+	}
+
+	@Test
+	@DisplayName("Deve carregar direto, sem agrupar, a chave nula")
+	public void nullKeyTest() {
+		Book book = singleFlight.load(null, () -> Book.builder().isbn("123").build());
+
+		assertThat(book.getIsbn()).isEqualTo("123");
+		assertThat(meterRegistry.get(SingleFlight.LOADS_METRIC).counter().count()).isEqualTo(1);
+		assertThat(singleFlight.inFlight()).isZero();
+	}
+
+	/***
+	 * Segura a carga até as outras chamadas estarem esperando por ela.
+	 */
+	private void awaitCoalesced(int callers) {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (meterRegistry.get(SingleFlight.COALESCED_METRIC).counter().count() < callers && System.nanoTime() < deadline) {
+			Thread.yield();
+		}
+	}
+}
@@ -1,10 +1,19 @@
 package com.example.libraryapi.controller;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.DisplayName;
@@ -23,13 +32,19 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import com.example.libraryapi.dto.BookDTO;
+import com.example.libraryapi.dto.BookImportResultDTO;
+import com.example.libraryapi.dto.BookStatsDTO;
+import com.example.libraryapi.dto.CursorPageDTO;
 import com.example.libraryapi.exceptions.BusinnesException;
 import com.example.libraryapi.model.Book;
+import com.example.libraryapi.service.BookImportService;
 import com.example.libraryapi.service.BookService;
+import com.example.libraryapi.service.ExportService;
 import com.example.libraryapi.service.LoanService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -49,6 +64,12 @@ public class BookControllerTest {
 	
 	@MockBean
 	private LoanService loanService;
+	
+	@MockBean
+	private BookImportService importService;
+	
+	@MockBean
+	private ExportService exportService;
 
 	@Test
 	@DisplayName("Deve criar um livro com sucesso.")
@@ -74,6 +95,60 @@ public class BookControllerTest {
 		 .andExpect(jsonPath("isbn").value(dto.getIsbn()));
 	}
 
+	@Test
+	@DisplayName("Deve importar livros em lote a partir de um CSV")
+	public void importBooksTest() throws Exception {
+		// cenario
+		BookImportResultDTO result = BookImportResultDTO.builder().received(2).imported(2).build();
+		BDDMockito.given(importService.importBooks(Mockito.any(), Mockito.any(MediaType.class)))
+			.willReturn(result);
+		
+		// execucao
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(BOOK_API.concat("/bulk"))
+				.contentType("text/csv")
+				.accept(MediaType.APPLICATION_JSON)
+				.content("tittle,author,isbn\nJava,Fulano,001\nSpring,Beltrano,002\n");
+		
+		// verificacao
+		mvc.perform(request)
+		 .andExpect(status().isOk())
+		 .andExpect(jsonPath("received").value(2))
+		 .andExpect(jsonPath("imported").value(2))
+		 .andExpect(jsonPath("errors").isEmpty());
+	}
+	
+	@Test
+	@DisplayName("Deve recusar importação em lote com formato não suportado")
+	public void importBooksUnsupportedFormatTest() throws Exception {
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(BOOK_API.concat("/bulk"))
+				.contentType(MediaType.APPLICATION_XML)
+				.content("<books/>");
+		
+		mvc.perform(request).andExpect(status().isUnsupportedMediaType());
+	}
+
+	@Test
+	@DisplayName("Deve exportar o acervo em CSV quando o Accept pedir text/csv")
+	public void exportBooksCsvTest() throws Exception {
+		// cenario
+		BDDMockito.willAnswer(invocation -> {
+			OutputStream out = invocation.getArgument(1);
+			out.write("id,tittle,author,isbn\n".getBytes(StandardCharsets.UTF_8));
+			return null;
+		}).given(exportService).exportBooks(Mockito.eq(MediaType.valueOf("text/csv")), Mockito.any(OutputStream.class));
+		
+		// execucao
+		MvcResult result = mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/export")).accept("text/csv"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		
+		// verificacao
+		mvc.perform(asyncDispatch(result))
+		 .andExpect(status().isOk())
+		 .andExpect(header().string("Content-Type", "text/csv"))
+		 .andExpect(content().string("id,tittle,author,isbn\n"));
+	}
+
 	@Test
 	@DisplayName("Deve lançar erro de validação quando não houver dados suficientes.")
 	public void createInvalidBookTest() throws Exception {
@@ -126,6 +201,7 @@ public class BookControllerTest {
 					.tittle(bookDTO.getTittle())
 					.author(bookDTO.getAuthor())
 					.isbn(bookDTO.getIsbn())
+					.version(2L)
 				.build();
 		
 		BDDMockito.given(bookService.getById(id)).willReturn(Optional.of(book));
@@ -143,11 +219,47 @@ public class BookControllerTest {
 		 .andExpect(jsonPath("id").value(id))
 		 .andExpect(jsonPath("tittle").value(bookDTO.getTittle()))
 		 .andExpect(jsonPath("author").value(bookDTO.getAuthor()))
-		 .andExpect(jsonPath("isbn").value(bookDTO.getIsbn()));	
+		 .andExpect(jsonPath("isbn").value(bookDTO.getIsbn()))
+		 .andExpect(header().string("ETag", "\"2\""));
+		
+	}
+	
+	@Test
+	@DisplayName("Deve responder 304 sem corpo quando o cliente já tem a versão atual do livro")
+	public void getBookNotModifiedTest() throws Exception {
+		// cenario (given)
+		Book book = Book.builder().id(1L).tittle("Livro").author("Autor").isbn("001").version(2L).build();
+		BDDMockito.given(bookService.getById(1L)).willReturn(Optional.of(book));
 		
+		// execucao (when)
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(BOOK_API.concat("/1"))
+				.header("If-None-Match", "\"1\", \"2\"")
+				.accept(MediaType.APPLICATION_JSON);
+		
+		// verificacao
+		mvc.perform(request)
+		 .andExpect(status().isNotModified())
+		 .andExpect(header().string("ETag", "\"2\""))
+		 .andExpect(content().string(""));
 	}
 	
 	
+	@Test
+	@DisplayName("Deve responder 304 quando o If-None-Match traz o ETag fraco da versão atual")
+	public void getBookWeakNotModifiedTest() throws Exception {
+		// cenario (given)
+		Book book = Book.builder().id(1L).tittle("Livro").author("Autor").isbn("001").version(2L).build();
+		BDDMockito.given(bookService.getById(1L)).willReturn(Optional.of(book));
+		
+		// execucao (when)
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(BOOK_API.concat("/1"))
+				.header("If-None-Match", "W/\"2\"")
+				.accept(MediaType.APPLICATION_JSON);
+		
+		// verificacao
+		mvc.perform(request).andExpect(status().isNotModified());
+	}
+	
 	  @Test
 	  @DisplayName("Deve retornar resource not found quando o livro procurado não existir")
 	  public void bookNotFoundTest() throws Exception {
@@ -164,6 +276,71 @@ public class BookControllerTest {
 	  }
 
 	
+	@Test
+	@DisplayName("Deve obter vários livros por id em uma chamada, na ordem pedida e marcando os que não existem")
+	public void getBooksByIdsTest() throws Exception {
+		// cenario
+		BDDMockito.given(bookService.getByIds(Mockito.anyCollection())).willReturn(Arrays.asList(
+				Book.builder().id(1L).isbn("001").tittle("Primeiro").author("Autor").build(),
+				Book.builder().id(3L).isbn("003").tittle("Terceiro").author("Autor").build()));
+		
+		// execucao
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(BOOK_API.concat("?ids=3,2,1"))
+				.accept(MediaType.APPLICATION_JSON);
+		
+		// verificacao
+		mvc.perform(request)
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$", Matchers.hasSize(3)))
+			.andExpect(jsonPath("[0].id").value(3))
+			.andExpect(jsonPath("[0].status").value(200))
+			.andExpect(jsonPath("[0].book.tittle").value("Terceiro"))
+			.andExpect(jsonPath("[1].id").value(2))
+			.andExpect(jsonPath("[1].status").value(404))
+			.andExpect(jsonPath("[1].book").doesNotExist())
+			.andExpect(jsonPath("[2].book.isbn").value("001"));
+		Mockito.verify(bookService).getByIds(Mockito.argThat(ids -> ids.size() == 3));
+	}
+	
+	@Test
+	@DisplayName("Deve obter vários livros por isbn em uma chamada, na ordem pedida e marcando os que não existem")
+	public void lookupBooksByIsbnTest() throws Exception {
+		// cenario
+		BDDMockito.given(bookService.getByIsbns(Mockito.anyCollection())).willReturn(Arrays.asList(
+				Book.builder().id(1L).isbn("001").tittle("Primeiro").author("Autor").build()));
+		
+		// execucao
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(BOOK_API.concat("/lookup"))
+				.contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.content("[\"999\", \"001\"]");
+		
+		// verificacao
+		mvc.perform(request)
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$", Matchers.hasSize(2)))
+			.andExpect(jsonPath("[0].isbn").value("999"))
+			.andExpect(jsonPath("[0].status").value(404))
+			.andExpect(jsonPath("[1].id").value(1))
+			.andExpect(jsonPath("[1].status").value(200))
+			.andExpect(jsonPath("[1].book.tittle").value("Primeiro"));
+	}
+	
+	@Test
+	@DisplayName("Deve recusar a busca de vários livros acima do limite do lote")
+	public void lookupBooksOverLimitTest() throws Exception {
+		String ids = IntStream.rangeClosed(1, BookController.MAX_LOOKUP_SIZE + 1).mapToObj(String::valueOf)
+				.collect(Collectors.joining(","));
+		
+		mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("?ids=" + ids)).accept(MediaType.APPLICATION_JSON))
+			.andExpect(status().isBadRequest());
+		mvc.perform(MockMvcRequestBuilders.post(BOOK_API.concat("/lookup")).contentType(MediaType.APPLICATION_JSON).content("[]"))
+			.andExpect(status().isBadRequest());
+		Mockito.verify(bookService, Mockito.never()).getByIds(Mockito.anyCollection());
+		Mockito.verify(bookService, Mockito.never()).getByIsbns(Mockito.anyCollection());
+	}
+	
+	
 	@Test
 	@DisplayName("Deve deletar um livro")
 	public void deleteBookTest() throws Exception {
@@ -213,18 +390,20 @@ public class BookControllerTest {
 				.tittle("some title")
 				.author("some author")
 				.isbn("321")
+				.version(3L)
 			.build();
 		
 		BDDMockito.given(bookService.getById(id)).willReturn(Optional.of(updatingBook));
 		
 		// livro com os dados atualizados
-		Book updatedBook = Book.builder().id(id).tittle("Artur").author("As aventuras").isbn("321").build();
+		Book updatedBook = Book.builder().id(id).tittle("Artur").author("As aventuras").isbn("321").version(4L).build();
 		BDDMockito.given(bookService.update(updatingBook)).willReturn(updatedBook);
 		
 		
 		// execucao (when)
 		MockHttpServletRequestBuilder request =
 			MockMvcRequestBuilders.put(BOOK_API.concat("/" + id))
+				.header("If-Match", "\"3\"")
 				.contentType(MediaType.APPLICATION_JSON)
 				.accept(MediaType.APPLICATION_JSON)
 				.content(json);
@@ -232,6 +411,7 @@ public class BookControllerTest {
 		
 		mvc.perform(request)
 		 .andExpect(status().isOk())
+		 .andExpect(header().string("ETag", "\"4\""))
 		 .andExpect(jsonPath("id").value(id))
 		 .andExpect(jsonPath("tittle").value(createNewBookDTO().getTittle()))
 		 .andExpect(jsonPath("author").value(createNewBookDTO().getAuthor()))
@@ -239,6 +419,46 @@ public class BookControllerTest {
 		
 	}
 	
+	@Test
+	@DisplayName("Deve responder 412 ao atualizar um livro a partir de uma versão desatualizada")
+	public void updateStaleBookTest() throws Exception {
+		// cenario (given)
+		String json = new ObjectMapper().writeValueAsString(createNewBookDTO());
+		Book book = Book.builder().id(1L).tittle("some title").author("some author").isbn("321").version(5L).build();
+		BDDMockito.given(bookService.getById(1L)).willReturn(Optional.of(book));
+		
+		// execucao (when)
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.put(BOOK_API.concat("/1"))
+				.header("If-Match", "\"4\"")
+				.contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.content(json);
+		
+		// verificacao
+		mvc.perform(request).andExpect(status().isPreconditionFailed());
+		Mockito.verify(bookService, Mockito.never()).update(Mockito.any(Book.class));
+	}
+	
+	@Test
+	@DisplayName("Deve responder 412 ao atualizar um livro com If-Match fraco, mesmo da versão atual")
+	public void updateBookWeakIfMatchTest() throws Exception {
+		// cenario (given)
+		String json = new ObjectMapper().writeValueAsString(createNewBookDTO());
+		Book book = Book.builder().id(1L).tittle("some title").author("some author").isbn("321").version(5L).build();
+		BDDMockito.given(bookService.getById(1L)).willReturn(Optional.of(book));
+		
+		// execucao (when)
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.put(BOOK_API.concat("/1"))
+				.header("If-Match", "W/\"5\"")
+				.contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.content(json);
+		
+		// verificacao
+		mvc.perform(request).andExpect(status().isPreconditionFailed());
+		Mockito.verify(bookService, Mockito.never()).update(Mockito.any(Book.class));
+	}
+	
 	@Test
 	@DisplayName("Deve retornar 404 quando tentar devolver um livro inexistente")
 	public void updateInexistentBookTest() throws Exception {
@@ -291,6 +511,134 @@ public class BookControllerTest {
 	}
 	
 
+	@Test
+	@DisplayName("Deve informar a disponibilidade de um livro")
+	public void bookAvailabilityTest() throws Exception {
+		BDDMockito.given( loanService.isBookAvailable(1L) ).willReturn(false);
+		
+		mvc.perform( MockMvcRequestBuilders.get(BOOK_API.concat("/1/availability")).accept(MediaType.APPLICATION_JSON) )
+		.andExpect( status().isOk() )
+		.andExpect( jsonPath("bookId").value(1L) )
+		.andExpect( jsonPath("available").value(false) );
+		
+		Mockito.verify(bookService, Mockito.never()).getById(Mockito.anyLong());
+	}
+	
+	@Test
+	@DisplayName("Deve obter as estatísticas de empréstimo de um livro")
+	public void bookStatsTest() throws Exception {
+		// cenario
+		BookStatsDTO stats = BookStatsDTO.builder().bookId(1L).isbn("001").activeLoanId(7L).totalLoans(3)
+				.lastLoanDate(LocalDate.of(2021, 4, 1)).build();
+		BDDMockito.given( bookService.getStats(1L) ).willReturn(Optional.of(stats));
+		
+		// execucao / verificacao
+		mvc.perform( MockMvcRequestBuilders.get(BOOK_API.concat("/1/stats")).accept(MediaType.APPLICATION_JSON) )
+		.andExpect( status().isOk() )
+		.andExpect( jsonPath("bookId").value(1L) )
+		.andExpect( jsonPath("activeLoanId").value(7L) )
+		.andExpect( jsonPath("totalLoans").value(3) )
+		.andExpect( jsonPath("lastLoanDate").value("2021-04-01") );
+		
+		Mockito.verify(bookService, Mockito.never()).getById(Mockito.anyLong());
+	}
+	
+	@Test
+	@DisplayName("Deve retornar not found ao obter estatísticas de livro inexistente")
+	public void bookStatsNotFoundTest() throws Exception {
+		BDDMockito.given( bookService.getStats(Mockito.anyLong()) ).willReturn(Optional.empty());
+		
+		mvc.perform( MockMvcRequestBuilders.get(BOOK_API.concat("/1/stats")).accept(MediaType.APPLICATION_JSON) )
+		.andExpect( status().isNotFound() );
+	}
+	
+	@Test
+	@DisplayName("Deve buscar livros por termos")
+	public void searchBooksTest() throws Exception{
+		// cenario (given)
+		Book book = Book.builder().id(1L).tittle("Dom Casmurro").author("Machado de Assis").isbn("001").build();
+		
+		BDDMockito.given( bookService.search(Mockito.eq("machado"), Mockito.any(Pageable.class)) )
+			.willReturn( new PageImpl<Book>( Arrays.asList(book), PageRequest.of(0,20), 1 ));
+		
+		// execucao (when)
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+				.get(BOOK_API.concat("?q=machado&page=0&size=20"))
+				.accept(MediaType.APPLICATION_JSON);
+		
+		mvc
+		.perform( request )
+		.andExpect( status().isOk() )
+		.andExpect( jsonPath("content", Matchers.hasSize(1)))
+		.andExpect( jsonPath("content[0].tittle").value("Dom Casmurro"))
+		.andExpect( jsonPath("totalElements").value(1) );
+		
+		Mockito.verify(bookService, Mockito.never()).find(Mockito.any(Book.class), Mockito.any(Pageable.class));
+	}
+	
+	@Test
+	@DisplayName("Deve buscar livros por termos mesmo quando o limit é informado")
+	public void searchBooksWithLimitTest() throws Exception{
+		// cenario (given)
+		Book book = Book.builder().id(1L).tittle("Dom Casmurro").author("Machado de Assis").isbn("001").build();
+		
+		BDDMockito.given( bookService.search(Mockito.eq("machado"), Mockito.any(Pageable.class)) )
+			.willReturn( new PageImpl<Book>( Arrays.asList(book), PageRequest.of(0,20), 1 ));
+		
+		// execucao (when)
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+				.get(BOOK_API.concat("?q=machado&limit=2"))
+				.accept(MediaType.APPLICATION_JSON);
+		
+		// verificacao
+		mvc
+		.perform( request )
+		.andExpect( status().isOk() )
+		.andExpect( jsonPath("content[0].tittle").value("Dom Casmurro"));
+		
+		Mockito.verify(bookService, Mockito.never()).findAfter(Mockito.any(), Mockito.anyInt());
+	}
+	
+	@Test
+	@DisplayName("Deve listar livros por cursor sem total de elementos")
+	public void findBooksByCursorTest() throws Exception {
+		// cenario (given)
+		Book first = Book.builder().id(11L).tittle("Artur").author("As aventuras").isbn("001").build();
+		Book second = Book.builder().id(12L).tittle("Artur").author("As aventuras").isbn("002").build();
+		Book third = Book.builder().id(13L).tittle("Artur").author("As aventuras").isbn("003").build();
+		
+		BDDMockito.given( bookService.findAfter(10L, 3) )
+			.willReturn( Arrays.asList(first, second, third) );
+		
+		// execucao (when)
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+				.get(BOOK_API.concat("?after=" + CursorPageDTO.encode(10L) + "&limit=2"))
+				.accept(MediaType.APPLICATION_JSON);
+		
+		// verificacao
+		mvc
+		.perform( request )
+		.andExpect( status().isOk() )
+		.andExpect( jsonPath("content", Matchers.hasSize(2)))
+		.andExpect( jsonPath("content[1].id").value(12L))
+		.andExpect( jsonPath("next").value(CursorPageDTO.encode(12L)))
+		.andExpect( jsonPath("totalElements").doesNotExist());
+	}
+	
+	@Test
+	@DisplayName("Deve retornar bad request para cursor inválido")
+	public void findBooksByInvalidCursorTest() throws Exception {
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+				.get(BOOK_API.concat("?after=@@&limit=2"))
+				.accept(MediaType.APPLICATION_JSON);
+		
+		mvc.perform( request )
+		.andExpect( status().isBadRequest() );
+		
+		Mockito.verify(bookService, Mockito.never()).findAfter(Mockito.anyLong(), Mockito.anyInt());
+	}
+	
+
 	private BookDTO createNewBookDTO() {
 		return BookDTO.builder().tittle("Artur").author("As aventuras").isbn("001").build();
 	}
@@ -1,10 +1,15 @@
 package com.example.libraryapi.controller;
 
-
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Optional;
@@ -23,21 +28,26 @@ import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import com.example.libraryapi.dto.CursorPageDTO;
+import com.example.libraryapi.dto.LoanBatchItemDTO;
 import com.example.libraryapi.dto.LoanDTO;
 import com.example.libraryapi.dto.LoanFilterDTO;
 import com.example.libraryapi.dto.ReturnedLoanDTO;
+import com.example.libraryapi.dto.ReturnedLoanItemDTO;
 import com.example.libraryapi.exceptions.BusinnesException;
+import com.example.libraryapi.exceptions.EntityNotFoundException;
 import com.example.libraryapi.model.Book;
 import com.example.libraryapi.model.Loan;
-import com.example.libraryapi.service.BookService;
+import com.example.libraryapi.service.ExportService;
 import com.example.libraryapi.service.LoanService;
-import com.example.libraryapi.service.LoanServiceTest;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 @ExtendWith(SpringExtension.class)
@@ -52,10 +62,10 @@ public class LoanControllerTest {
 	private MockMvc mvc;
 	
 	@MockBean
-	private BookService bookService;
+	private LoanService loanService;
 	
 	@MockBean
-	private LoanService loanService;
+	private ExportService exportService;
 	
 	
 	@Test
@@ -67,10 +77,8 @@ public class LoanControllerTest {
 		String json = new ObjectMapper().writeValueAsString(loanDTO);
 		
 		Book book = Book.builder().id(1L).isbn("123").build();
-		BDDMockito.given(bookService.getBookByIsbn("123")).willReturn(Optional.of(book));
-		
-		Loan loan = Loan.builder().id(1L).customer("Fulano").book(book).loanDate(LocalDate.now()).build();
-		BDDMockito.given(loanService.save(Mockito.any(Loan.class))).willReturn(loan);
+		Loan loan = Loan.builder().id(1L).customer("Fulano").book(book).loanDate(LocalDate.now()).version(0L).build();
+		BDDMockito.given(loanService.checkout("123", "Fulano", "customer@email.com")).willReturn(loan);
 		
 		// execucao
 		MockHttpServletRequestBuilder request = 
@@ -83,6 +91,7 @@ public class LoanControllerTest {
 		// verificacao
 		   mvc.perform(request )
            .andExpect( status().isCreated() )
+           .andExpect( header().string("ETag", "\"0\""))
            .andExpect( content().string("1"));
 	}
 	
@@ -92,7 +101,8 @@ public class LoanControllerTest {
 		 LoanDTO dto = LoanDTO.builder().isbn("123").customer("Fulano").build();
 	     String json = new ObjectMapper().writeValueAsString(dto);
 
-	     BDDMockito.given( bookService.getBookByIsbn("123") ).willReturn( Optional.empty() );
+	     BDDMockito.given( loanService.checkout("123", "Fulano", null) )
+	     	.willThrow( new EntityNotFoundException("Livro não encontrado para o isbn informado.") );
 
 	     MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(LOAN_API)
 	                .accept(MediaType.APPLICATION_JSON)
@@ -115,11 +125,8 @@ public class LoanControllerTest {
 		LoanDTO dto = creanteNewLoanDTO();
 		String json = new ObjectMapper().writeValueAsString(dto);
 		
-		Book book = Book.builder().id(1L).isbn("123").build();
-		BDDMockito.given(bookService.getBookByIsbn("123")).willReturn(Optional.of(book));
-		
 		String mensagemErro = "Livro já emprestado";
-		BDDMockito.given(loanService.save(Mockito.any(Loan.class))).willThrow(new BusinnesException(mensagemErro));
+		BDDMockito.given(loanService.checkout("123", "Fulano", null)).willThrow(new BusinnesException(mensagemErro));
 		
 		// execucao
 		MockHttpServletRequestBuilder request = 
@@ -135,33 +142,205 @@ public class LoanControllerTest {
 	}
 	
 	
+	@Test
+	@DisplayName("Deve emprestar livros em lote retornando o resultado de cada item")
+	public void createBatchTest() throws Exception {
+		// cenario
+		String json = new ObjectMapper().writeValueAsString(Arrays.asList(
+				LoanDTO.builder().isbn("001").customer("Fulano").build(),
+				LoanDTO.builder().isbn("002").customer("Fulano").build()));
+		
+		BDDMockito.given(loanService.checkoutAll(Mockito.anyList())).willReturn(Arrays.asList(
+				LoanBatchItemDTO.builder().id(1L).isbn("001").status(201).build(),
+				LoanBatchItemDTO.builder().isbn("002").status(400).message("Livro já emprestado").build()));
+		
+		// execucao
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(LOAN_API.concat("/batch"))
+				.contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.content(json);
+		
+		// verificacao
+		mvc.perform(request)
+		 .andExpect(status().isOk())
+		 .andExpect(jsonPath("$", Matchers.hasSize(2)))
+		 .andExpect(jsonPath("[0].id").value(1))
+		 .andExpect(jsonPath("[1].status").value(400))
+		 .andExpect(jsonPath("[1].message").value("Livro já emprestado"));
+	}
+	
+	@Test
+	@DisplayName("Deve devolver livros em lote retornando o resultado de cada item")
+	public void returnBatchTest() throws Exception {
+		// cenario
+		String json = new ObjectMapper().writeValueAsString(Arrays.asList(
+				ReturnedLoanItemDTO.builder().id(1L).returned(true).build()));
+		
+		BDDMockito.given(loanService.returnAll(Mockito.anyList()))
+			.willReturn(Arrays.asList(LoanBatchItemDTO.builder().id(1L).isbn("001").status(200).build()));
+		
+		// execucao e verificacao
+		mvc.perform(MockMvcRequestBuilders.patch(LOAN_API.concat("/batch"))
+				.contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.content(json))
+		 .andExpect(status().isOk())
+		 .andExpect(jsonPath("[0].status").value(200));
+		
+		Mockito.verify(loanService, Mockito.never()).getById(Mockito.anyLong());
+	}
+	
+	@Test
+	@DisplayName("Deve recusar lote vazio de empréstimos")
+	public void createEmptyBatchTest() throws Exception {
+		mvc.perform(MockMvcRequestBuilders.post(LOAN_API.concat("/batch"))
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("[]"))
+		 .andExpect(status().isBadRequest());
+		
+		Mockito.verify(loanService, Mockito.never()).checkoutAll(Mockito.anyList());
+	}
+	
+	@Test
+	@DisplayName("Deve exportar os empréstimos em NDJSON por padrão")
+	public void exportLoansTest() throws Exception {
+		// cenario
+		BDDMockito.willAnswer(invocation -> {
+			OutputStream out = invocation.getArgument(1);
+			out.write("{\"id\":1}\n".getBytes(StandardCharsets.UTF_8));
+			return null;
+		}).given(exportService).exportLoans(Mockito.eq(MediaType.valueOf("application/x-ndjson")), Mockito.any(OutputStream.class));
+		
+		// execucao
+		MvcResult result = mvc.perform(MockMvcRequestBuilders.get(LOAN_API.concat("/export")))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		
+		// verificacao
+		mvc.perform(asyncDispatch(result))
+		 .andExpect(status().isOk())
+		 .andExpect(header().string("Content-Type", "application/x-ndjson"))
+		 .andExpect(content().string("{\"id\":1}\n"));
+	}
+	
 	public LoanDTO creanteNewLoanDTO() {
 		return LoanDTO.builder().isbn("123").customer("Fulano").build();
 	}
 	
 	@Test
-	@DisplayName("Deve retornar um empréstimo")
+	@DisplayName("Deve retornar um empréstimo sem carregá-lo")
 	public void returnBookTest() throws Exception {
 		// cenario
 		ReturnedLoanDTO dto = ReturnedLoanDTO.builder().returned(true).build();
 		String json = new ObjectMapper().writeValueAsString(dto);
 		
-		Loan loan = Loan.builder().id(1L).build();
-		BDDMockito.given(loanService.getById(Mockito.anyLong())).willReturn(Optional.of(loan));
+		BDDMockito.given(loanService.returnLoan(1L, 1L)).willReturn(Loan.builder().id(1L).returned(true).version(2L).build());
 		
 		
 		// execucao
 		MockHttpServletRequestBuilder request = 
 				MockMvcRequestBuilders.patch(LOAN_API + "/1")
+				.header("If-Match", "\"1\"")
+				.contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.content(json);
+		
+		
+		// verificacao
+		mvc.perform(request)
+		 .andExpect(status().isOk())
+		 .andExpect(header().string("ETag", "\"2\""));
+		
+		Mockito.verify(loanService, Mockito.never()).getById(Mockito.anyLong());
+		Mockito.verify(loanService, Mockito.never()).update(Mockito.any(Loan.class));
+	}
+	
+	@Test
+	@DisplayName("Deve reabrir um empréstimo lendo e gravando a entidade")
+	public void reopenLoanTest() throws Exception {
+		// cenario
+		String json = new ObjectMapper().writeValueAsString(ReturnedLoanDTO.builder().returned(false).build());
+		Loan loan = Loan.builder().id(1L).returned(true).version(1L).build();
+		BDDMockito.given(loanService.getById(1L)).willReturn(Optional.of(loan));
+		BDDMockito.given(loanService.update(loan)).willReturn(Loan.builder().id(1L).version(2L).build());
+		
+		// execucao
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.patch(LOAN_API + "/1")
 				.contentType(MediaType.APPLICATION_JSON)
 				.accept(MediaType.APPLICATION_JSON)
 				.content(json);
 		
+		// verificacao
+		mvc.perform(request)
+		 .andExpect(status().isOk())
+		 .andExpect(header().string("ETag", "\"2\""));
+		assertThat(loan.isReturned()).isFalse();
+		Mockito.verify(loanService, Mockito.never()).returnLoan(Mockito.anyLong(), Mockito.any());
+	}
+	
+	@Test
+	@DisplayName("Deve responder 412 ao reabrir um empréstimo alterado depois da leitura do cliente")
+	public void reopenStaleLoanTest() throws Exception {
+		// cenario
+		String json = new ObjectMapper().writeValueAsString(ReturnedLoanDTO.builder().returned(false).build());
+		BDDMockito.given(loanService.getById(1L)).willReturn(Optional.of(Loan.builder().id(1L).returned(true).version(2L).build()));
+		
+		// execucao
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.patch(LOAN_API + "/1")
+				.header("If-Match", "\"1\"")
+				.contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.content(json);
 		
 		// verificacao
-		mvc.perform(request).andExpect(status().isOk());
+		mvc.perform(request).andExpect(status().isPreconditionFailed());
+		Mockito.verify(loanService, Mockito.never()).update(Mockito.any(Loan.class));
+	}
+	
+	@Test
+	@DisplayName("Deve responder 412 ao devolver um empréstimo que está em outra versão")
+	public void returnStaleLoanTest() throws Exception {
+		// cenario
+		String json = new ObjectMapper().writeValueAsString(ReturnedLoanDTO.builder().returned(true).build());
+		BDDMockito.given(loanService.returnLoan(1L, 1L)).willThrow(new ObjectOptimisticLockingFailureException(Loan.class, 1L));
 		
-		Mockito.verify(loanService , Mockito.times(1)).update(loan);
+		// execucao
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.patch(LOAN_API + "/1")
+				.header("If-Match", "\"1\"")
+				.contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.content(json);
+		
+		// verificacao
+		mvc.perform(request)
+		 .andExpect(status().isPreconditionFailed())
+		 .andExpect(jsonPath("error").value("Concurrent update"));
+	}
+	
+	@Test
+	@DisplayName("Deve responder 412 quando o If-Match não é um ETag de versão")
+	public void returnLoanInvalidIfMatchTest() throws Exception {
+		String json = new ObjectMapper().writeValueAsString(ReturnedLoanDTO.builder().returned(true).build());
+		
+		mvc.perform(MockMvcRequestBuilders.patch(LOAN_API + "/1")
+				.header("If-Match", "\"1\", \"2\"")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(json))
+		 .andExpect(status().isPreconditionFailed());
+		Mockito.verify(loanService, Mockito.never()).returnLoan(Mockito.anyLong(), Mockito.any());
+	}
+	
+	@Test
+	@DisplayName("Deve retornar erro de negócio ao devolver um empréstimo já devolvido")
+	public void returnReturnedLoanTest() throws Exception {
+		String json = new ObjectMapper().writeValueAsString(ReturnedLoanDTO.builder().returned(true).build());
+		BDDMockito.given(loanService.returnLoan(1L, null)).willThrow(new BusinnesException("Empréstimo já devolvido"));
+		
+		mvc.perform(MockMvcRequestBuilders.patch(LOAN_API + "/1")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(json))
+		 .andExpect(status().isBadRequest())
+		 .andExpect(jsonPath("message").value("Empréstimo já devolvido"));
 	}
 	
 	
@@ -172,7 +351,7 @@ public class LoanControllerTest {
         ReturnedLoanDTO dto = ReturnedLoanDTO.builder().returned(true).build();
         String json = new ObjectMapper().writeValueAsString(dto);
 
-        BDDMockito.given(loanService.getById(Mockito.anyLong())).willReturn(Optional.empty());
+        BDDMockito.given(loanService.returnLoan(1L, null)).willThrow(new EntityNotFoundException("Empréstimo não encontrado."));
 
         mvc.perform(
         		MockMvcRequestBuilders.patch(LOAN_API.concat("/1"))
@@ -189,18 +368,12 @@ public class LoanControllerTest {
 	@DisplayName("Deve filtrar empréstimos")
 	public void findLoansTest() throws Exception{
 		// cenario (given)
-		Long id =  1L;
-		
-		Loan loan = LoanServiceTest.createLoan();
-		loan.setId(id);
-	
-		Book book = Book.builder().id(1L).isbn("321").build();
-		loan.setBook(book);
+		LoanDTO loan = new LoanDTO(1L, "321", "Fulano", "fulano@email.com", 1L, "Java", "Autor", "321");
 		
 		BDDMockito.given(loanService.find(Mockito.any(LoanFilterDTO.class), Mockito.any(Pageable.class)))
-        .willReturn( new PageImpl<Loan>( Arrays.asList(loan), PageRequest.of(0,10), 1 ));
+        .willReturn( new PageImpl<LoanDTO>( Arrays.asList(loan), PageRequest.of(0,10), 1 ));
 
-		String queryString = String.format("?isbn=%s&customer=%s&page=0&size=10", book.getIsbn(), loan.getCustomer() );
+		String queryString = String.format("?isbn=%s&customer=%s&page=0&size=10", loan.getIsbn(), loan.getCustomer() );
 		
 		// execucao (when)
 		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
@@ -211,8 +384,33 @@ public class LoanControllerTest {
         .perform( request )
         .andExpect( status().isOk() )
         .andExpect( jsonPath("content", Matchers.hasSize(1)))
+        .andExpect( jsonPath("content[0].book.tittle").value("Java"))
         .andExpect( jsonPath("totalElements").value(1) )
         .andExpect( jsonPath("pageable.pageSize").value(10) )
         .andExpect( jsonPath("pageable.pageNumber").value(0));
 	}
+	
+	@Test
+	@DisplayName("Deve filtrar empréstimos por cursor")
+	public void findLoansByCursorTest() throws Exception{
+		// cenario (given)
+		LoanDTO loan = new LoanDTO(5L, "321", "Fulano", "fulano@email.com", 1L, "Java", "Autor", "321");
+		
+		BDDMockito.given(loanService.findAfter(Mockito.any(LoanFilterDTO.class), Mockito.eq(0L), Mockito.eq(11)))
+			.willReturn( Arrays.asList(loan) );
+		
+		String queryString = String.format("?isbn=%s&customer=%s&limit=10", "321", loan.getCustomer() );
+		
+		// execucao (when)
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+				.get(LOAN_API.concat(queryString))
+				.accept(MediaType.APPLICATION_JSON);
+		
+		mvc
+		.perform( request )
+		.andExpect( status().isOk() )
+		.andExpect( jsonPath("content", Matchers.hasSize(1)))
+		.andExpect( jsonPath("content[0].isbn").value("321"))
+		.andExpect( jsonPath("next").doesNotExist() );
+	}
 }
@@ -0,0 +1,121 @@
+package com.example.libraryapi.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.LocalDate;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.model.Loan;
+import com.example.libraryapi.repository.BookRepository;
+import com.example.libraryapi.repository.LoanRepository;
+
+/***
+ * Quantidade de statements SQL por listagem de empréstimos: deve ser a mesma com 1 ou 20 livros.
+ */
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+		"application.mail.outbox.poll-interval-ms=3600000",
+		"application.mail.lateloans.reminder-interval-ms=3600000",
+		"application.mail.lateloans.lease-ms=3600000" })
+@AutoConfigureMockMvc
+public class LoanListingStatementsTest {
+
+	private static final int LOANS = 20;
+
+	@Autowired
+	MockMvc mvc;
+
+	@Autowired
+	BookRepository bookRepository;
+
+	@Autowired
+	LoanRepository loanRepository;
+
+	@Autowired
+	EntityManagerFactory entityManagerFactory;
+
+	SqlStatementCounter statements;
+	Book first;
+
+	@BeforeEach
+	public void setUp() {
+		statements = new SqlStatementCounter(entityManagerFactory);
+		for (int i = 0; i < LOANS; i++) {
+			Book book = bookRepository.save(Book.builder().isbn("isbn-" + i).tittle("Livro " + i).author("Autor").build());
+			loanRepository.save(Loan.builder().book(book).customer("Fulano").customerEmail("fulano@email.com")
+					.loanDate(LocalDate.now()).returned(true).build());
+			if (i == 0) {
+				first = book;
+			}
+		}
+		for (int i = 0; i < LOANS; i++) {
+			loanRepository.save(Loan.builder().book(first).customer("Cliente " + i).loanDate(LocalDate.now()).returned(true).build());
+		}
+	}
+
+	@AfterEach
+	public void tearDown() {
+		loanRepository.deleteAllInBatch();
+		bookRepository.deleteAllInBatch();
+	}
+
+	@Test
+	@DisplayName("Deve listar uma página de empréstimos com uma consulta e um count")
+	public void findLoansStatementsTest() throws Exception {
+		long count = statements.count(() -> mvc
+				.perform(MockMvcRequestBuilders.get("/api/loans?isbn=none&customer=Fulano&page=0&size=10")
+						.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("content", Matchers.hasSize(10)))
+				.andExpect(jsonPath("content[0].book.tittle").value("Livro 0"))
+				.andExpect(jsonPath("totalElements").value(LOANS)));
+
+		assertThat(count).isEqualTo(2);
+	}
+
+	@Test
+	@DisplayName("Deve listar empréstimos por cursor com uma única consulta")
+	public void findLoansByCursorStatementsTest() throws Exception {
+		long count = statements.count(() -> mvc
+				.perform(MockMvcRequestBuilders.get("/api/loans?isbn=none&customer=Fulano&limit=10")
+						.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("content", Matchers.hasSize(10)))
+				.andExpect(jsonPath("content[9].isbn").value("isbn-9")));
+
+		assertThat(count).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("Deve listar os empréstimos de um livro buscando a página e o count, com o livro vindo do cache")
+	public void loansByBookStatementsTest() throws Exception {
+		long count = statements.count(() -> mvc
+				.perform(MockMvcRequestBuilders.get("/api/books/" + first.getId() + "/loans?page=0&size=10")
+						.accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("content", Matchers.hasSize(10)))
+				.andExpect(jsonPath("totalElements").value(LOANS + 1)));
+
+		assertThat(count).isEqualTo(2);
+	}
+}
@@ -0,0 +1,33 @@
+package com.example.libraryapi.controller;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+/***
+ * Conta os statements SQL preparados pelo Hibernate durante uma ação (por exemplo, uma chamada
+ * ao endpoint pelo MockMvc), para que um N+1 nas listagens quebre o build.
+ *
+ * Só enxerga o que passa pelo Hibernate: os inserts via JdbcTemplate não entram na conta.
+ */
+public class SqlStatementCounter {
+
+	@FunctionalInterface
+	public interface Action {
+		void run() throws Exception;
+	}
+
+	private final Statistics statistics;
+
+	public SqlStatementCounter(EntityManagerFactory entityManagerFactory) {
+		this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		this.statistics.setStatisticsEnabled(true);
+	}
+
+	public long count(Action action) throws Exception {
+		statistics.clear();
+		action.run();
+		return statistics.getPrepareStatementCount();
+	}
+}
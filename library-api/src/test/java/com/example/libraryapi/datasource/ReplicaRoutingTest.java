@@ -0,0 +1,203 @@
+package com.example.libraryapi.datasource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.cookie;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.repository.BookRepository;
+import com.example.libraryapi.service.BookService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/***
+ * Primário e réplicas em H2 embarcados distintos, sem replicação entre eles: cada linha só existe
+ * no banco em que foi gravada, o que mostra de onde veio cada leitura. A replica-0 nunca responde.
+ */
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+		"spring.datasource.url=" + ReplicaRoutingTest.PRIMARY_URL,
+		"application.datasource.replica-urls=jdbc:h2:tcp://localhost:1/down," + ReplicaRoutingTest.REPLICA_A_URL + ","
+				+ ReplicaRoutingTest.REPLICA_B_URL,
+		"application.datasource.replica-connection-timeout-ms=250",
+		"application.datasource.replica-check-interval-ms=3600000",
+		"application.datasource.replica-lag-window-ms=" + ReplicaRoutingTest.LAG_WINDOW_MS,
+		"application.mail.outbox.poll-interval-ms=3600000",
+		"application.mail.lateloans.reminder-interval-ms=3600000",
+		"application.mail.lateloans.lease-ms=3600000" })
+@AutoConfigureMockMvc
+public class ReplicaRoutingTest {
+
+	static final String PRIMARY_URL = "jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1";
+	static final String REPLICA_A_URL = "jdbc:h2:mem:routing-replica-a;DB_CLOSE_DELAY=-1";
+	static final String REPLICA_B_URL = "jdbc:h2:mem:routing-replica-b;DB_CLOSE_DELAY=-1";
+	static final long LAG_WINDOW_MS = 2000;
+	private static final long REPLICA_BOOK_ID = 1000L;
+
+	private static boolean schemaCopied;
+
+	@Autowired
+	MockMvc mvc;
+
+	@Autowired
+	BookService bookService;
+
+	@Autowired
+	BookRepository bookRepository;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	ReplicaRoutingDataSource routingDataSource;
+
+	@Autowired
+	MeterRegistry meterRegistry;
+
+	JdbcTemplate replicaA = replica(REPLICA_A_URL);
+	JdbcTemplate replicaB = replica(REPLICA_B_URL);
+
+	@BeforeEach
+	public void setUp() {
+		if (!schemaCopied) {
+			List<String> ddl = jdbcTemplate.queryForList("script nodata", String.class);
+			ddl.stream().filter(statement -> !statement.startsWith("--")).forEach(statement -> {
+				replicaA.execute(statement);
+				replicaB.execute(statement);
+			});
+			schemaCopied = true;
+		}
+		for (JdbcTemplate database : new JdbcTemplate[] { jdbcTemplate, replicaA, replicaB }) {
+			database.update("delete from loan");
+			database.update("delete from book");
+		}
+		replicaA.update("insert into book (id, isbn, tittle, author, total_loans, version) values (?, 'replica-a', 'Livro', 'Autor', 0, 0)", REPLICA_BOOK_ID);
+		replicaB.update("insert into book (id, isbn, tittle, author, total_loans, version) values (?, 'replica-b', 'Livro', 'Autor', 0, 0)", REPLICA_BOOK_ID);
+		routingDataSource.checkReplicas();
+		ReplicaRoutingDataSource.release();
+	}
+
+	@Test
+	@DisplayName("Deve ler das réplicas de pé, em rodízio, nas consultas somente leitura dos serviços")
+	public void readFromReplicasTest() {
+		// execucao
+		List<String> servedBy = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			servedBy.add(bookService.getStats(REPLICA_BOOK_ID).get().getIsbn());
+		}
+
+		// verificacao
+		assertThat(servedBy).containsOnly("replica-a", "replica-b");
+		assertThat(servedBy).filteredOn("replica-a"::equals).hasSize(2);
+		assertThat(bookRepository.findById(REPLICA_BOOK_ID)).isEmpty();
+	}
+
+	@Test
+	@DisplayName("Deve tirar do rodízio a réplica que não responde")
+	public void skipReplicaDownTest() {
+		// cenario
+		double before = connections("replica-0");
+
+		// execucao
+		bookService.getStats(REPLICA_BOOK_ID);
+
+		// verificacao
+		assertThat(meterRegistry.get(ReplicaRoutingDataSource.REPLICA_UP_METRIC).tag("replica", "replica-0").gauge().value()).isZero();
+		assertThat(meterRegistry.get(ReplicaRoutingDataSource.REPLICA_UP_METRIC).tag("replica", "replica-1").gauge().value()).isEqualTo(1);
+		assertThat(connections("replica-0")).isEqualTo(before);
+	}
+
+	@Test
+	@DisplayName("Deve gravar no primário e ler do primário logo depois da escrita, mas não na requisição de outro cliente")
+	public void readYourWritesTest() throws Exception {
+		// execucao
+		Book saved = bookService.save(Book.builder().isbn("primary").tittle("Livro").author("Autor").build());
+
+		// verificacao
+		assertThat(jdbcTemplate.queryForObject("select count(*) from book where isbn = 'primary'", Integer.class)).isEqualTo(1);
+		assertThat(replicaA.queryForObject("select count(*) from book", Integer.class)).isEqualTo(1);
+		assertThat(bookService.getStats(saved.getId())).isPresent();
+		assertThat(bookService.getStats(REPLICA_BOOK_ID)).isEmpty();
+		assertThat(ReplicaRoutingDataSource.isPinned()).isTrue();
+		assertThat(bookService.getById(saved.getId())).isPresent();
+
+		mvc.perform(MockMvcRequestBuilders.get("/api/books/" + saved.getId() + "/stats").accept(MediaType.APPLICATION_JSON))
+			.andExpect(status().isNotFound());
+		assertThat(bookService.getStats(REPLICA_BOOK_ID)).isPresent();
+		assertThat(ReplicaRoutingDataSource.isPinned()).isFalse();
+	}
+
+	@Test
+	@DisplayName("Deve ler do primário nas requisições seguintes do cliente que escreveu, enquanto vale o cookie")
+	public void readYourWritesAcrossRequestsTest() throws Exception {
+		// execucao
+		Cookie marker = mvc.perform(MockMvcRequestBuilders.post("/api/books")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"isbn\":\"primary\",\"tittle\":\"Livro\",\"author\":\"Autor\"}"))
+			.andExpect(status().isCreated())
+			.andExpect(cookie().exists(ReplicaReleaseFilter.COOKIE))
+			.andExpect(cookie().httpOnly(ReplicaReleaseFilter.COOKIE, true))
+			.andReturn().getResponse().getCookie(ReplicaReleaseFilter.COOKIE);
+		Long id = jdbcTemplate.queryForObject("select id from book where isbn = 'primary'", Long.class);
+
+		// verificacao
+		assertThat(Long.parseLong(marker.getValue())).isGreaterThan(System.currentTimeMillis());
+		assertThat(ReplicaRoutingDataSource.isPinned()).isFalse();
+		mvc.perform(MockMvcRequestBuilders.get("/api/books/" + id + "/stats").cookie(marker).accept(MediaType.APPLICATION_JSON))
+			.andExpect(status().isOk())
+			.andExpect(cookie().doesNotExist(ReplicaReleaseFilter.COOKIE));
+		mvc.perform(MockMvcRequestBuilders.get("/api/books/" + id + "/stats").accept(MediaType.APPLICATION_JSON))
+			.andExpect(status().isNotFound());
+
+		Cookie forged = new Cookie(ReplicaReleaseFilter.COOKIE, Long.toString(Long.MAX_VALUE));
+		mvc.perform(MockMvcRequestBuilders.get("/api/books/" + REPLICA_BOOK_ID + "/stats").cookie(forged).accept(MediaType.APPLICATION_JSON))
+			.andExpect(status().isOk());
+		Thread.sleep(LAG_WINDOW_MS + 100);
+		mvc.perform(MockMvcRequestBuilders.get("/api/books/" + id + "/stats").cookie(marker).accept(MediaType.APPLICATION_JSON))
+			.andExpect(status().isNotFound());
+	}
+
+	@Test
+	@DisplayName("Deve voltar às réplicas depois da janela de atraso numa thread que não passa pelo fim de requisição")
+	public void pinExpiresOutsideRequestsTest() throws Exception {
+		// cenario: uma thread de job que escreveu
+		bookService.save(Book.builder().isbn("primary").tittle("Livro").author("Autor").build());
+		assertThat(bookService.getStats(REPLICA_BOOK_ID)).isEmpty();
+
+		// execucao
+		Thread.sleep(LAG_WINDOW_MS + 100);
+
+		// verificacao
+		assertThat(ReplicaRoutingDataSource.isPinned()).isFalse();
+		assertThat(bookService.getStats(REPLICA_BOOK_ID)).isPresent();
+	}
+
+	private double connections(String target) {
+		return meterRegistry.get(ReplicaRoutingDataSource.CONNECTIONS_METRIC).tag("target", target).counter().count();
+	}
+
+	private static JdbcTemplate replica(String url) {
+		return new JdbcTemplate(new DriverManagerDataSource(url, "sa", ""));
+	}
+}
@@ -0,0 +1,28 @@
+package com.example.libraryapi.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class BookAvailabilityIndexTest {
+	
+	@Test
+	@DisplayName("Deve marcar e desmarcar livros emprestados")
+	public void markLoanedAndReturnedTest() {
+		BookAvailabilityIndex index = new BookAvailabilityIndex();
+		index.load(Arrays.asList(1L, 5L, Integer.MAX_VALUE + 10L));
+		
+		index.markLoaned(7L);
+		index.markReturned(5L);
+		
+		assertThat(index.isReady()).isTrue();
+		assertThat(index.isLoaned(1L)).isTrue();
+		assertThat(index.isLoaned(5L)).isFalse();
+		assertThat(index.isLoaned(7L)).isTrue();
+		assertThat(index.isLoaned(Integer.MAX_VALUE + 10L)).isTrue();
+		assertThat(index.loanedCount()).isEqualTo(3);
+	}
+}
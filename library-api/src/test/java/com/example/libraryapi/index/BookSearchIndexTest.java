@@ -0,0 +1,64 @@
+package com.example.libraryapi.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.example.libraryapi.model.Book;
+
+public class BookSearchIndexTest {
+	
+	BookSearchIndex index;
+	
+	@BeforeEach
+	public void setUp() {
+		index = new BookSearchIndex();
+		index.index(Book.builder().id(1L).tittle("Dom Casmurro").author("Machado de Assis").build());
+		index.index(Book.builder().id(2L).tittle("Memórias Póstumas de Brás Cubas").author("Machado de Assis").build());
+		index.index(Book.builder().id(3L).tittle("O Alienista").author("Machado de Assis").build());
+		index.index(Book.builder().id(4L).tittle("Machado, uma biografia").author("Fulano").build());
+	}
+	
+	@Test
+	@DisplayName("Deve buscar ignorando maiúsculas e acentos")
+	public void searchFoldingTest() {
+		assertThat(index.search("MEMORIAS postumas")).containsExactly(2L);
+		assertThat(index.search("brás")).containsExactly(2L);
+	}
+	
+	@Test
+	@DisplayName("Deve ordenar por relevância: termo no título pesa mais que no autor")
+	public void searchRankingTest() {
+		assertThat(index.search("machado")).containsExactly(4L, 1L, 2L, 3L);
+	}
+	
+	@Test
+	@DisplayName("Deve somar os pesos quando o termo está no título e no autor")
+	public void searchTittleAndAuthorTest() {
+		index.index(Book.builder().id(5L).tittle("Machado por Machado").author("Machado de Assis").build());
+		
+		assertThat(index.search("machado")).containsExactly(5L, 4L, 1L, 2L, 3L);
+		assertThat(index.search("assis machado")).containsExactly(5L, 1L, 2L, 3L);
+	}
+	
+	@Test
+	@DisplayName("Deve exigir todos os termos da consulta")
+	public void searchAllTermsTest() {
+		assertThat(index.search("machado alienista")).containsExactly(3L);
+		assertThat(index.search("machado inexistente")).isEmpty();
+	}
+	
+	@Test
+	@DisplayName("Deve refletir atualizações e exclusões")
+	public void updateAndRemoveTest() {
+		index.index(Book.builder().id(1L).tittle("Quincas Borba").author("Machado de Assis").build());
+		index.remove(3L);
+		
+		assertThat(index.search("casmurro")).isEmpty();
+		assertThat(index.search("quincas")).containsExactly(1L);
+		assertThat(index.search("alienista")).isEmpty();
+		assertThat(index.size()).isEqualTo(3);
+	}
+}
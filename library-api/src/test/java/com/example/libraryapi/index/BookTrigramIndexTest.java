@@ -0,0 +1,78 @@
+package com.example.libraryapi.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.example.libraryapi.model.Book;
+
+public class BookTrigramIndexTest {
+	
+	BookTrigramIndex index;
+	
+	@BeforeEach
+	public void setUp() {
+		index = new BookTrigramIndex();
+		index.index(Book.builder().id(1L).tittle("Dom Casmurro").author("Machado de Assis").isbn("978-01").build());
+		index.index(Book.builder().id(2L).tittle("O Cortiço").author("Aluísio Azevedo").isbn("978-02").build());
+		index.index(Book.builder().id(3L).tittle("Quincas Borba").author("Machado de Assis").isbn("854-03").build());
+		index.markReady();
+	}
+	
+	@Test
+	@DisplayName("Deve retornar candidatos para um trecho do meio da palavra, ignorando maiúsculas")
+	public void substringCandidatesTest() {
+		assertThat(index.candidates(Book.builder().author("SSIS").build())).containsExactly(1, 3);
+		assertThat(index.candidates(Book.builder().tittle("ncas").author("assis").build())).containsExactly(3);
+		assertThat(index.candidates(Book.builder().isbn("978").build())).containsExactly(1, 2);
+	}
+	
+	@Test
+	@DisplayName("Deve retornar lista vazia quando algum trigrama não existe")
+	public void noCandidatesTest() {
+		assertThat(index.candidates(Book.builder().author("xyz").build())).isEmpty();
+	}
+	
+	@Test
+	@DisplayName("Deve retornar null quando não consegue restringir a busca")
+	public void cannotNarrowTest() {
+		assertThat(index.candidates(Book.builder().author("as").build())).isNull();
+		assertThat(index.candidates(new Book())).isNull();
+		
+		index.clear();
+		assertThat(index.candidates(Book.builder().author("assis").build())).isNull();
+	}
+	
+	@Test
+	@DisplayName("Deve remover os trigramas de um livro excluído")
+	public void removeTest() {
+		index.remove(Book.builder().id(1L).tittle("Dom Casmurro").author("Machado de Assis").isbn("978-01").build());
+		
+		assertThat(index.candidates(Book.builder().author("assis").build())).containsExactly(3);
+		assertThat(index.candidates(Book.builder().tittle("casmurro").build())).isEmpty();
+	}
+	
+	@Test
+	@DisplayName("Deve remover pelo id os trigramas de um livro excluído em outro nó")
+	public void removeByIdTest() {
+		index.remove(1L);
+		
+		assertThat(index.candidates(Book.builder().author("assis").build())).containsExactly(3);
+		assertThat(index.candidates(Book.builder().isbn("978").build())).containsExactly(2);
+		assertThat(index.covers(2, 3L)).isTrue();
+	}
+	
+	@Test
+	@DisplayName("Deve cobrir a tabela só com a mesma contagem e o mesmo maior id")
+	public void coversTest() {
+		assertThat(index.covers(3, 3L)).isTrue();
+		assertThat(index.covers(4, 4L)).isFalse();
+		assertThat(index.covers(3, 4L)).isFalse();
+		assertThat(index.covers(2, 3L)).isFalse();
+		
+		index.clear();
+		assertThat(index.covers(0, null)).isTrue();
+	}
+}
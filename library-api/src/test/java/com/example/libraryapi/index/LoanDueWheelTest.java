@@ -0,0 +1,85 @@
+package com.example.libraryapi.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class LoanDueWheelTest {
+
+	private static final LocalDateTime NOW = LocalDateTime.of(2021, 4, 1, 10, 30, 15);
+
+	LoanDueWheel wheel;
+
+	@BeforeEach
+	public void setUp() {
+		wheel = new LoanDueWheel(ZoneOffset.UTC);
+	}
+
+	@Test
+	@DisplayName("Deve disparar cada empréstimo no minuto do vencimento, e só uma vez")
+	public void fireAtDueMinuteTest() {
+		wheel.load(Collections.emptyMap(), NOW);
+		wheel.schedule(1L, NOW.plusMinutes(5));
+		wheel.schedule(2L, NOW.plusMinutes(5).plusSeconds(30));
+		wheel.schedule(3L, NOW.plusMinutes(6));
+
+		assertThat(wheel.advance(NOW.plusMinutes(4))).isEmpty();
+		assertThat(wheel.advance(NOW.plusMinutes(5))).containsExactlyInAnyOrder(1L, 2L);
+		assertThat(wheel.advance(NOW.plusMinutes(5))).isEmpty();
+		assertThat(wheel.advance(NOW.plusMinutes(10))).containsExactly(3L);
+		assertThat(wheel.size()).isZero();
+	}
+
+	@Test
+	@DisplayName("Deve descer de nível os vencimentos distantes sem perder o minuto")
+	public void cascadeFarDueDatesTest() {
+		wheel.load(Collections.emptyMap(), NOW);
+		wheel.schedule(1L, NOW.plusHours(3));
+		wheel.schedule(2L, NOW.plusDays(4));
+		wheel.schedule(3L, NOW.plusDays(120));
+
+		assertThat(wheel.advance(NOW.plusHours(3).minusMinutes(1))).isEmpty();
+		assertThat(wheel.advance(NOW.plusHours(3))).containsExactly(1L);
+		assertThat(wheel.advance(NOW.plusDays(4).minusMinutes(1))).isEmpty();
+		assertThat(wheel.advance(NOW.plusDays(4))).containsExactly(2L);
+		assertThat(wheel.advance(NOW.plusDays(120).minusMinutes(1))).isEmpty();
+		assertThat(wheel.advance(NOW.plusDays(120))).containsExactly(3L);
+	}
+
+	@Test
+	@DisplayName("Deve cancelar e reagendar empréstimos")
+	public void cancelAndRescheduleTest() {
+		wheel.load(Collections.emptyMap(), NOW);
+		wheel.schedule(1L, NOW.plusMinutes(1));
+		wheel.schedule(2L, NOW.plusMinutes(1));
+
+		wheel.cancel(1L);
+		wheel.schedule(2L, NOW.plusHours(2));
+
+		assertThat(wheel.advance(NOW.plusMinutes(1))).isEmpty();
+		assertThat(wheel.advance(NOW.plusHours(2))).containsExactly(2L);
+	}
+
+	@Test
+	@DisplayName("Deve disparar na primeira volta os empréstimos já vencidos na carga")
+	public void fireExpiredOnLoadTest() {
+		Map<Long, LocalDateTime> dueDates = new HashMap<>();
+		dueDates.put(1L, NOW.minusDays(2));
+		dueDates.put(2L, NOW.plusDays(2));
+
+		wheel.schedule(9L, NOW);
+		wheel.load(dueDates, NOW);
+
+		assertThat(wheel.isReady()).isTrue();
+		assertThat(wheel.size()).isEqualTo(2);
+		assertThat(wheel.advance(NOW)).containsExactly(1L);
+	}
+}
@@ -0,0 +1,202 @@
+package com.example.libraryapi.mail;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mockingDetails;
+
+import java.time.LocalDateTime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.mail.internet.MimeMessage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.ArgumentMatchers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.mail.MailSenderAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.libraryapi.model.OutboxMail;
+import com.example.libraryapi.model.OutboxMail.Status;
+import com.example.libraryapi.repository.OutboxMailRepository;
+import com.example.libraryapi.service.EmailService;
+import com.example.libraryapi.service.impl.EmailServiceImpl;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/***
+ * Outbox contra um SMTP local (GreenMail). Os workers rodam em outras threads, então o teste
+ * não pode ficar dentro da transação do @DataJpaTest.
+ */
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@ImportAutoConfiguration(MailSenderAutoConfiguration.class)
+@Import({ EmailServiceImpl.class, MailOutboxDispatcher.class, SimpleMeterRegistry.class })
+@TestPropertySource(properties = {
+		"application.mail.outbox.workers=4",
+		"application.mail.outbox.max-in-flight=8",
+		"application.mail.outbox.batch-size=4",
+		"application.mail.outbox.max-attempts=2",
+		"application.mail.outbox.backoff-ms=0",
+		"application.mail.outbox.poll-interval-ms=3600000" })
+public class MailOutboxDispatcherTest {
+	
+	@RegisterExtension
+	static GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+	
+	@Autowired
+	EmailService emailService;
+	
+	@Autowired
+	MailOutboxDispatcher dispatcher;
+	
+	@Autowired
+	OutboxMailRepository repository;
+	
+	@SpyBean
+	JavaMailSender mailSender;
+	
+	@AfterEach
+	public void tearDown() {
+		repository.deleteAll();
+	}
+	
+	@Test
+	@DisplayName("Deve entregar os emails da outbox pelo SMTP em lotes, respeitando o limite de envios simultâneos")
+	public void deliverOutboxTest() throws Exception {
+		// cenario
+		Map<String, String> mails = new LinkedHashMap<>();
+		for (int i = 0; i < 20; i++) {
+			mails.put("cliente" + i + "@email.com", "Devolva o livro " + i);
+		}
+		emailService.sendMails(mails);
+		
+		// execucao
+		int firstRound = dispatcher.dispatch();
+		drain();
+		
+		// verificacao
+		assertThat(firstRound).isEqualTo(8);
+		MimeMessage[] received = greenMail.getReceivedMessages();
+		assertThat(received).hasSize(20);
+		assertThat(received[0].getAllRecipients()).hasSize(1);
+		assertThat(repository.findAll()).extracting(OutboxMail::getStatus).containsOnly(Status.SENT);
+		
+		// uma chamada (uma conexão SMTP) por lote de até 4 emails
+		List<Integer> batches = mockingDetails(mailSender).getInvocations().stream()
+				.filter(invocation -> invocation.getMethod().getName().equals("send"))
+				.map(invocation -> ((Object[]) invocation.getRawArguments()[0]).length)
+				.collect(Collectors.toList());
+		assertThat(batches).hasSize(5).containsOnly(4);
+	}
+	
+	@Test
+	@DisplayName("Não deve enfileirar de novo a mesma mensagem para o mesmo destinatário no mesmo dia")
+	public void deduplicateTest() {
+		// execucao
+		emailService.sendMails(Collections.singletonMap("fulano@email.com", "Devolva o livro"));
+		Map<String, String> mails = new LinkedHashMap<>();
+		mails.put("fulano@email.com", "Devolva o livro");
+		mails.put("beltrano@email.com", "Devolva o livro");
+		emailService.sendMails(mails);
+		
+		// verificacao
+		assertThat(repository.findAll()).extracting(OutboxMail::getRecipient)
+			.containsExactlyInAnyOrder("fulano@email.com", "beltrano@email.com");
+	}
+	
+	@Test
+	@DisplayName("Deve tentar de novo e mandar para DEAD o email que esgotou as tentativas, sem afetar o resto do lote")
+	public void deadLetterTest() throws Exception {
+		// cenario: endereço que o JavaMail recusa a cada tentativa
+		Map<String, String> mails = new LinkedHashMap<>();
+		mails.put("endereco invalido@", "Devolva o livro");
+		mails.put("fulano@email.com", "Devolva o livro");
+		emailService.sendMails(mails);
+		
+		// execucao
+		dispatcher.dispatch();
+		awaitIdle();
+		OutboxMail afterFirstAttempt = byRecipient("endereco invalido@");
+		drain();
+		
+		// verificacao
+		assertThat(afterFirstAttempt.getStatus()).isEqualTo(Status.PENDING);
+		assertThat(afterFirstAttempt.getAttempts()).isEqualTo(1);
+		
+		OutboxMail dead = byRecipient("endereco invalido@");
+		assertThat(dead.getStatus()).isEqualTo(Status.DEAD);
+		assertThat(dead.getAttempts()).isEqualTo(2);
+		assertThat(dead.getLastError()).isNotBlank();
+		assertThat(byRecipient("fulano@email.com").getStatus()).isEqualTo(Status.SENT);
+		assertThat(greenMail.getReceivedMessages()).hasSize(1);
+	}
+	
+	@Test
+	@DisplayName("Não deve gravar o resultado de um email que outro worker reservou de novo durante o envio")
+	public void reclaimedDuringSendTest() throws Exception {
+		// cenario: a reserva vence no meio do envio e outro worker pega o email
+		emailService.sendMails(Collections.singletonMap("fulano@email.com", "Devolva o livro"));
+		LocalDateTime later = LocalDateTime.now().plusHours(1);
+		doAnswer(invocation -> {
+			repository.claim(repository.findDueIds(Arrays.asList(Status.PENDING, Status.SENDING), later, PageRequest.of(0, 10)),
+					Status.SENDING, Arrays.asList(Status.PENDING, Status.SENDING), "outro-worker", later, later.plusMinutes(1));
+			return invocation.callRealMethod();
+		}).when(mailSender).send(ArgumentMatchers.<MimeMessage[]> any());
+		
+		// execucao
+		int claimed = dispatcher.dispatch();
+		awaitIdle();
+		
+		// verificacao
+		assertThat(claimed).isEqualTo(1);
+		assertThat(greenMail.getReceivedMessages()).hasSize(1);
+		OutboxMail mail = byRecipient("fulano@email.com");
+		assertThat(mail.getStatus()).isEqualTo(Status.SENDING);
+		assertThat(mail.getLease()).isEqualTo("outro-worker");
+		assertThat(mail.getAttempts()).isZero();
+	}
+	
+	private OutboxMail byRecipient(String recipient) {
+		return repository.findAll().stream().filter(mail -> mail.getRecipient().equals(recipient)).findFirst().get();
+	}
+	
+	private void drain() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (repository.countByStatusIn(Arrays.asList(Status.PENDING, Status.SENDING)) > 0
+				&& System.currentTimeMillis() < deadline) {
+			dispatcher.dispatch();
+			awaitIdle();
+		}
+	}
+	
+	private void awaitIdle() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!dispatcher.isIdle() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.example.libraryapi.mapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mapstruct.factory.Mappers;
+import org.modelmapper.ModelMapper;
+
+import com.example.libraryapi.dto.BookDTO;
+import com.example.libraryapi.dto.LoanDTO;
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.model.Loan;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/***
+ * Garante que os mappers gerados produzem o mesmo JSON que o ModelMapper produzia.
+ */
+public class MapperTest {
+	
+	BookMapper bookMapper = Mappers.getMapper(BookMapper.class);
+	LoanMapper loanMapper = Mappers.getMapper(LoanMapper.class);
+	ModelMapper modelMapper = new ModelMapper();
+	ObjectMapper objectMapper = new ObjectMapper();
+	
+	@Test
+	@DisplayName("Deve converter Book para BookDTO como o ModelMapper")
+	public void bookToDtoTest() throws Exception {
+		Book book = createBook();
+		
+		String expected = objectMapper.writeValueAsString(modelMapper.map(book, BookDTO.class));
+		String json = objectMapper.writeValueAsString(bookMapper.toDto(book));
+		
+		assertThat(json).isEqualTo(expected);
+	}
+	
+	@Test
+	@DisplayName("Deve converter BookDTO para Book como o ModelMapper")
+	public void dtoToBookTest() {
+		BookDTO dto = BookDTO.builder().id(1L).tittle("As aventuras").isbn("123").build();
+		
+		Book expected = modelMapper.map(dto, Book.class);
+		Book book = bookMapper.toEntity(dto);
+		
+		assertThat(book).isEqualTo(expected);
+		assertThat(book.getLoans()).isNull();
+	}
+	
+	@Test
+	@DisplayName("Deve converter Loan para LoanDTO como o ModelMapper")
+	public void loanToDtoTest() throws Exception {
+		Loan loan = createLoan();
+		
+		LoanDTO expected = modelMapper.map(loan, LoanDTO.class);
+		expected.setBook(modelMapper.map(loan.getBook(), BookDTO.class));
+		
+		assertThat(objectMapper.writeValueAsString(loanMapper.toDto(loan)))
+			.isEqualTo(objectMapper.writeValueAsString(expected));
+	}
+	
+	@Test
+	@DisplayName("Deve converter Loan para LoanDTO com isbn do livro")
+	public void loanToDtoWithIsbnTest() throws Exception {
+		Loan loan = createLoan();
+		
+		LoanDTO expected = modelMapper.map(loan, LoanDTO.class);
+		expected.setBook(modelMapper.map(loan.getBook(), BookDTO.class));
+		expected.setIsbn(loan.getBook().getIsbn());
+		
+		assertThat(objectMapper.writeValueAsString(loanMapper.toDtoWithIsbn(loan)))
+			.isEqualTo(objectMapper.writeValueAsString(expected));
+	}
+	
+	private Book createBook() {
+		return Book.builder().id(1L).tittle("As aventuras").author("Fulano").isbn("123").build();
+	}
+	
+	private Loan createLoan() {
+		return Loan.builder()
+				.id(1L)
+				.customer("Fulano")
+				.customerEmail("fulano@email.com")
+				.book(createBook())
+				.loanDate(LocalDate.now())
+				.build();
+	}
+}
@@ -2,17 +2,28 @@ package com.example.libraryapi.repository;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import com.example.libraryapi.dto.BookStatsDTO;
 import com.example.libraryapi.model.Book;
 
 @ExtendWith(SpringExtension.class)
@@ -92,6 +103,122 @@ public class BookRepositoryTest {
 		assertThat(savedBook.getId()).isNotNull();
 	}
 	
+	@Test
+	@DisplayName("Deve buscar livros com id maior que o cursor, ordenados por id")
+	public void findByIdGreaterThanTest() {
+		// cenario
+		Book first = createdNewBook("123");
+		Book second = createdNewBook("456");
+		Book third = createdNewBook("789");
+		entityManager.persist(first);
+		entityManager.persist(second);
+		entityManager.persist(third);
+		
+		// execucao
+		List<Book> result = bookRepository.findByIdGreaterThanOrderByIdAsc(first.getId(), PageRequest.of(0, 1));
+		
+		// verificacao
+		assertThat(result).containsExactly(second);
+	}
+	
+	@Test
+	@DisplayName("Deve aplicar o filtro do Example apenas aos ids candidatos")
+	public void findAllMatchingWithIdsTest() {
+		// cenario
+		Book first = Book.builder().author("Machado de Assis").tittle("Dom Casmurro").isbn("123").build();
+		Book second = Book.builder().author("Machado de Assis").tittle("Quincas Borba").isbn("456").build();
+		Book third = Book.builder().author("Aluísio Azevedo").tittle("O Cortiço").isbn("789").build();
+		entityManager.persist(first);
+		entityManager.persist(second);
+		entityManager.persist(third);
+		
+		Example<Book> example = Example.of(Book.builder().author("SSIS").build(),
+				ExampleMatcher.matching()
+					.withIgnoreCase()
+					.withIgnoreNullValues()
+					.withStringMatcher(ExampleMatcher.StringMatcher.CONTAINING));
+		
+		// execucao
+		Page<Book> result = bookRepository.findAll(
+				BookSpecifications.matchingWithIds(example, Arrays.asList(first.getId(), third.getId())),
+				PageRequest.of(0, 10));
+		
+		// verificacao
+		assertThat(result.getContent()).containsExactly(first);
+		assertThat(result.getTotalElements()).isEqualTo(1);
+	}
+	
+	@Test
+	@DisplayName("Deve buscar livros por uma lista de isbns")
+	public void findByIsbnInTest() {
+		// cenario
+		Book first = createdNewBook("123");
+		Book second = createdNewBook("456");
+		entityManager.persist(first);
+		entityManager.persist(second);
+		entityManager.persist(createdNewBook("789"));
+		
+		// execucao
+		List<Book> result = bookRepository.findByIsbnIn(Arrays.asList("123", "456", "000"));
+		
+		// verificacao
+		assertThat(result).containsExactlyInAnyOrder(first, second);
+	}
+	
+	@Test
+	@DisplayName("Deve manter o livro no mesmo bucket do HashSet antes e depois de ganhar id")
+	public void equalsAcrossPersistTest() {
+		// cenario
+		Book book = createdNewBook("123");
+		HashSet<Book> books = new HashSet<>(Arrays.asList(book));
+		
+		// execucao
+		entityManager.persistAndFlush(book);
+		
+		// verificacao
+		assertThat(books).contains(book);
+		assertThat(Book.builder().id(book.getId()).build()).isEqualTo(book);
+		assertThat(Book.builder().isbn("123").build()).isNotEqualTo(book);
+		assertThat(createdNewBook("123")).isEqualTo(createdNewBook("123"));
+		assertThat(createdNewBook("123")).isNotEqualTo(createdNewBook("456"));
+	}
+	
+	@Test
+	@DisplayName("Não deve sobrescrever os contadores de empréstimo ao atualizar o livro")
+	public void updateKeepsCountersTest() {
+		// cenario
+		Book book = createdNewBook("123");
+		entityManager.persistAndFlush(book);
+		entityManager.getEntityManager()
+			.createNativeQuery("update book set total_loans = 5, last_loan_date = current_date where id = " + book.getId())
+			.executeUpdate();
+		
+		// execucao
+		book.setTittle("Outro titulo");
+		bookRepository.saveAndFlush(book);
+		
+		// verificacao
+		BookStatsDTO stats = bookRepository.findStatsById(book.getId()).get();
+		assertThat(stats.getTotalLoans()).isEqualTo(5);
+		assertThat(stats.getLastLoanDate()).isEqualTo(LocalDate.now());
+	}
+	
+	@Test
+	@DisplayName("Deve recusar a gravação de um livro a partir de uma versão antiga")
+	public void staleVersionTest() {
+		// cenario
+		Book book = createdNewBook("123");
+		entityManager.persistAndFlush(book);
+		Book stale = Book.builder().id(book.getId()).isbn("123").tittle("Titulo antigo").author("Autor").version(book.getVersion()).build();
+		book.setTittle("Titulo novo");
+		entityManager.flush();
+		entityManager.detach(book);
+		
+		// execucao / verificacao
+		assertThat(book.getVersion()).isEqualTo(stale.getVersion() + 1);
+		Assertions.assertThrows(ObjectOptimisticLockingFailureException.class, () -> bookRepository.saveAndFlush(stale));
+	}
+	
 	@Test
 	@DisplayName("Deve excluir um livro")
 	public void deleteBook() {
@@ -3,19 +3,29 @@ package com.example.libraryapi.repository;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
+import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import com.example.libraryapi.dto.BookStatsDTO;
+import com.example.libraryapi.dto.LateLoanDTO;
+import com.example.libraryapi.dto.LoanDTO;
+import com.example.libraryapi.dto.LoanDueDTO;
 import com.example.libraryapi.model.Book;
 import com.example.libraryapi.model.Loan;
 
@@ -30,6 +40,9 @@ public class LoanRepositoryTest {
 	@Autowired
 	LoanRepository repository;
 
+	@Autowired
+	BookRepository bookRepository;
+
 	@Test
 	@DisplayName("deve verificar se existe empréstimo não devolvido para o livro.")
 	public void existsByBookAndNotReturnedTest() {
@@ -42,6 +55,104 @@ public class LoanRepositoryTest {
 		assertThat(exists).isTrue();
 	}
 
+	@Test
+	@DisplayName("Deve registrar o empréstimo pelo isbn em um único insert")
+	public void insertOpenLoanTest() {
+		// cenario
+		Book book = BookRepositoryTest.createdNewBook("123");
+		entityManager.persistAndFlush(book);
+		
+		// execucao
+		Loan loan = repository.insertOpenLoan("123", "Fulano", "fulano@email.com", LocalDate.now(), LocalDateTime.now().plusDays(4));
+		
+		// verificacao
+		assertThat(loan.getId()).isNotNull();
+		assertThat(loan.getCustomerHash()).isEqualTo(Loan.customerHash("fulano@email.com"));
+		assertThat(loan.getBook().getId()).isEqualTo(book.getId());
+		assertThat(repository.existsByBookAndNotReturned(book)).isTrue();
+	}
+	
+	@Test
+	@DisplayName("Deve retornar null ao registrar empréstimo de isbn inexistente")
+	public void insertOpenLoanInexistentIsbnTest() {
+		assertThat(repository.insertOpenLoan("123", "Fulano", "fulano@email.com", LocalDate.now(), LocalDateTime.now().plusDays(4))).isNull();
+	}
+	
+	@Test
+	@DisplayName("Deve impedir no banco um segundo empréstimo aberto para o mesmo livro")
+	public void insertOpenLoanTwiceTest() {
+		// cenario
+		entityManager.persistAndFlush(BookRepositoryTest.createdNewBook("123"));
+		repository.insertOpenLoan("123", "Fulano", "fulano@email.com", LocalDate.now(), LocalDateTime.now().plusDays(4));
+		
+		// execucao
+		Throwable exception = Assertions.catchThrowable(
+				() -> repository.insertOpenLoan("123", "Beltrano", "beltrano@email.com", LocalDate.now(), LocalDateTime.now().plusDays(4)));
+		
+		// verificacao
+		assertThat(exception).isInstanceOf(DataIntegrityViolationException.class);
+		assertThat(Loan.isOpenBookConflict(exception)).isTrue();
+	}
+	
+	@Test
+	@DisplayName("Deve listar os livros com empréstimo em aberto")
+	public void findBookIdsWithOpenLoansTest() {
+		Loan loan = createAndPersistLoan(LocalDate.now());
+		
+		Book returnedBook = BookRepositoryTest.createdNewBook("456");
+		entityManager.persist(returnedBook);
+		entityManager.persist(Loan.builder().book(returnedBook).customer("Fulano").loanDate(LocalDate.now()).returned(true).build());
+		
+		List<Long> result = repository.findBookIdsWithOpenLoans();
+		
+		assertThat(result).containsExactly(loan.getBook().getId());
+	}
+
+	@Test
+	@DisplayName("Deve gravar empréstimos em lote preenchendo os ids")
+	public void insertOpenLoansTest() {
+		// cenario
+		Book first = entityManager.persistAndFlush(BookRepositoryTest.createdNewBook("123"));
+		Book second = entityManager.persistAndFlush(BookRepositoryTest.createdNewBook("456"));
+		LocalDateTime dueDate = LocalDateTime.now().plusDays(4).withNano(0);
+		Loan firstLoan = Loan.builder().book(first).customer("Fulano").loanDate(LocalDate.now()).dueDate(dueDate).build();
+		Loan secondLoan = Loan.builder().book(second).customer("Fulano").loanDate(LocalDate.now()).dueDate(dueDate).build();
+		
+		// execucao
+		repository.insertOpenLoans(Arrays.asList(firstLoan, secondLoan));
+		
+		// verificacao
+		assertThat(firstLoan.getId()).isNotNull();
+		assertThat(secondLoan.getId()).isGreaterThan(firstLoan.getId());
+		assertThat(repository.findOpenBookIds(Arrays.asList(first.getId(), second.getId(), 999L)))
+			.containsExactlyInAnyOrder(first.getId(), second.getId());
+		assertThat(repository.findAllWithBookByIdIn(Arrays.asList(firstLoan.getId(), secondLoan.getId())))
+			.extracting(loan -> loan.getBook().getIsbn() + " " + loan.getDueDate())
+			.containsExactlyInAnyOrder("123 " + dueDate, "456 " + dueDate);
+	}
+	
+	@Test
+	@DisplayName("Deve distinguir no lote o segundo empréstimo aberto das demais violações de integridade")
+	public void insertOpenLoansConflictTest() {
+		// cenario
+		Book book = entityManager.persistAndFlush(BookRepositoryTest.createdNewBook("123"));
+		LocalDateTime dueDate = LocalDateTime.now().plusDays(4);
+		Loan first = Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).dueDate(dueDate).build();
+		Loan second = Loan.builder().book(book).customer("Beltrano").loanDate(LocalDate.now()).dueDate(dueDate).build();
+		Loan tooLong = Loan.builder().book(book).customer(String.join("", Collections.nCopies(101, "x")))
+				.loanDate(LocalDate.now()).dueDate(dueDate).build();
+		
+		// execucao
+		Throwable conflict = Assertions.catchThrowable(() -> repository.insertOpenLoans(Arrays.asList(first, second)));
+		Throwable other = Assertions.catchThrowable(() -> repository.insertOpenLoans(Collections.singletonList(tooLong)));
+		
+		// verificacao
+		assertThat(conflict).isInstanceOf(DataIntegrityViolationException.class);
+		assertThat(Loan.isOpenBookConflict(conflict)).isTrue();
+		assertThat(other).isInstanceOf(DataIntegrityViolationException.class);
+		assertThat(Loan.isOpenBookConflict(other)).isFalse();
+	}
+	
 	@Test
 	@DisplayName("Deve buscar empréstimos pelo isbn do livro ou customer")
 	public void findByBookIsbnOrCutomerTest() {
@@ -50,36 +161,222 @@ public class LoanRepositoryTest {
 		Loan loan = createAndPersistLoan(LocalDate.now());
 		
 		// execucao
-		Page<Loan> result = repository.findByBookIsbnOrCustomer("123", "Fulano", PageRequest.of(0, 10));
+		Page<LoanDTO> result = repository.findByBookIsbnOrCustomer("123", "Fulano", PageRequest.of(0, 10));
 		
 		//verificacao
 		assertThat(result.getContent()).hasSize(1);
-		assertThat(result.getContent()).contains(loan);
+		LoanDTO dto = result.getContent().get(0);
+		assertThat(dto.getId()).isEqualTo(loan.getId());
+		assertThat(dto.getIsbn()).isEqualTo("123");
+		assertThat(dto.getBook().getId()).isEqualTo(loan.getBook().getId());
+		assertThat(dto.getBook().getIsbn()).isEqualTo("123");
 		assertThat(result.getPageable().getPageSize()).isEqualTo(10);
 		assertThat(result.getPageable().getPageNumber()).isEqualTo(0);
 		assertThat(result.getTotalElements()).isEqualTo(1);
 	}
 
 	@Test
-	@DisplayName("Deve obter empréstimos cuja data emprestimo for menor ou igual a tres dias atras e nao retornados")
-	public void findByLoanDateLessThanAndNotReturnedTest() {
-		 Loan loan = createAndPersistLoan( LocalDate.now().minusDays(5));
-		 
-		 List<Loan> result = repository.findByLoanDateLessThanAndNotReturned(LocalDate.now().minusDays(4));
-		 
-		 assertThat(result).hasSize(1).contains(loan);
+	@DisplayName("Deve buscar os empréstimos de um livro com os dados do livro e sem o isbn no empréstimo")
+	public void findByBookIdTest() {
+		// cenario
+		Loan loan = createAndPersistLoan(LocalDate.now());
+		
+		// execucao
+		Page<LoanDTO> result = repository.findByBookId(loan.getBook().getId(), PageRequest.of(0, 10));
+		
+		// verificacao
+		assertThat(result.getTotalElements()).isEqualTo(1);
+		LoanDTO dto = result.getContent().get(0);
+		assertThat(dto.getCustomer()).isEqualTo("Fulano");
+		assertThat(dto.getIsbn()).isNull();
+		assertThat(dto.getBook().getIsbn()).isEqualTo("123");
+	}
+	
+	@Test
+	@DisplayName("Deve obter os clientes com empréstimos vencidos, não devolvidos e ainda não avisados")
+	public void findCustomerEmailsToNotifyTest() {
+		// cenario
+		persistLoan("001", "Java", "a@email.com", LocalDateTime.now().minusMinutes(1));
+		persistLoan("002", "Spring", "b@email.com", LocalDateTime.now().plusMinutes(1));
+		Loan returned = persistLoan("003", "JPA", "c@email.com", LocalDateTime.now().minusDays(1));
+		returned.setReturned(true);
+		Loan notified = persistLoan("004", "JUnit", "d@email.com", LocalDateTime.now().minusDays(1));
+		notified.setNotifiedAt(LocalDateTime.now());
+		entityManager.flush();
+		
+		// execucao
+		List<String> result = repository.findCustomerEmailsToNotify(LocalDateTime.now(), 0, 1, PageRequest.of(0, 10));
+		
+		// verificacao
+		assertThat(result).containsExactly("a@email.com");
 	}
 	
 	@Test
-	@DisplayName("Deve retornar vazio quando não houver emprestimos atrasados.")
-	public void notFindByLoanDateLessThanAndNotReturnedTest() {
-		createAndPersistLoan(LocalDate.now());
-
-		List<Loan> result = repository.findByLoanDateLessThanAndNotReturned(LocalDate.now().minusDays(4));
-
+	@DisplayName("Deve retornar vazio quando não houver empréstimos vencidos.")
+	public void notFindCustomerEmailsToNotifyTest() {
+		persistLoan("001", "Java", "a@email.com", LocalDateTime.now().plusDays(4));
+		
+		List<String> result = repository.findCustomerEmailsToNotify(LocalDateTime.now(), 0, 1, PageRequest.of(0, 10));
+		
 		assertThat(result).isEmpty();
 	}
 	
+	@Test
+	@DisplayName("Deve trazer os livros vencidos de cada cliente e não trazê-los de novo depois de avisados")
+	public void findLoansToNotifyTest() {
+		// cenario
+		LocalDateTime dueDate = LocalDateTime.now().minusDays(1).withNano(0);
+		persistLoan("001", "Java", "b@email.com", dueDate);
+		persistLoan("002", "Spring", "a@email.com", dueDate);
+		persistLoan("003", "JPA", "b@email.com", dueDate);
+		persistLoan("004", "JUnit", "c@email.com", dueDate);
+		
+		// execucao
+		List<String> emails = repository.findCustomerEmailsToNotify(LocalDateTime.now(), 0, 1, PageRequest.of(0, 2));
+		List<LateLoanDTO> lateLoans = repository.findLoansToNotify(LocalDateTime.now(), emails);
+		repository.markNotified(lateLoans.stream().map(LateLoanDTO::getId).collect(Collectors.toList()), LocalDateTime.now());
+		
+		// verificacao
+		assertThat(emails).containsExactly("a@email.com", "b@email.com");
+		assertThat(lateLoans).extracting(LateLoanDTO::getTittle).containsExactly("Spring", "Java", "JPA");
+		assertThat(lateLoans).extracting(LateLoanDTO::getDueDate).containsOnly(dueDate);
+		assertThat(repository.findCustomerEmailsToNotify(LocalDateTime.now(), 0, 1, PageRequest.of(0, 2))).containsExactly("c@email.com");
+	}
+	
+	@Test
+	@DisplayName("Deve dividir os clientes a avisar em partições disjuntas pelo hash do email")
+	public void findCustomerEmailsToNotifyByPartitionTest() {
+		// cenario
+		List<String> emails = Arrays.asList("a@email.com", "b@email.com", "c@email.com", "d@email.com", "e@email.com");
+		for (int i = 0; i < emails.size(); i++) {
+			persistLoan("00" + i, "Livro " + i, emails.get(i), LocalDateTime.now().minusDays(1));
+		}
+		
+		// execucao
+		List<String> first = repository.findCustomerEmailsToNotify(LocalDateTime.now(), 0, 2, PageRequest.of(0, 10));
+		List<String> second = repository.findCustomerEmailsToNotify(LocalDateTime.now(), 1, 2, PageRequest.of(0, 10));
+		
+		// verificacao
+		assertThat(first).doesNotContainAnyElementsOf(second);
+		assertThat(first).allMatch(email -> Loan.customerHash(email) % 2 == 0);
+		assertThat(second).allMatch(email -> Loan.customerHash(email) % 2 == 1);
+		assertThat(first.size() + second.size()).isEqualTo(emails.size());
+	}
+	
+	@Test
+	@DisplayName("Não deve marcar de novo um empréstimo já avisado")
+	public void markNotifiedOnlyOnceTest() {
+		// cenario
+		Loan first = persistLoan("001", "Java", "a@email.com", LocalDateTime.now().minusDays(1));
+		Loan second = persistLoan("002", "JPA", "a@email.com", LocalDateTime.now().minusDays(1));
+		repository.markNotified(Arrays.asList(first.getId()), LocalDateTime.now());
+		
+		// execucao
+		int marked = repository.markNotified(Arrays.asList(first.getId(), second.getId()), LocalDateTime.now());
+		
+		// verificacao
+		assertThat(marked).isEqualTo(1);
+	}
+	
+	@Test
+	@DisplayName("Deve carregar os vencimentos e os empréstimos a avisar pelos ids disparados na roda")
+	public void findDueDatesAndLoansToNotifyByIdTest() {
+		// cenario
+		LocalDateTime dueDate = LocalDateTime.now().plusDays(1).withNano(0);
+		Loan open = persistLoan("001", "Java", "a@email.com", dueDate);
+		Loan returned = persistLoan("002", "Spring", "b@email.com", dueDate);
+		returned.setReturned(true);
+		entityManager.flush();
+		
+		// execucao
+		List<LoanDueDTO> dueDates = repository.findDueDatesToNotify();
+		List<LateLoanDTO> lateLoans = repository.findLoansToNotifyByIdIn(Arrays.asList(open.getId(), returned.getId()));
+		
+		// verificacao
+		assertThat(dueDates).extracting(LoanDueDTO::getId).containsExactly(open.getId());
+		assertThat(dueDates).extracting(LoanDueDTO::getDueDate).containsExactly(dueDate);
+		assertThat(lateLoans).extracting(LateLoanDTO::getTittle).containsExactly("Java");
+	}
+	
+	@Test
+	@DisplayName("Deve manter os contadores do livro a cada empréstimo e devolução")
+	public void recordCheckoutsAndReturnsTest() {
+		// cenario
+		Book book = BookRepositoryTest.createdNewBook("123");
+		entityManager.persistAndFlush(book);
+		Loan first = repository.insertOpenLoan("123", "Fulano", "fulano@email.com", LocalDate.now().minusDays(5), LocalDateTime.now());
+		repository.recordCheckouts(Collections.singletonList(first));
+		first = repository.findById(first.getId()).get();
+		first.setReturned(true);
+		first.setOpenBookId(null);
+		repository.saveAndFlush(first);
+		repository.recordReturns(Collections.singletonList(first));
+		
+		// execucao
+		Loan second = repository.insertOpenLoan("123", "Ciclano", "ciclano@email.com", LocalDate.now(), LocalDateTime.now().plusDays(4));
+		repository.recordCheckouts(Collections.singletonList(second));
+		repository.recordReturns(Collections.singletonList(first));
+		
+		// verificacao
+		BookStatsDTO stats = bookRepository.findStatsById(book.getId()).get();
+		assertThat(stats.getIsbn()).isEqualTo("123");
+		assertThat(stats.getTotalLoans()).isEqualTo(2);
+		assertThat(stats.getActiveLoanId()).isEqualTo(second.getId());
+		assertThat(stats.getLastLoanDate()).isEqualTo(LocalDate.now());
+	}
+	
+	@Test
+	@DisplayName("Deve devolver o empréstimo em um único UPDATE só enquanto estiver em aberto e na versão esperada")
+	public void returnLoanTest() {
+		// cenario
+		Book book = BookRepositoryTest.createdNewBook("123");
+		entityManager.persistAndFlush(book);
+		Loan loan = repository.insertOpenLoan("123", "Fulano", "fulano@email.com", LocalDate.now(), LocalDateTime.now().plusDays(4));
+		
+		// execucao
+		Loan stale = repository.returnLoan(loan.getId(), 7L);
+		Loan returned = repository.returnLoan(loan.getId(), 0L);
+		Loan again = repository.returnLoan(loan.getId(), null);
+		
+		// verificacao
+		assertThat(stale).isNull();
+		assertThat(again).isNull();
+		assertThat(returned.getBook().getId()).isEqualTo(book.getId());
+		assertThat(returned.getVersion()).isEqualTo(1L);
+		assertThat(repository.existsByBookAndNotReturned(book)).isFalse();
+		assertThat(repository.findOpenBookIds(Collections.singletonList(book.getId()))).isEmpty();
+		assertThat(repository.returnLoan(-1L, null)).isNull();
+	}
+	
+	@Test
+	@DisplayName("Não deve recuar a data do último empréstimo ao registrar um empréstimo antigo")
+	public void recordCheckoutsKeepsLastLoanDateTest() {
+		// cenario
+		Book book = BookRepositoryTest.createdNewBook("123");
+		entityManager.persistAndFlush(book);
+		Loan recent = Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).returned(true).build();
+		Loan old = Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now().minusDays(30)).returned(true).build();
+		entityManager.persistAndFlush(recent);
+		entityManager.persistAndFlush(old);
+		
+		// execucao
+		repository.recordCheckouts(Arrays.asList(recent, old));
+		
+		// verificacao
+		BookStatsDTO stats = bookRepository.findStatsById(book.getId()).get();
+		assertThat(stats.getTotalLoans()).isEqualTo(2);
+		assertThat(stats.getActiveLoanId()).isNull();
+		assertThat(stats.getLastLoanDate()).isEqualTo(LocalDate.now());
+	}
+	
+	private Loan persistLoan(String isbn, String tittle, String email, LocalDateTime dueDate) {
+		Book book = BookRepositoryTest.createdNewBook(isbn);
+		book.setTittle(tittle);
+		entityManager.persist(book);
+		return entityManager.persist(Loan.builder().book(book).customer("Fulano").customerEmail(email)
+				.loanDate(dueDate.toLocalDate().minusDays(4)).dueDate(dueDate).build());
+	}
+	
 	private Loan createAndPersistLoan(LocalDate loanDate) {
 		// cenário
 		Book book = BookRepositoryTest.createdNewBook("123");
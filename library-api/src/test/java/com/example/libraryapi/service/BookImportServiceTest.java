@@ -0,0 +1,202 @@
+package com.example.libraryapi.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import javax.validation.Validator;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.validation.ValidationAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.libraryapi.dto.BookImportResultDTO;
+import com.example.libraryapi.exceptions.InvalidFileException;
+import com.example.libraryapi.index.BookIndexReplicator;
+import com.example.libraryapi.index.BookSearchIndex;
+import com.example.libraryapi.index.BookTrigramIndex;
+import com.example.libraryapi.mapper.BookMapper;
+import com.example.libraryapi.repository.BookRepository;
+import com.example.libraryapi.repository.BookRepositoryTest;
+import com.example.libraryapi.service.impl.BookImportServiceImpl;
+import com.example.libraryapi.service.impl.BookServiceImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@ImportAutoConfiguration({ JacksonAutoConfiguration.class, ValidationAutoConfiguration.class })
+@Import({ BookImportServiceImpl.class, BookServiceImpl.class, BookSearchIndex.class, BookTrigramIndex.class, BookIndexReplicator.class })
+@TestPropertySource(properties = { "application.import.batch-size=2", "application.import.max-errors=3" })
+public class BookImportServiceTest {
+	
+	static MediaType NDJSON = MediaType.valueOf("application/x-ndjson");
+	
+	@Autowired
+	BookImportService importService;
+	
+	@Autowired
+	BookRepository repository;
+	
+	@Autowired
+	BookService bookService;
+	
+	@Autowired
+	BookMapper bookMapper;
+	
+	@Autowired
+	Validator validator;
+	
+	@Autowired
+	ObjectMapper objectMapper;
+	
+	@Autowired
+	BookSearchIndex searchIndex;
+	
+	@Test
+	@DisplayName("Deve importar livros em NDJSON em lotes e indexá-los")
+	public void importNdjsonTest() throws IOException {
+		// cenario
+		String body = book("Java", "Fulano", "001") + "\n"
+				+ book("Spring", "Beltrano", "002") + "\n"
+				+ "\n"
+				+ book("JUnit", "Ciclano", "003") + "\n";
+		
+		// execucao
+		BookImportResultDTO result = importService.importBooks(stream(body), NDJSON);
+		
+		// verificacao
+		assertThat(result.getReceived()).isEqualTo(3);
+		assertThat(result.getImported()).isEqualTo(3);
+		assertThat(result.getErrors()).isEmpty();
+		assertThat(repository.count()).isEqualTo(3);
+		assertThat(searchIndex.search("spring")).hasSize(1);
+	}
+	
+	@Test
+	@DisplayName("Deve rejeitar por linha JSON inválido, campos obrigatórios e isbn repetido")
+	public void importNdjsonErrorsTest() throws IOException {
+		// cenario
+		repository.save(BookRepositoryTest.createdNewBook("001"));
+		String body = book("Java", "Fulano", "001") + "\n"
+				+ "{ nao eh json\n"
+				+ "{\"tittle\":\"Sem autor\",\"isbn\":\"002\"}\n"
+				+ book("Spring", "Beltrano", "003") + "\n"
+				+ book("Spring de novo", "Beltrano", "003") + "\n";
+		
+		// execucao
+		BookImportResultDTO result = importService.importBooks(stream(body), NDJSON);
+		
+		// verificacao
+		assertThat(result.getReceived()).isEqualTo(5);
+		assertThat(result.getImported()).isEqualTo(1);
+		assertThat(result.getRejected()).isEqualTo(4);
+		assertThat(result.getErrors()).hasSize(3);
+		assertThat(result.isErrorsTruncated()).isTrue();
+		assertThat(result.getErrors().get(0).getLine()).isEqualTo(2);
+		assertThat(result.getErrors().get(0).getMessage()).isEqualTo("JSON inválido");
+		assertThat(result.getErrors().get(1).getMessage()).isEqualTo("author: Preenchimento obrigatório");
+		assertThat(result.getErrors().get(2).getLine()).isEqualTo(1);
+		assertThat(result.getErrors().get(2).getMessage()).isEqualTo("Isbn já cadastrado");
+	}
+	
+	@Test
+	@DisplayName("Deve rejeitar por linha os campos maiores que a coluna")
+	public void importNdjsonSizeTest() throws IOException {
+		// cenario
+		String body = book("Java", "Fulano", String.join("", Collections.nCopies(256, "9"))) + "\n"
+				+ book("JUnit", "Beltrano", "002") + "\n";
+		
+		// execucao
+		BookImportResultDTO result = importService.importBooks(stream(body), NDJSON);
+		
+		// verificacao
+		assertThat(result.getImported()).isEqualTo(1);
+		assertThat(result.getErrors()).hasSize(1);
+		assertThat(result.getErrors().get(0).getMessage()).isEqualTo("isbn: Máximo de 255 caracteres");
+	}
+	
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	@DisplayName("Deve gravar linha a linha o lote recusado pelo banco, rejeitando só o isbn gravado por outra requisição")
+	public void importBatchRaceTest() throws IOException {
+		// cenario: o isbn 001 é gravado por outra requisição depois da consulta do lote
+		repository.save(BookRepositoryTest.createdNewBook("001"));
+		BookRepository racing = Mockito.mock(BookRepository.class, AdditionalAnswers.delegatesTo(repository));
+		Mockito.doReturn(Collections.emptySet()).doAnswer(AdditionalAnswers.delegatesTo(repository))
+			.when(racing).findExistingIsbns(Mockito.anyCollection());
+		BookImportServiceImpl importService = new BookImportServiceImpl(bookService, racing, bookMapper, validator, objectMapper);
+		ReflectionTestUtils.setField(importService, "batchSize", 2);
+		ReflectionTestUtils.setField(importService, "maxErrors", 3);
+		String body = book("Java", "Fulano", "001") + "\n"
+				+ book("Mockito", "Beltrano", "002") + "\n";
+		
+		try {
+			// execucao
+			BookImportResultDTO result = importService.importBooks(stream(body), NDJSON);
+			
+			// verificacao
+			assertThat(result.getImported()).isEqualTo(1);
+			assertThat(result.getErrors()).hasSize(1);
+			assertThat(result.getErrors().get(0).getIsbn()).isEqualTo("001");
+			assertThat(result.getErrors().get(0).getMessage()).isEqualTo("Isbn já cadastrado");
+			assertThat(repository.findByIsbn("002")).isPresent();
+		} finally {
+			repository.findAll().forEach(bookService::delete);
+		}
+	}
+	
+	@Test
+	@DisplayName("Deve importar livros em CSV com colunas em qualquer ordem e campos entre aspas")
+	public void importCsvTest() throws IOException {
+		// cenario
+		String body = "isbn,tittle,author\n"
+				+ "001,\"Java, a linguagem\",Fulano\n"
+				+ "002,\"O \"\"Spring\"\"\",Beltrano\n";
+		
+		// execucao
+		BookImportResultDTO result = importService.importBooks(stream(body), MediaType.valueOf("text/csv"));
+		
+		// verificacao
+		assertThat(result.getImported()).isEqualTo(2);
+		assertThat(repository.findByIsbn("001").get().getTittle()).isEqualTo("Java, a linguagem");
+		assertThat(repository.findByIsbn("002").get().getTittle()).isEqualTo("O \"Spring\"");
+	}
+	
+	@Test
+	@DisplayName("Deve recusar CSV sem as colunas obrigatórias no cabeçalho")
+	public void importCsvInvalidHeaderTest() {
+		Throwable exception = Assertions.catchThrowable(
+				() -> importService.importBooks(stream("isbn,nome\n001,Java\n"), MediaType.valueOf("text/csv")));
+		
+		assertThat(exception).isInstanceOf(InvalidFileException.class);
+	}
+	
+	private static String book(String tittle, String author, String isbn) {
+		return String.format("{\"tittle\":\"%s\",\"author\":\"%s\",\"isbn\":\"%s\"}", tittle, author, isbn);
+	}
+	
+	private static InputStream stream(String body) {
+		return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,75 @@
+package com.example.libraryapi.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.cache.CacheType;
+import org.springframework.boot.test.autoconfigure.core.AutoConfigureCache;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.example.libraryapi.config.CacheConfig;
+import com.example.libraryapi.index.BookIndexReplicator;
+import com.example.libraryapi.index.BookSearchIndex;
+import com.example.libraryapi.index.BookTrigramIndex;
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.repository.BookRepository;
+import com.example.libraryapi.repository.BookRepositoryTest;
+import com.example.libraryapi.service.impl.BookServiceImpl;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@AutoConfigureCache(cacheProvider = CacheType.CAFFEINE)
+@Import({ CacheConfig.class, BookServiceImpl.class, BookSearchIndex.class, BookTrigramIndex.class, BookIndexReplicator.class })
+public class BookIsbnCacheTest {
+	
+	@Autowired
+	BookService service;
+	
+	@Autowired
+	BookRepository repository;
+	
+	@Autowired
+	CacheManager cacheManager;
+	
+	@Test
+	@DisplayName("Deve guardar em cache a existência do isbn")
+	public void cacheIsbnExistsTest() {
+		// cenario
+		service.save(BookRepositoryTest.createdNewBook("123"));
+		
+		// execucao
+		boolean exists = repository.existsByIsbn("123");
+		
+		// verificacao
+		assertThat(exists).isTrue();
+		assertThat(cacheManager.getCache(CacheConfig.ISBN_EXISTS).get("123")).isNotNull();
+	}
+	
+	@Test
+	@DisplayName("Deve invalidar o cache do isbn ao cadastrar, atualizar e excluir o livro")
+	public void evictOnWriteTest() {
+		// cenario: isbn consultado antes de existir
+		assertThat(repository.existsByIsbn("123")).isFalse();
+		
+		// execucao
+		Book book = service.save(BookRepositoryTest.createdNewBook("123"));
+		
+		// verificacao
+		assertThat(repository.existsByIsbn("123")).isTrue();
+		
+		book.setTittle("Novo titulo");
+		service.update(book);
+		assertThat(cacheManager.getCache(CacheConfig.ISBN_EXISTS).get("123")).isNull();
+		
+		service.delete(book);
+		assertThat(repository.existsByIsbn("123")).isFalse();
+	}
+}
@@ -5,6 +5,7 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,10 +20,14 @@ import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import com.example.libraryapi.exceptions.BusinnesException;
+import com.example.libraryapi.index.BookIndexReplicator;
+import com.example.libraryapi.index.BookSearchIndex;
+import com.example.libraryapi.index.BookTrigramIndex;
 import com.example.libraryapi.model.Book;
 import com.example.libraryapi.repository.BookRepository;
 import com.example.libraryapi.service.impl.BookServiceImpl;
@@ -33,12 +38,18 @@ public class BookServiceTest {
 	
 	BookService service;
 	
+	BookSearchIndex searchIndex;
+	
+	BookTrigramIndex trigramIndex;
+	
 	@MockBean
 	BookRepository repository;
 
 	@BeforeEach
 	public void setUp() {
-		this.service = new BookServiceImpl(repository);
+		this.searchIndex = new BookSearchIndex();
+		this.trigramIndex = new BookTrigramIndex();
+		this.service = new BookServiceImpl(repository, searchIndex, trigramIndex, Mockito.mock(BookIndexReplicator.class));
 	}
 	
 	@Test
@@ -49,7 +60,7 @@ public class BookServiceTest {
 		
 		// simulando o repository
 		Mockito.when(repository.existsByIsbn(Mockito.anyString())).thenReturn(false);
-		Mockito.when(service.save(book)).thenReturn(
+		Mockito.when(repository.save(book)).thenReturn(
 				Book.builder()
 					.id(1L)
 					.isbn("123")
@@ -124,6 +135,24 @@ public class BookServiceTest {
 	}
 	
 	
+	@Test
+	@DisplayName("Deve obter vários livros por id com uma única consulta, sem consultar quando não há ids")
+	public void getByIdsTest() {
+		// cenario
+		List<Long> ids = Arrays.asList(1L, 2L);
+		Mockito.when(repository.findAllById(ids)).thenReturn(Arrays.asList(Book.builder().id(1L).build()));
+		
+		// execucao
+		List<Book> books = service.getByIds(ids);
+		List<Book> none = service.getByIds(Collections.emptyList());
+		
+		// verificacao
+		assertThat(books).extracting(Book::getId).containsExactly(1L);
+		assertThat(none).isEmpty();
+		Mockito.verify(repository, Mockito.times(1)).findAllById(Mockito.anyIterable());
+	}
+	
+	
 	@Test
 	@DisplayName("Deve deletar um livro")
 	public void deleteBookTest() {
@@ -227,6 +256,99 @@ public class BookServiceTest {
 		assertThat(result.getPageable().getPageSize()).isEqualTo(10);
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Test
+	@DisplayName("Deve filtrar livros restringindo os candidatos pelo índice de trigramas")
+	public void findBookWithTrigramIndexTest() {
+		
+		// cenario
+		Book book = createValidBook();
+		book.setId(1L);
+		trigramIndex.index(book);
+		trigramIndex.markReady();
+		Mockito.when(repository.count()).thenReturn(1L);
+		Mockito.when(repository.findMaxId()).thenReturn(1L);
+		
+		PageRequest pageRequest = PageRequest.of(0, 10);
+		Page<Book> page = new PageImpl<Book>(Arrays.asList(book), pageRequest, 1);
+		Mockito.when(repository.findAll(Mockito.any(Specification.class), Mockito.any(PageRequest.class)))
+			.thenReturn(page);
+		
+		// execucao
+		Page<Book> result = service.find(Book.builder().author("ulan").build(), pageRequest);
+		
+		//verficacao
+		assertThat(result.getContent()).containsExactly(book);
+		Mockito.verify(repository, Mockito.times(1)).findAll(Mockito.any(Specification.class), Mockito.any(PageRequest.class));
+		Mockito.verify(repository, Mockito.never()).findAll(Mockito.any(Example.class), Mockito.any(PageRequest.class));
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	@DisplayName("Deve filtrar pela consulta completa quando o índice não tem candidatos ou está atrás da tabela")
+	public void findBookWithIncompleteTrigramIndexTest() {
+		
+		// cenario: o livro 2 foi gravado direto no banco e não está no índice
+		Book book = createValidBook();
+		book.setId(1L);
+		trigramIndex.index(book);
+		trigramIndex.markReady();
+		Mockito.when(repository.count()).thenReturn(2L);
+		Mockito.when(repository.findMaxId()).thenReturn(2L);
+		
+		PageRequest pageRequest = PageRequest.of(0, 10);
+		Mockito.when(repository.findAll(Mockito.any(Example.class), Mockito.any(PageRequest.class)))
+			.thenReturn(new PageImpl<Book>(Arrays.asList(book), pageRequest, 1));
+		
+		// execucao
+		service.find(Book.builder().author("ulan").build(), pageRequest);
+		service.find(Book.builder().author("beltrano").build(), pageRequest);
+		
+		//verficacao
+		Mockito.verify(repository, Mockito.times(2)).findAll(Mockito.any(Example.class), Mockito.any(PageRequest.class));
+		Mockito.verify(repository, Mockito.never()).findAll(Mockito.any(Specification.class), Mockito.any(PageRequest.class));
+	}
+	
+	@Test
+	@DisplayName("Deve tirar do índice de trigramas os trechos antigos do livro atualizado")
+	public void updateBookTrigramsTest() {
+		// cenario
+		Book stored = Book.builder().id(1L).isbn("123").tittle("Java").author("Fulano").build();
+		trigramIndex.index(stored);
+		trigramIndex.markReady();
+		Book updating = Book.builder().id(1L).isbn("123").tittle("Kotlin").author("Fulano").build();
+		Mockito.when(repository.findById(1L)).thenReturn(Optional.of(stored));
+		Mockito.when(repository.save(updating)).thenReturn(updating);
+		
+		// execucao
+		service.update(updating);
+		
+		// verificacao
+		assertThat(trigramIndex.candidates(Book.builder().tittle("java").build())).isEmpty();
+		assertThat(trigramIndex.candidates(Book.builder().tittle("kotlin").build())).containsExactly(1);
+	}
+	
+	@Test
+	@DisplayName("Deve buscar livros pelo índice na ordem de relevância")
+	public void searchBookTest() {
+		
+		// cenario
+		Book author = Book.builder().id(1L).isbn("123").tittle("Dom Casmurro").author("Machado de Assis").build();
+		Book tittle = Book.builder().id(2L).isbn("456").tittle("Machado").author("Fulano").build();
+		searchIndex.index(author);
+		searchIndex.index(tittle);
+		
+		PageRequest pageRequest = PageRequest.of(0, 10);
+		Mockito.when(repository.findAllById(Arrays.asList(2L, 1L))).thenReturn(Arrays.asList(author, tittle));
+		
+		// execucao
+		Page<Book> result = service.search("machado", pageRequest);
+		
+		//verficacao
+		assertThat(result.getTotalElements()).isEqualTo(2);
+		assertThat(result.getContent()).containsExactly(tittle, author);
+	}
+	
 	@Test
 	@DisplayName("Deve obter um livro pelo isbn")
 	public void getBookByIsbnTest() {
@@ -0,0 +1,114 @@
+package com.example.libraryapi.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.example.libraryapi.exporter.RowWriter;
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.model.Loan;
+import com.example.libraryapi.service.impl.ExportServiceImpl;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Import(ExportServiceImpl.class)
+public class ExportServiceTest {
+	
+	@Autowired
+	ExportService exportService;
+	
+	@Autowired
+	TestEntityManager entityManager;
+	
+	@Test
+	@DisplayName("Deve exportar os livros em NDJSON, um por linha")
+	public void exportBooksNdjsonTest() throws IOException {
+		// cenario
+		Book first = entityManager.persistAndFlush(Book.builder().tittle("Java").author("Fulano").isbn("001").build());
+		entityManager.persistAndFlush(Book.builder().tittle("Spring").author("Beltrano").isbn("002").build());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		// execucao
+		exportService.exportBooks(RowWriter.NDJSON, out);
+		
+		// verificacao
+		String[] lines = out.toString(StandardCharsets.UTF_8.name()).split("\n");
+		assertThat(lines).hasSize(2);
+		assertThat(lines[0]).isEqualTo("{\"id\":" + first.getId() + ",\"tittle\":\"Java\",\"author\":\"Fulano\",\"isbn\":\"001\"}");
+		assertThat(lines[1]).contains("\"isbn\":\"002\"");
+	}
+	
+	@Test
+	@DisplayName("Deve exportar os empréstimos em CSV com cabeçalho e campos escapados")
+	public void exportLoansCsvTest() throws IOException {
+		// cenario
+		Book book = entityManager.persistAndFlush(Book.builder().tittle("Java").author("Fulano").isbn("001").build());
+		Loan loan = entityManager.persistAndFlush(Loan.builder()
+				.book(book)
+				.customer("Fulano, o \"leitor\"")
+				.customerEmail("fulano@email.com")
+				.loanDate(LocalDate.of(2021, 4, 1))
+				.build());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		// execucao
+		exportService.exportLoans(RowWriter.CSV, out);
+		
+		// verificacao
+		assertThat(out.toString(StandardCharsets.UTF_8.name())).isEqualTo(
+				"id,isbn,customer,email,loanDate,returned\n" +
+				loan.getId() + ",001,\"Fulano, o \"\"leitor\"\"\",fulano@email.com,2021-04-01,false\n");
+	}
+	
+	@Test
+	@DisplayName("Deve neutralizar no CSV os campos que seriam lidos como fórmula")
+	public void exportLoansCsvFormulaTest() throws IOException {
+		// cenario
+		Book book = entityManager.persistAndFlush(Book.builder().tittle("Java").author("Fulano").isbn("001").build());
+		Loan loan = entityManager.persistAndFlush(Loan.builder()
+				.book(book)
+				.customer("=HYPERLINK(\"http://x\")")
+				.customerEmail("@fulano")
+				.loanDate(LocalDate.of(2021, 4, 1))
+				.build());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		// execucao
+		exportService.exportLoans(RowWriter.CSV, out);
+		
+		// verificacao
+		assertThat(out.toString(StandardCharsets.UTF_8.name())).isEqualTo(
+				"id,isbn,customer,email,loanDate,returned\n" +
+				loan.getId() + ",001,\"'=HYPERLINK(\"\"http://x\"\")\",\"'@fulano\",2021-04-01,false\n");
+	}
+	
+	@Test
+	@DisplayName("Deve exportar um acervo vazio em NDJSON sem nenhuma linha")
+	public void exportEmptyNdjsonTest() throws IOException {
+		// cenario
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		// execucao
+		exportService.exportBooks(RowWriter.NDJSON, out);
+		
+		// verificacao
+		assertThat(out.size()).isZero();
+	}
+}
@@ -3,10 +3,16 @@ package com.example.libraryapi.service;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.verify;
 
+import java.sql.SQLException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,17 +20,31 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.example.libraryapi.dto.LateLoanDTO;
+import com.example.libraryapi.dto.LoanBatchItemDTO;
+import com.example.libraryapi.dto.LoanDTO;
 import com.example.libraryapi.dto.LoanFilterDTO;
+import com.example.libraryapi.dto.ReturnedLoanItemDTO;
 import com.example.libraryapi.exceptions.BusinnesException;
+import com.example.libraryapi.exceptions.EntityNotFoundException;
+import com.example.libraryapi.index.BookAvailabilityIndex;
+import com.example.libraryapi.index.BookAvailabilityReplicator;
+import com.example.libraryapi.index.LoanDueWheel;
 import com.example.libraryapi.model.Book;
 import com.example.libraryapi.model.Loan;
+import com.example.libraryapi.repository.BookRepository;
 import com.example.libraryapi.repository.LoanRepository;
 import com.example.libraryapi.service.impl.LoanServiceImpl;
 
@@ -34,12 +54,22 @@ public class LoanServiceTest {
 	
 	LoanService service;
 	
+	BookAvailabilityIndex availabilityIndex;
+	
+	LoanDueWheel dueWheel;
+	
 	@MockBean
 	LoanRepository repository;
 	
+	@MockBean
+	BookRepository bookRepository;
+	
 	@BeforeEach
 	public void setUp() {
-		this.service = new LoanServiceImpl(repository);
+		this.availabilityIndex = new BookAvailabilityIndex();
+		this.dueWheel = new LoanDueWheel();
+		TransactionTemplate transactionTemplate = new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class));
+		this.service = new LoanServiceImpl(repository, bookRepository, availabilityIndex, Mockito.mock(BookAvailabilityReplicator.class), dueWheel, transactionTemplate);
 	}
 	
 	
@@ -78,6 +108,26 @@ public class LoanServiceTest {
 	}
 	
 	
+	@Test
+	@DisplayName("Não deve marcar o livro como emprestado ao salvar um empréstimo já devolvido")
+	public void saveReturnedLoanTest() {
+		// cenario
+		availabilityIndex.load(Collections.emptyList());
+		Book book = Book.builder().id(1l).build();
+		Loan returnedLoan = Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).returned(true).build();
+		Mockito.when(repository.save(returnedLoan)).thenAnswer(invocation -> {
+			returnedLoan.setId(1l);
+			return returnedLoan;
+		});
+		
+		// execucao
+		service.save(returnedLoan);
+		
+		// verificacao
+		assertThat(service.isBookAvailable(1l)).isTrue();
+	}
+	
+	
 	@Test
 	@DisplayName("Deve lançar um erro de negócio ao salvar um empréstimo com livro já emprestado.")
 	public void loanedBookSaveTest() {
@@ -108,6 +158,275 @@ public class LoanServiceTest {
 		Mockito.verify(repository, Mockito.never()).save(savingLoan);
 	}
 	
+	@Test
+	@DisplayName("Deve salvar sem consultar o banco quando o índice dá o livro como livre")
+	public void freeBookIndexSaveTest() {
+		// cenario
+		availabilityIndex.load(Collections.emptyList());
+		Loan savingLoan = createLoan();
+		Mockito.when(repository.save(savingLoan)).thenReturn(savingLoan);
+		
+		// execução
+		service.save(savingLoan);
+		
+		// verificação
+		Mockito.verify(repository, Mockito.never()).existsByBookAndNotReturned(Mockito.any(Book.class));
+		Mockito.verify(repository).save(savingLoan);
+	}
+	
+	@Test
+	@DisplayName("Deve confirmar no banco o livro que o índice dá como emprestado antes de recusar")
+	public void staleIndexSaveTest() {
+		// cenario: devolução feita em outro nó, que o índice deste não viu
+		availabilityIndex.load(Collections.singletonList(1L));
+		Loan savingLoan = createLoan();
+		Mockito.when(repository.existsByBookAndNotReturned(savingLoan.getBook())).thenReturn(false);
+		Mockito.when(repository.save(savingLoan)).thenReturn(savingLoan);
+		
+		// execução
+		service.save(savingLoan);
+		
+		// verificação
+		Mockito.verify(repository).existsByBookAndNotReturned(savingLoan.getBook());
+		Mockito.verify(repository).save(savingLoan);
+	}
+	
+	@Test
+	@DisplayName("Deve realizar o empréstimo pelo isbn e marcar o livro como emprestado")
+	public void checkoutTest() {
+		// cenario
+		availabilityIndex.load(Collections.emptyList());
+		Loan inserted = createLoan();
+		inserted.setId(1l);
+		LocalDateTime now = LocalDateTime.now();
+		Mockito.when(repository.insertOpenLoan(Mockito.eq("123"), Mockito.eq("Fulano"), Mockito.eq("fulano@email.com"),
+				Mockito.eq(now.toLocalDate()), Mockito.argThat(dueDate -> !dueDate.isBefore(now.plusDays(4)))))
+			.thenReturn(inserted);
+		
+		// execução
+		Loan loan = service.checkout("123", "Fulano", "fulano@email.com");
+		
+		// verificação
+		assertThat(loan.getId()).isEqualTo(1l);
+		assertThat(service.isBookAvailable(1L)).isFalse();
+		Mockito.verify(repository, Mockito.never()).existsByBookAndNotReturned(Mockito.any(Book.class));
+		Mockito.verify(repository).recordCheckouts(Collections.singletonList(inserted));
+	}
+	
+	@Test
+	@DisplayName("Deve lançar erro ao realizar empréstimo de isbn inexistente")
+	public void checkoutInexistentIsbnTest() {
+		// cenario
+		Mockito.when(repository.insertOpenLoan(Mockito.eq("123"), Mockito.eq("Fulano"), Mockito.any(), Mockito.any(LocalDate.class), Mockito.any(LocalDateTime.class)))
+			.thenReturn(null);
+		
+		// execução
+		Throwable exception = Assertions.catchThrowable(() -> service.checkout("123", "Fulano", null));
+		
+		// verificação
+		assertThat(exception)
+			.isInstanceOf(EntityNotFoundException.class)
+			.hasMessage("Livro não encontrado para o isbn informado.");
+	}
+	
+	@Test
+	@DisplayName("Deve lançar erro de negócio quando o banco recusa um segundo empréstimo aberto")
+	public void checkoutLoanedBookTest() {
+		// cenario
+		Mockito.when(repository.insertOpenLoan(Mockito.eq("123"), Mockito.eq("Fulano"), Mockito.any(), Mockito.any(LocalDate.class), Mockito.any(LocalDateTime.class)))
+			.thenThrow(openBookConflict());
+		
+		// execução
+		Throwable exception = Assertions.catchThrowable(() -> service.checkout("123", "Fulano", null));
+		
+		// verificação
+		assertThat(exception)
+			.isInstanceOf(BusinnesException.class)
+			.hasMessage("Livro já emprestado");
+	}
+	
+	@Test
+	@DisplayName("Deve emprestar uma pilha de livros com um IN e um único lote de inserts")
+	public void checkoutAllTest() {
+		// cenario
+		availabilityIndex.load(Collections.singletonList(2L));
+		Book free = Book.builder().id(1l).isbn("001").build();
+		Book loaned = Book.builder().id(2l).isbn("002").build();
+		Mockito.when(bookRepository.findByIsbnIn(Mockito.anyCollection())).thenReturn(Arrays.asList(free, loaned));
+		Mockito.doAnswer(invocation -> {
+			List<Loan> loans = invocation.getArgument(0);
+			loans.get(0).setId(10l);
+			return null;
+		}).when(repository).insertOpenLoans(Mockito.anyList());
+		Mockito.when(repository.findOpenBookIds(Collections.singleton(2l))).thenReturn(Collections.singleton(2l));
+		
+		List<LoanDTO> requests = Arrays.asList(
+				LoanDTO.builder().isbn("001").customer("Fulano").build(),
+				LoanDTO.builder().isbn("002").customer("Fulano").build(),
+				LoanDTO.builder().isbn("999").customer("Fulano").build(),
+				LoanDTO.builder().isbn("001").customer("Fulano").build());
+		
+		// execução
+		List<LoanBatchItemDTO> result = service.checkoutAll(requests);
+		
+		// verificação
+		assertThat(result).extracting(LoanBatchItemDTO::getStatus).containsExactly(201, 400, 404, 400);
+		assertThat(result.get(0).getId()).isEqualTo(10l);
+		assertThat(service.isBookAvailable(1L)).isFalse();
+		Mockito.verify(bookRepository, Mockito.times(1)).findByIsbnIn(Mockito.anyCollection());
+		Mockito.verify(repository, Mockito.times(1)).insertOpenLoans(Mockito.anyList());
+		Mockito.verify(repository, Mockito.times(1)).recordCheckouts(Mockito.argThat(loans -> loans.size() == 1));
+		Mockito.verify(repository, Mockito.times(1)).findOpenBookIds(Collections.singleton(2l));
+	}
+	
+	@Test
+	@DisplayName("Deve emprestar o livro que o índice dá como emprestado quando o banco não tem empréstimo aberto")
+	public void checkoutAllStaleIndexTest() {
+		// cenario: devolução feita em outro nó, que o índice deste não viu
+		availabilityIndex.load(Collections.singletonList(1L));
+		Mockito.when(bookRepository.findByIsbnIn(Mockito.anyCollection()))
+			.thenReturn(Collections.singletonList(Book.builder().id(1l).isbn("001").build()));
+		Mockito.when(repository.findOpenBookIds(Mockito.anyCollection())).thenReturn(Collections.emptySet());
+		
+		// execução
+		List<LoanBatchItemDTO> result = service.checkoutAll(Collections.singletonList(LoanDTO.builder().isbn("001").customer("Fulano").build()));
+		
+		// verificação
+		assertThat(result).extracting(LoanBatchItemDTO::getStatus).containsExactly(201);
+		Mockito.verify(repository).insertOpenLoans(Mockito.argThat(loans -> loans.size() == 1));
+	}
+	
+	@Test
+	@DisplayName("Não deve tratar como livro emprestado uma violação de outra constraint")
+	public void checkoutOtherViolationTest() {
+		// cenario
+		DataIntegrityViolationException tooLong = new DataIntegrityViolationException("customer",
+				new SQLException("Value too long for column \"CUSTOMER VARCHAR(100)\"", "22001"));
+		Mockito.when(repository.insertOpenLoan(Mockito.eq("123"), Mockito.any(), Mockito.any(), Mockito.any(LocalDate.class), Mockito.any(LocalDateTime.class)))
+			.thenThrow(tooLong);
+		
+		// execução
+		Throwable exception = Assertions.catchThrowable(() -> service.checkout("123", "Fulano", null));
+		
+		// verificação
+		assertThat(exception).isSameAs(tooLong);
+	}
+	
+	@Test
+	@DisplayName("Deve refazer o lote item a item quando o banco recusa um empréstimo concorrente")
+	public void checkoutAllRaceTest() {
+		// cenario
+		availabilityIndex.load(Collections.emptyList());
+		Mockito.when(bookRepository.findByIsbnIn(Mockito.anyCollection()))
+			.thenReturn(Arrays.asList(Book.builder().id(1l).isbn("001").build(), Book.builder().id(2l).isbn("002").build()));
+		Mockito.doThrow(openBookConflict()).when(repository).insertOpenLoans(Mockito.anyList());
+		
+		Loan inserted = createLoan();
+		inserted.setId(10l);
+		Mockito.when(repository.insertOpenLoan(Mockito.eq("001"), Mockito.any(), Mockito.any(), Mockito.any(LocalDate.class), Mockito.any(LocalDateTime.class)))
+			.thenReturn(inserted);
+		Mockito.when(repository.insertOpenLoan(Mockito.eq("002"), Mockito.any(), Mockito.any(), Mockito.any(LocalDate.class), Mockito.any(LocalDateTime.class)))
+			.thenThrow(openBookConflict());
+		
+		// execução
+		List<LoanBatchItemDTO> result = service.checkoutAll(Arrays.asList(
+				LoanDTO.builder().isbn("001").customer("Fulano").build(),
+				LoanDTO.builder().isbn("002").customer("Fulano").build()));
+		
+		// verificação
+		assertThat(result).extracting(LoanBatchItemDTO::getStatus).containsExactly(201, 400);
+		assertThat(result.get(0).getId()).isEqualTo(10l);
+		assertThat(result.get(1).getMessage()).isEqualTo("Livro já emprestado");
+	}
+	
+	@Test
+	@DisplayName("Deve devolver empréstimos em lote carregando todos em uma consulta")
+	public void returnAllTest() {
+		// cenario
+		availabilityIndex.load(Collections.singletonList(1L));
+		Loan loan = createLoan();
+		loan.setId(5l);
+		loan.setOpenBookId(1l);
+		Mockito.when(repository.findAllWithBookByIdIn(Mockito.anyCollection())).thenReturn(Collections.singletonList(loan));
+		
+		// execução
+		List<LoanBatchItemDTO> result = service.returnAll(Arrays.asList(
+				ReturnedLoanItemDTO.builder().id(5l).returned(true).build(),
+				ReturnedLoanItemDTO.builder().id(6l).returned(true).build()));
+		
+		// verificação
+		assertThat(result).extracting(LoanBatchItemDTO::getStatus).containsExactly(200, 404);
+		assertThat(loan.isReturned()).isTrue();
+		assertThat(loan.getOpenBookId()).isNull();
+		assertThat(service.isBookAvailable(1L)).isTrue();
+		Mockito.verify(repository, Mockito.never()).save(Mockito.any(Loan.class));
+		Mockito.verify(repository).recordReturns(Collections.singletonList(loan));
+	}
+	
+	@Test
+	@DisplayName("Deve refazer a devolução em lote item a item quando o banco recusa uma reabertura")
+	public void returnAllConflictTest() {
+		// cenario: o empréstimo 6 reabre um livro que já tem outro empréstimo aberto
+		Loan returning = createLoan();
+		returning.setId(5l);
+		Loan reopening = Loan.builder().id(6l).book(Book.builder().id(2l).isbn("002").build()).returned(true).build();
+		Mockito.when(repository.findAllWithBookByIdIn(Mockito.anyCollection())).thenAnswer(invocation -> {
+			Collection<Long> ids = invocation.getArgument(0);
+			return Arrays.asList(returning, reopening).stream().filter(loan -> ids.contains(loan.getId())).collect(Collectors.toList());
+		});
+		Mockito.doThrow(openBookConflict()).when(repository)
+			.recordReturns(Mockito.argThat(loans -> loans.stream().anyMatch(loan -> loan.getId() == 6l)));
+		
+		// execução
+		List<LoanBatchItemDTO> result = service.returnAll(Arrays.asList(
+				ReturnedLoanItemDTO.builder().id(5l).returned(true).build(),
+				ReturnedLoanItemDTO.builder().id(6l).returned(false).build()));
+		
+		// verificação
+		assertThat(result).extracting(LoanBatchItemDTO::getStatus).containsExactly(200, 400);
+		assertThat(result.get(1).getId()).isEqualTo(6l);
+		assertThat(result.get(1).getMessage()).isEqualTo("Livro já emprestado");
+		Mockito.verify(repository).recordReturns(Collections.singletonList(returning));
+	}
+	
+	@Test
+	@DisplayName("Deve manter o índice de disponibilidade ao emprestar e devolver")
+	public void availabilityAfterSaveAndReturnTest() {
+		// cenario
+		availabilityIndex.load(Collections.emptyList());
+		Loan loan = createLoan();
+		Mockito.when(repository.save(loan)).thenReturn(loan);
+		
+		// execução e verificação
+		service.save(loan);
+		assertThat(service.isBookAvailable(1L)).isFalse();
+		
+		loan.setReturned(true);
+		service.update(loan);
+		assertThat(service.isBookAvailable(1L)).isTrue();
+	}
+	
+	@Test
+	@DisplayName("Deve agendar o vencimento ao emprestar e tirá-lo da roda na devolução")
+	public void dueWheelAfterSaveAndReturnTest() {
+		// cenario
+		dueWheel.load(Collections.emptyMap(), LocalDateTime.now());
+		Loan loan = createLoan();
+		loan.setId(1l);
+		Mockito.when(repository.save(loan)).thenReturn(loan);
+		
+		// execução e verificação
+		service.save(loan);
+		assertThat(loan.getDueDate()).isAfter(LocalDateTime.now().plusDays(3));
+		assertThat(dueWheel.size()).isEqualTo(1);
+		assertThat(dueWheel.advance(loan.getDueDate().plusMinutes(1))).containsExactly(1l);
+		
+		service.rescheduleDue(Collections.singletonList(1l), LocalDateTime.now().plusDays(1));
+		loan.setReturned(true);
+		service.update(loan);
+		assertThat(dueWheel.size()).isZero();
+	}
+	
 	@Test
 	@DisplayName("Deve obter as informações de um empréstimo pelo ID")
 	public void getLoanDetaisTest() {
@@ -155,6 +474,43 @@ public class LoanServiceTest {
 		
 	}
 
+	@Test
+	@DisplayName("Deve devolver um empréstimo com um UPDATE, acertando o livro e o índice")
+	public void returnLoanTest() {
+		// cenario
+		availabilityIndex.load(Collections.singletonList(1L));
+		Loan returned = Loan.builder().id(5l).book(Book.builder().id(1l).build()).returned(true).version(2l).build();
+		Mockito.when(repository.returnLoan(5l, 1l)).thenReturn(returned);
+		
+		// execucao
+		Loan loan = service.returnLoan(5l, 1l);
+		
+		// verificacao
+		assertThat(loan.getVersion()).isEqualTo(2l);
+		assertThat(service.isBookAvailable(1L)).isTrue();
+		verify(repository).recordReturns(Collections.singletonList(returned));
+		verify(repository, Mockito.never()).findById(Mockito.anyLong());
+		verify(repository, Mockito.never()).save(Mockito.any(Loan.class));
+	}
+	
+	@Test
+	@DisplayName("Deve dizer por que a devolução não alterou nenhuma linha")
+	public void returnLoanFailureTest() {
+		// cenario
+		Loan returned = Loan.builder().id(2l).returned(true).version(3l).build();
+		Loan open = Loan.builder().id(3l).returned(false).version(3l).build();
+		Mockito.when(repository.findById(1l)).thenReturn(Optional.empty());
+		Mockito.when(repository.findById(2l)).thenReturn(Optional.of(returned));
+		Mockito.when(repository.findById(3l)).thenReturn(Optional.of(open));
+		
+		// execucao / verificacao
+		assertThat(Assertions.catchThrowable(() -> service.returnLoan(1l, null))).isInstanceOf(EntityNotFoundException.class);
+		assertThat(Assertions.catchThrowable(() -> service.returnLoan(2l, null))).isInstanceOf(BusinnesException.class)
+			.hasMessage("Empréstimo já devolvido");
+		assertThat(Assertions.catchThrowable(() -> service.returnLoan(3l, 1l))).isInstanceOf(ObjectOptimisticLockingFailureException.class);
+		verify(repository, Mockito.never()).recordReturns(Mockito.anyList());
+	}
+	
 	
 	public static Loan createLoan() {
 		Book book = Book.builder().id(1l).build();
@@ -175,14 +531,13 @@ public class LoanServiceTest {
 		// cenario
 		LoanFilterDTO loanFilterDTO = LoanFilterDTO.builder().customer("Fulano").isbn("321").build();
 		
-		Loan loan = createLoan();
-		loan.setId(1L);
+		LoanDTO loan = new LoanDTO(1L, "321", "Fulano", "fulano@email.com", 1L, "Java", "Autor", "321");
 		
 		PageRequest pageRequest = PageRequest.of(0, 10);
 
 		
-		List<Loan> lista = Arrays.asList(loan);
-		Page<Loan> page = new PageImpl<Loan>(lista , pageRequest , lista.size());
+		List<LoanDTO> lista = Arrays.asList(loan);
+		Page<LoanDTO> page = new PageImpl<LoanDTO>(lista , pageRequest , lista.size());
 		Mockito.when(repository.findByBookIsbnOrCustomer(
 				Mockito.anyString(),
 				Mockito.anyString(),
@@ -190,7 +545,7 @@ public class LoanServiceTest {
 			.thenReturn(page);
 		
 		// execucao
-		Page<Loan> result = service.find(loanFilterDTO, pageRequest);
+		Page<LoanDTO> result = service.find(loanFilterDTO, pageRequest);
 		
 		
 		
@@ -200,4 +555,45 @@ public class LoanServiceTest {
 		assertThat(result.getPageable().getPageNumber()).isEqualTo(0);
 		assertThat(result.getPageable().getPageSize()).isEqualTo(10);
 	}
+	
+	@Test
+	@DisplayName("Deve agrupar por email do cliente os empréstimos vencidos ainda não avisados")
+	public void findLateLoansToNotifyTest() {
+		// cenario
+		List<String> emails = Arrays.asList("a@email.com", "b@email.com");
+		Mockito.when(repository.findCustomerEmailsToNotify(Mockito.any(LocalDateTime.class), Mockito.eq(1), Mockito.eq(4), Mockito.eq(PageRequest.of(0, 2))))
+			.thenReturn(emails);
+		Mockito.when(repository.findLoansToNotify(Mockito.any(LocalDateTime.class), Mockito.eq(emails)))
+			.thenReturn(Arrays.asList(
+					LateLoanDTO.builder().id(1L).email("a@email.com").tittle("Java").build(),
+					LateLoanDTO.builder().id(3L).email("a@email.com").tittle("JPA").build(),
+					LateLoanDTO.builder().id(2L).email("b@email.com").tittle("Spring").build()));
+		
+		// execucao
+		Map<String, List<LateLoanDTO>> result = service.findLateLoansToNotify(1, 4, 2);
+		
+		// verificacao
+		assertThat(result).containsOnlyKeys("a@email.com", "b@email.com");
+		assertThat(result.get("a@email.com")).extracting(LateLoanDTO::getTittle).containsExactly("Java", "JPA");
+		assertThat(result.get("b@email.com")).extracting(LateLoanDTO::getTittle).containsExactly("Spring");
+	}
+	
+	@Test
+	@DisplayName("Deve falhar ao marcar como avisados empréstimos já avisados por outro nó")
+	public void markNotifiedConflictTest() {
+		// cenario
+		List<Long> loanIds = Arrays.asList(1L, 2L);
+		Mockito.when(repository.markNotified(Mockito.eq(loanIds), Mockito.any(LocalDateTime.class))).thenReturn(1);
+		
+		// execucao
+		Throwable exception = Assertions.catchThrowable(() -> service.markNotified(loanIds));
+		
+		// verificacao
+		assertThat(exception).isInstanceOf(ConcurrencyFailureException.class);
+	}
+	
+	private static DataIntegrityViolationException openBookConflict() {
+		return new DataIntegrityViolationException("open_book_id", new SQLException(
+				"Unique index or primary key violation: \"PUBLIC." + Loan.OPEN_BOOK_CONSTRAINT.toUpperCase() + "_INDEX_2 ON PUBLIC.LOAN(OPEN_BOOK_ID)\"", "23505"));
+	}
 }
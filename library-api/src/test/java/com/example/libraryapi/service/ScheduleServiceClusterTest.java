@@ -0,0 +1,160 @@
+package com.example.libraryapi.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.libraryapi.LibraryApiApplication;
+import com.example.libraryapi.model.Book;
+import com.example.libraryapi.model.JobCheckpoint;
+import com.example.libraryapi.model.Loan;
+import com.example.libraryapi.repository.BookRepository;
+import com.example.libraryapi.repository.JobCheckpointRepository;
+import com.example.libraryapi.repository.LoanRepository;
+import com.example.libraryapi.repository.OutboxMailRepository;
+import com.example.libraryapi.service.impl.ScheduleServiceImpl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/***
+ * Dois nós da aplicação (dois contextos Spring) sobre o mesmo H2 em memória.
+ */
+public class ScheduleServiceClusterTest {
+
+	private static final int PARTITIONS = 8;
+	private static final int CUSTOMERS = 40;
+
+	static ConfigurableApplicationContext nodeA;
+	static ConfigurableApplicationContext nodeB;
+
+	@BeforeAll
+	public static void startNodes() {
+		nodeA = node("node-a", "create-drop");
+		nodeB = node("node-b", "none");
+	}
+
+	@AfterAll
+	public static void stopNodes() {
+		nodeB.close();
+		nodeA.close();
+	}
+
+	@BeforeEach
+	public void setUp() {
+		JdbcTemplate jdbcTemplate = nodeA.getBean(JdbcTemplate.class);
+		jdbcTemplate.update("delete from outbox_mail");
+		jdbcTemplate.update("delete from loan");
+		jdbcTemplate.update("delete from book");
+		jdbcTemplate.update("update job_checkpoint set running = false, run_date = null, owner = null, lease_until = null");
+
+		List<Book> books = nodeA.getBean(BookRepository.class).saveAll(IntStream.range(0, CUSTOMERS * 2)
+				.mapToObj(i -> Book.builder().isbn("isbn-" + i).tittle("Livro " + i).author("Autor").build())
+				.collect(Collectors.toList()));
+		List<Loan> loans = new ArrayList<>();
+		for (int i = 0; i < books.size(); i++) {
+			int customer = i % CUSTOMERS;
+			loans.add(Loan.builder().book(books.get(i)).customer("Cliente " + customer)
+					.customerEmail("cliente" + customer + "@email.com")
+					.loanDate(LocalDate.now().minusDays(10)).dueDate(LocalDateTime.now().minusDays(6)).build());
+		}
+		nodeA.getBean(LoanRepository.class).insertOpenLoans(loans);
+	}
+
+	@Test
+	@DisplayName("Deve dividir a varredura entre os nós avisando cada cliente uma única vez")
+	public void sweepOnceAcrossNodesTest() throws Exception {
+		// cenario
+		double mailsBefore = mails(nodeA) + mails(nodeB);
+		double partitionsBefore = partitions(nodeA) + partitions(nodeB);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+
+		// execucao
+		try {
+			List<Future<?>> sweeps = Arrays.asList(
+					executor.submit(() -> nodeA.getBean(ScheduleServiceImpl.class).sendMailLateLoans()),
+					executor.submit(() -> nodeB.getBean(ScheduleServiceImpl.class).sendMailLateLoans()));
+			for (Future<?> sweep : sweeps) {
+				sweep.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// verificacao
+		assertThat(nodeA.getBean(LoanRepository.class).findDueDatesToNotify()).isEmpty();
+		assertThat(nodeA.getBean(OutboxMailRepository.class).count()).isEqualTo(CUSTOMERS);
+		assertThat(mails(nodeA) + mails(nodeB) - mailsBefore).isEqualTo(CUSTOMERS);
+		assertThat(partitions(nodeA) + partitions(nodeB) - partitionsBefore).isEqualTo(PARTITIONS);
+		assertThat(nodeA.getBean(JobCheckpointRepository.class).findAll())
+			.filteredOn(checkpoint -> checkpoint.getName().startsWith("late-loans-"))
+			.hasSize(PARTITIONS)
+			.allMatch(checkpoint -> !checkpoint.isRunning() && LocalDate.now().equals(checkpoint.getRunDate()));
+	}
+
+	@Test
+	@DisplayName("Deve assumir as partições de um nó que parou de renovar o lease, sem tocar nas de um nó vivo")
+	public void takeOverExpiredLeasesTest() {
+		// cenario
+		JobCheckpointRepository checkpoints = nodeA.getBean(JobCheckpointRepository.class);
+		List<String> names = IntStream.range(0, PARTITIONS).mapToObj(partition -> "late-loans-" + partition)
+				.collect(Collectors.toList());
+		LocalDateTime now = LocalDateTime.now();
+		checkpoints.startRun(names, LocalDate.now(), now);
+		names.forEach(name -> checkpoints.claim(name, "node-dead", now.minusMinutes(5), now.minusMinutes(4)));
+		checkpoints.claim("late-loans-0", "node-alive", now, now.plusHours(1));
+		double partitionsBefore = partitions(nodeB);
+
+		// execucao
+		nodeB.getBean(ScheduleServiceImpl.class).takeOverPartitions();
+
+		// verificacao
+		assertThat(partitions(nodeB) - partitionsBefore).isEqualTo(PARTITIONS - 1);
+		JobCheckpoint alive = checkpoints.findById("late-loans-0").get();
+		assertThat(alive.isRunning()).isTrue();
+		assertThat(alive.getOwner()).isEqualTo("node-alive");
+		assertThat(nodeA.getBean(LoanRepository.class).findDueDatesToNotify())
+			.allMatch(due -> nodeA.getBean(LoanRepository.class).findById(due.getId()).get().getCustomerHash() % PARTITIONS == 0);
+	}
+
+	private static ConfigurableApplicationContext node(String nodeId, String ddlAuto) {
+		return new SpringApplicationBuilder(LibraryApiApplication.class)
+				.profiles("test")
+				.properties(
+						"server.port=0",
+						"spring.datasource.url=jdbc:h2:mem:cluster;DB_CLOSE_DELAY=-1",
+						"spring.jpa.hibernate.ddl-auto=" + ddlAuto,
+						"application.node-id=" + nodeId,
+						"application.mail.lateloans.partitions=" + PARTITIONS,
+						"application.mail.lateloans.chunk-size=3",
+						"application.mail.lateloans.lease-ms=3600000",
+						"application.mail.lateloans.reminder-interval-ms=3600000",
+						"application.mail.outbox.poll-interval-ms=3600000")
+				.run();
+	}
+
+	private static double mails(ConfigurableApplicationContext node) {
+		return node.getBean(MeterRegistry.class).get("library.lateloans.mails").counter().count();
+	}
+
+	private static double partitions(ConfigurableApplicationContext node) {
+		return node.getBean(MeterRegistry.class).get("library.lateloans.partitions").counter().count();
+	}
+}
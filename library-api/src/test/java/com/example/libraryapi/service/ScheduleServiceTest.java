@@ -0,0 +1,239 @@
+package com.example.libraryapi.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.libraryapi.dto.LateLoanDTO;
+import com.example.libraryapi.repository.JobCheckpointRepository;
+import com.example.libraryapi.service.impl.ScheduleServiceImpl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class ScheduleServiceTest {
+	
+	private static final String MESSAGE = "Atenção! Você tem um emprestimo atrasado.";
+	
+	private static final String PARTITION = "late-loans-0";
+	
+	ScheduleServiceImpl scheduleService;
+	SimpleMeterRegistry meterRegistry;
+	
+	@MockBean
+	LoanService loanService;
+	
+	@MockBean
+	EmailService emailService;
+	
+	@MockBean
+	JobCheckpointRepository checkpointRepository;
+	
+	@BeforeEach
+	public void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		TransactionTemplate transactionTemplate = new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class));
+		scheduleService = new ScheduleServiceImpl(loanService, emailService, checkpointRepository, transactionTemplate, meterRegistry);
+		ReflectionTestUtils.setField(scheduleService, "message", MESSAGE);
+		ReflectionTestUtils.setField(scheduleService, "chunkSize", 2);
+		ReflectionTestUtils.setField(scheduleService, "partitions", 1);
+		ReflectionTestUtils.setField(scheduleService, "leaseMillis", 60000L);
+		ReflectionTestUtils.setField(scheduleService, "nodeId", "node-a");
+		scheduleService.init();
+		
+		Mockito.when(checkpointRepository.findClaimable(Mockito.anyCollection(), Mockito.eq("node-a"), Mockito.any(LocalDateTime.class)))
+			.thenAnswer(i -> new ArrayList<>(Collections.singletonList(PARTITION)))
+			.thenReturn(Collections.emptyList());
+		Mockito.when(checkpointRepository.claim(Mockito.eq(PARTITION), Mockito.eq("node-a"), Mockito.any(LocalDateTime.class), Mockito.any(LocalDateTime.class)))
+			.thenReturn(1);
+		Mockito.when(checkpointRepository.complete(Mockito.eq(PARTITION), Mockito.eq("node-a"), Mockito.any(LocalDateTime.class)))
+			.thenReturn(1);
+	}
+	
+	@Test
+	@DisplayName("Deve enviar um resumo por cliente com os livros vencidos e marcar os empréstimos como avisados")
+	@SuppressWarnings("unchecked")
+	public void sendMailLateLoansInChunksTest() {
+		// cenario
+		Mockito.when(loanService.findLateLoansToNotify(0, 1, 2)).thenReturn(
+				customers(late(1L, "a@email.com", "Java"), late(4L, "a@email.com", "Spring"), late(2L, "b@email.com", "JPA")),
+				customers(late(3L, "c@email.com", "JUnit")));
+		
+		// execucao
+		scheduleService.sendMailLateLoans();
+		
+		// verificacao
+		ArgumentCaptor<Map<String, String>> digests = ArgumentCaptor.forClass(Map.class);
+		Mockito.verify(emailService, Mockito.times(2)).sendMails(digests.capture());
+		Map<String, String> first = digests.getAllValues().get(0);
+		assertThat(first).containsOnlyKeys("a@email.com", "b@email.com");
+		assertThat(first.get("a@email.com")).contains(MESSAGE, "- Java (devolução prevista para", "- Spring (devolução prevista para");
+		assertThat(first.get("b@email.com")).contains("- JPA").doesNotContain("Java");
+		assertThat(digests.getAllValues().get(1)).containsOnlyKeys("c@email.com");
+		Mockito.verify(loanService).markNotified(Arrays.asList(1L, 4L, 2L));
+		Mockito.verify(loanService).markNotified(Collections.singletonList(3L));
+		
+		Mockito.verify(checkpointRepository).startRun(Mockito.eq(Collections.singletonList(PARTITION)), Mockito.eq(LocalDate.now()), Mockito.any(LocalDateTime.class));
+		Mockito.verify(checkpointRepository).complete(Mockito.eq(PARTITION), Mockito.eq("node-a"), Mockito.any(LocalDateTime.class));
+		assertThat(meterRegistry.get("library.lateloans.loans").counter().count()).isEqualTo(4);
+		assertThat(meterRegistry.get("library.lateloans.mails").counter().count()).isEqualTo(3);
+		assertThat(meterRegistry.get("library.lateloans.chunk").timer().count()).isEqualTo(2);
+		assertThat(meterRegistry.get("library.lateloans.partitions").counter().count()).isEqualTo(1);
+	}
+	
+	@Test
+	@DisplayName("Deve interromper a varredura na falha ao enfileirar sem marcar o lote como avisado")
+	public void stopOnEnqueueFailureTest() {
+		// cenario
+		Mockito.when(loanService.findLateLoansToNotify(0, 1, 2)).thenReturn(
+				customers(late(1L, "a@email.com", "Java"), late(2L, "b@email.com", "JPA")),
+				customers(late(3L, "c@email.com", "JUnit")));
+		Mockito.doNothing().doThrow(new DataAccessResourceFailureException("banco fora do ar"))
+			.when(emailService).sendMails(Mockito.anyMap());
+		
+		// execucao
+		scheduleService.sendMailLateLoans();
+		
+		// verificacao
+		Mockito.verify(loanService).markNotified(Arrays.asList(1L, 2L));
+		Mockito.verify(loanService, Mockito.never()).markNotified(Collections.singletonList(3L));
+		Mockito.verify(checkpointRepository, Mockito.never()).complete(Mockito.any(), Mockito.any(), Mockito.any());
+		assertThat(meterRegistry.get("library.lateloans.failures").counter().count()).isEqualTo(1);
+	}
+	
+	@Test
+	@DisplayName("Deve desistir do lote quando outro nó assumiu a partição")
+	public void stopWhenLeaseIsLostTest() {
+		// cenario
+		Mockito.when(checkpointRepository.claim(Mockito.eq(PARTITION), Mockito.eq("node-a"), Mockito.any(LocalDateTime.class), Mockito.any(LocalDateTime.class)))
+			.thenReturn(1, 0);
+		Mockito.when(loanService.findLateLoansToNotify(0, 1, 2)).thenReturn(customers(late(1L, "a@email.com", "Java")));
+		
+		// execucao
+		scheduleService.sendMailLateLoans();
+		
+		// verificacao
+		Mockito.verifyNoInteractions(emailService);
+		Mockito.verify(loanService, Mockito.never()).markNotified(Mockito.anyCollection());
+		Mockito.verify(checkpointRepository, Mockito.never()).complete(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+	
+	@Test
+	@DisplayName("Não deve varrer a partição cujo lease está com outro nó")
+	public void skipPartitionLeasedByAnotherNodeTest() {
+		// cenario
+		Mockito.when(checkpointRepository.claim(Mockito.eq(PARTITION), Mockito.eq("node-a"), Mockito.any(LocalDateTime.class), Mockito.any(LocalDateTime.class)))
+			.thenReturn(0);
+		
+		// execucao
+		scheduleService.sendMailLateLoans();
+		
+		// verificacao
+		Mockito.verifyNoInteractions(loanService, emailService);
+	}
+	
+	@Test
+	@DisplayName("Deve avisar só os empréstimos que venceram na roda, em lotes")
+	public void sendDueRemindersTest() {
+		// cenario
+		Mockito.when(loanService.pollDueLoans()).thenReturn(Arrays.asList(1L, 2L, 3L));
+		Mockito.when(loanService.findLateLoansToNotify(Arrays.asList(1L, 2L)))
+			.thenReturn(customers(late(1L, "a@email.com", "Java"), late(2L, "a@email.com", "JPA")));
+		Mockito.when(loanService.findLateLoansToNotify(Collections.singletonList(3L)))
+			.thenReturn(customers(late(3L, "b@email.com", "JUnit")));
+		
+		// execucao
+		scheduleService.sendDueReminders();
+		
+		// verificacao
+		Mockito.verify(emailService, Mockito.times(2)).sendMails(Mockito.anyMap());
+		Mockito.verify(loanService).markNotified(Arrays.asList(1L, 2L));
+		Mockito.verify(loanService).markNotified(Collections.singletonList(3L));
+		Mockito.verify(loanService, Mockito.never()).findLateLoansToNotify(Mockito.anyInt(), Mockito.anyInt(), Mockito.anyInt());
+		Mockito.verify(loanService, Mockito.never()).rescheduleDue(Mockito.anyCollection(), Mockito.any());
+		assertThat(meterRegistry.get("library.lateloans.loans").counter().count()).isEqualTo(3);
+	}
+	
+	@Test
+	@DisplayName("Deve devolver para a roda os empréstimos não avisados quando o envio falhar")
+	public void rescheduleDueRemindersOnFailureTest() {
+		// cenario
+		Mockito.when(loanService.pollDueLoans()).thenReturn(Arrays.asList(1L, 2L, 3L));
+		Mockito.when(loanService.findLateLoansToNotify(Mockito.anyCollection()))
+			.thenReturn(customers(late(1L, "a@email.com", "Java")));
+		Mockito.doThrow(new DataAccessResourceFailureException("banco fora do ar"))
+			.when(emailService).sendMails(Mockito.anyMap());
+		
+		// execucao
+		scheduleService.sendDueReminders();
+		
+		// verificacao
+		Mockito.verify(loanService).rescheduleDue(Mockito.eq(Arrays.asList(1L, 2L, 3L)), Mockito.any(LocalDateTime.class));
+		Mockito.verify(loanService, Mockito.never()).markNotified(Mockito.anyCollection());
+		assertThat(meterRegistry.get("library.lateloans.failures").counter().count()).isEqualTo(1);
+	}
+	
+	@Test
+	@DisplayName("Deve retomar na subida uma varredura interrompida")
+	public void resumeInterruptedSweepTest() {
+		// cenario
+		Mockito.when(loanService.findLateLoansToNotify(0, 1, 2)).thenReturn(customers(late(3L, "c@email.com", "JUnit")));
+		
+		// execucao
+		scheduleService.resumeInterruptedSweep();
+		
+		// verificacao
+		Mockito.verify(emailService).sendMails(Mockito.argThat(digests -> digests.keySet().equals(Collections.singleton("c@email.com"))));
+		Mockito.verify(checkpointRepository, Mockito.never()).startRun(Mockito.anyCollection(), Mockito.any(), Mockito.any());
+		Mockito.verify(checkpointRepository).complete(Mockito.eq(PARTITION), Mockito.eq("node-a"), Mockito.any(LocalDateTime.class));
+	}
+	
+	@Test
+	@DisplayName("Não deve retomar nada na subida quando a última varredura terminou")
+	public void notResumeFinishedSweepTest() {
+		// cenario
+		Mockito.when(checkpointRepository.findClaimable(Mockito.anyCollection(), Mockito.eq("node-a"), Mockito.any(LocalDateTime.class)))
+			.thenReturn(Collections.emptyList());
+		
+		// execucao
+		scheduleService.resumeInterruptedSweep();
+		
+		// verificacao
+		Mockito.verifyNoInteractions(loanService, emailService);
+	}
+	
+	private Map<String, List<LateLoanDTO>> customers(LateLoanDTO... lateLoans) {
+		Map<String, List<LateLoanDTO>> customers = new LinkedHashMap<>();
+		for (LateLoanDTO lateLoan : lateLoans) {
+			customers.computeIfAbsent(lateLoan.getEmail(), email -> new ArrayList<>()).add(lateLoan);
+		}
+		return customers;
+	}
+	
+	private LateLoanDTO late(Long id, String email, String tittle) {
+		return LateLoanDTO.builder().id(id).customer("Fulano").email(email).tittle(tittle)
+				.dueDate(LocalDateTime.now().minusDays(1)).build();
+	}
+}